@@ -0,0 +1,247 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.Chest;
+import org.bukkit.block.Sign;
+import org.bukkit.entity.Item;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * {@code BukkitStubs} creates blocks, signs, inventories and item entities
+ * that answer the few calls IntoChest makes on them, so the benchmarks and the
+ * {@link Simulator} run without a server. Every other call answers null, 0
+ * or false.
+ *
+ * @author Jeff Lee
+ */
+final class BukkitStubs {
+
+	/**
+	 * Answers a call made on a stub.
+	 */
+	interface Answer {
+		Object answer(String method, Object[] args);
+	}
+
+	private BukkitStubs() {
+	}
+
+	/**
+	 * Creates a single chest.
+	 *
+	 * @param x  x coordinate of the chest
+	 * @param y  y coordinate of the chest
+	 * @param z  z coordinate of the chest
+	 * @param contents  contents of the chest, null slots are empty
+	 * @return the chest block
+	 */
+	static Block chest(int x, int y, int z, ItemStack[] contents) {
+		Block[] block = new Block[1];
+		Inventory inventory = inventory(contents);
+		Chest state = stub(Chest.class, (method, args) -> {
+			switch (method) {
+				case "getInventory": return inventory;
+				case "getBlock":     return block[0];
+				case "getType":      return Material.CHEST;
+				default:             return null;
+			}
+		});
+
+		block[0] = stub(Block.class, (method, args) -> {
+			switch (method) {
+				case "getX":     return x;
+				case "getY":     return y;
+				case "getZ":     return z;
+				case "getType":  return Material.CHEST;
+				case "getState": return state;
+				default:         return null;
+			}
+		});
+		return block[0];
+	}
+
+	/**
+	 * Creates a sign.
+	 *
+	 * @param lines  the text of the sign, up to four lines
+	 * @return the sign
+	 */
+	static Sign sign(String... lines) {
+		String[] text = {"", "", "", ""};
+
+		System.arraycopy(lines, 0, text, 0, Math.min(lines.length, text.length));
+		return stub(Sign.class, (method, args) -> {
+			switch (method) {
+				case "getLines": return text.clone();
+				case "getLine":  return text[(Integer) args[0]];
+				case "getType":  return Material.SIGN_POST;
+				default:         return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates an item entity. Removing it makes it invalid, teleporting it 
+	 * moves it, and its stack is copied in and out the way Bukkit does.
+	 *
+	 * @param location  where the item lies
+	 * @param stack  the stack of the item
+	 * @return the item
+	 */
+	static Item item(Location location, ItemStack stack) {
+		UUID id = UUID.randomUUID();
+		Location[] at = {location};
+		ItemStack[] held = {stack.clone()};
+		boolean[] isRemoved = new boolean[1];
+
+		return stub(Item.class, (method, args) -> {
+			switch (method) {
+				case "getUniqueId":  return id;
+				case "getWorld":     return at[0].getWorld();
+				case "getLocation":  return at[0];
+				case "getItemStack": return held[0].clone();
+				case "setItemStack": held[0] = ((ItemStack) args[0]).clone(); return null;
+				case "isValid":      return !isRemoved[0];
+				case "isDead":       return isRemoved[0];
+				case "remove":       isRemoved[0] = true; return null;
+				case "teleport":     at[0] = (Location) args[0]; return true;
+				default:             return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates an inventory. Items are added the way Bukkit adds them: onto 
+	 * stacks of the same item that are not full first, then into empty slots.
+	 *
+	 * @param contents  the slots of the inventory, changed as items are added
+	 * @return the inventory
+	 */
+	static Inventory inventory(ItemStack[] contents) {
+		return stub(Inventory.class, (method, args) -> {
+			switch (method) {
+				case "getContents":     return contents.clone();
+				case "getSize":         return contents.length;
+				case "getMaxStackSize": return 64;
+				case "addItem":         return addItem(contents, (ItemStack[]) args[0]);
+				default:                return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates a stub of a Bukkit interface.
+	 *
+	 * @param type  the interface
+	 * @param answer  answers the calls made on the stub
+	 * @return the stub
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T stub(Class<T> type, Answer answer) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+				(proxy, method, args) -> {
+					Object value;
+
+					switch (method.getName()) {
+						case "hashCode": return System.identityHashCode(proxy);
+						case "equals":   return proxy == args[0];
+						case "toString": return type.getSimpleName() + " stub";
+						default:         value = answer.answer(method.getName(), args);
+					}
+					return value != null ? value : defaultOf(method.getReturnType());
+				});
+	}
+
+	private static HashMap<Integer, ItemStack> addItem(ItemStack[] contents, 
+			ItemStack[] stacks) {
+		HashMap<Integer, ItemStack> leftovers = new HashMap<Integer, ItemStack>();
+		ItemStack leftover;
+		int amount;
+		int max;
+		int take;
+
+		for (int i = 0; i < stacks.length; i++) {
+			amount = stacks[i].getAmount();
+			max = stacks[i].getMaxStackSize();
+			for (int slot = 0; slot < contents.length && amount > 0; slot++) {
+				if (contents[slot] != null && contents[slot].isSimilar(stacks[i]) &&
+						contents[slot].getAmount() < max) {
+					take = Math.min(amount, max - contents[slot].getAmount());
+					contents[slot].setAmount(contents[slot].getAmount() + take);
+					amount -= take;
+				}
+			}
+			for (int slot = 0; slot < contents.length && amount > 0; slot++) {
+				if (contents[slot] == null) {
+					take = Math.min(amount, max);
+					contents[slot] = stacks[i].clone();
+					contents[slot].setAmount(take);
+					amount -= take;
+				}
+			}
+			if (amount > 0) {
+				leftover = stacks[i].clone();
+				leftover.setAmount(amount);
+				leftovers.put(i, leftover);
+			}
+		}
+		return leftovers;
+	}
+
+	/**
+	 * Gets the value a call of a method without an answer returns.
+	 */
+	private static Object defaultOf(Class<?> type) {
+		if (!type.isPrimitive() || type == void.class) {
+			return null;
+		}
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == char.class) {
+			return '\0';
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		if (type == float.class) {
+			return 0f;
+		}
+		if (type == double.class) {
+			return 0d;
+		}
+		if (type == byte.class) {
+			return (byte) 0;
+		}
+		if (type == short.class) {
+			return (short) 0;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code CapacityBench} measures checking a chest for room, across how full
+ * the chest is.
+ * <p>
+ * {@link #summarize()} is the cost of the first check after the contents of
+ * the chest changed, which reads every slot. {@link #cached()} is the cost of
+ * every other check, see {@link CapacityTracker}.
+ *
+ * @author Jeff Lee
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CapacityBench {
+
+	private static final Material[] FILLERS = 
+		{Material.COBBLESTONE, Material.DIRT, Material.SAND, Material.STONE};
+	private static final int STONE = ItemKey.of(1, 0);
+
+	/** Percentage of the slots of the chest that hold an item. */
+	@Param({"0", "50", "90", "100"})
+	public int fill;
+
+	private EndComponent end;
+	private CapacityTracker.Capacity capacity;
+
+	/**
+	 * Fills the chest. Filled slots hold full stacks of a few kinds of items,
+	 * the last filled slot holds half a stack.
+	 */
+	@Setup
+	public void setUp() {
+		ItemStack[] contents = new ItemStack[27];
+		int filled = contents.length * fill / 100;
+
+		for (int i = 0; i < filled; i++) {
+			contents[i] = new ItemStack(FILLERS[i % FILLERS.length], 
+					i == filled - 1 ? 32 : 64);
+		}
+		end = EndComponent.of(BukkitStubs.chest(0, 64, 0, contents));
+		capacity = new CapacityTracker.Capacity(end.getContents());
+	}
+
+	/**
+	 * Checks the room for stone by reading every slot.
+	 *
+	 * @return the room
+	 */
+	@Benchmark
+	public int summarize() {
+		return new CapacityTracker.Capacity(end.getContents()).getRoom(STONE, 64);
+	}
+
+	/**
+	 * Checks the room for stone from the summary of the chest.
+	 *
+	 * @return the room
+	 */
+	@Benchmark
+	public int cached() {
+		return capacity.getRoom(STONE, 64);
+	}
+}
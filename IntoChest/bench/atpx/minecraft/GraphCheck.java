@@ -0,0 +1,588 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * {@code GraphCheck} checks that walking a {@link NetworkGraph} that was
+ * kept up to date with {@link NetworkGraph#markDirty(long)} and
+ * {@link NetworkGraph#update(BlockView)} goes exactly where walking the
+ * world goes.
+ * <p>
+ * Small worlds of random wires, signs, chests and crafting tables are built
+ * in a {@link SimWorld} and changed a few blocks at a time. After every
+ * round of changes the graph is updated, crafting tables are added to it
+ * and it is grown, sometimes only by a slice (see
+ * {@link NetworkGraph#grow(BlockView, long)}). A walk from each crafting
+ * table whose network is complete is run both over the graph and
+ * over the world, with random chests full, random signs blocking and a
+ * random budget. The walks must reach the same result, and unless the
+ * budget ran out they must visit the same components in the same order and
+ * count the same number of blocks. Its networks must be exactly the nodes
+ * joined by edges, whichever way, and once fully grown it must also hold
+ * exactly what a graph compiled afresh from the same crafting tables holds: the same
+ * components, edges, wires jumped over and networks.
+ * <p>
+ * Then larger worlds get round after round of bursts of changed blocks, each
+ * telling the graph about more blocks than it remembers one by one (see
+ * {@link NetworkGraph#MAX_DIRTY}) across several chunks, so that the graph
+ * recompiles the chunks that changed instead of the blocks, and are checked
+ * the same way after every burst.
+ * <p>
+ * Runs in the {@code test} phase of the {@code bench} profile, and exits
+ * with status 1 at the first difference. Run on its own with:
+ * <pre>
+ * mvn -P bench test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=atpx.minecraft.GraphCheck -Dexec.args="--worlds 500"
+ * </pre>
+ * Other options are {@code --seed}, {@code --rounds} and {@code --bursts}.
+ *
+ * @author Jeff Lee
+ */
+public final class GraphCheck {
+
+	private static final int HEIGHT = 4;
+	private static final int BURST_SIZE = 128;     //Width of the worlds bursts change
+	private static final int BURST_ROUNDS = 8;     //Bursts per world
+	private static final int BURST_WORKBENCHES = 12;
+	private static final int[] DX = {1, -1, 0, 0, 0, 0};
+	private static final int[] DY = {0, 0, 1, -1, 0, 0};
+	private static final int[] DZ = {0, 0, 0, 0, 1, -1};
+
+	//Blocks the worlds are built of, and changed to, mostly wire and air
+	private static final Material[] BLOCKS = {
+		Material.AIR, Material.AIR, Material.AIR,
+		Material.REDSTONE_WIRE, Material.REDSTONE_WIRE, Material.REDSTONE_WIRE,
+		Material.REDSTONE_WIRE, Material.REDSTONE_WIRE, Material.STONE,
+		Material.CHEST, Material.DISPENSER, Material.SIGN_POST, Material.WALL_SIGN,
+		Material.WORKBENCH
+	};
+
+	private final Random random;
+	private final ArrayList<Long> order = new ArrayList<Long>();
+	private final LongHashSet full = new LongHashSet(256);
+	private final LongHashSet blocking = new LongHashSet(256);
+	private final PathWalker walker = new PathWalker(0, 0);
+	private SimWorld sim;
+	private int size;
+	private String where;
+
+	//Results of the run
+	private long changes;
+	private long recompiles;
+	private long tooBig;
+	private long chunkUpdates;
+	private long walks;
+
+	private final PathWalker.Visitor visitor = (key, type) -> {
+		//Wires jumped over are not visited, see NetworkGraph#getJump
+		if (type != Material.REDSTONE_WIRE) {
+			order.add(key);
+		}
+		if ((type == Material.CHEST || type == Material.DISPENSER) && !full.contains(key)) {
+			return PathWalker.Visit.FOUND;
+		}
+		if ((type == Material.SIGN_POST || type == Material.WALL_SIGN) && blocking.contains(key)) {
+			return PathWalker.Visit.BLOCK;
+		}
+		return PathWalker.Visit.PASS;
+	};
+
+	private GraphCheck(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Builds random worlds, changes them and compares the walks.
+	 *
+	 * @param args  the options, see the class documentation
+	 */
+	public static void main(String[] args) {
+		int worlds = option(args, "--worlds", 150);
+		int rounds = option(args, "--rounds", 20);
+		int bursts = option(args, "--bursts", 6);
+		GraphCheck check = new GraphCheck(option(args, "--seed", 1));
+		long start = System.nanoTime();
+
+		for (int i = 0; i < worlds; i++) {
+			if (!check.checkWorld(i, rounds)) {
+				System.out.println("Graph check failed " + check.where);
+				System.exit(1);
+			}
+		}
+		for (int i = 0; i < bursts; i++) {
+			if (!check.checkBurst(worlds + i)) {
+				System.out.println("Graph check failed after a burst of changes " + check.where);
+				System.exit(1);
+			}
+		}
+		System.out.println("Graph walks matched world walks in " + (worlds + bursts) + 
+				" worlds: " + check.walks + " walks, " + check.changes + " changed blocks, " +
+				check.chunkUpdates + " updates by chunk, " + check.recompiles + 
+				" recompiles, " + check.tooBig + " crafting tables dropped as too big, " + 
+				RoutingStats.formatNanos(System.nanoTime() - start));
+	}
+
+	/**
+	 * Builds one world and checks it through every round of changes.
+	 *
+	 * @return false at the first difference
+	 */
+	private boolean checkWorld(int world, int rounds) {
+		//Some graphs drop networks with too many nodes
+		int maxNodes = random.nextInt(4) == 0 ? 20 + random.nextInt(200) : 0;
+		NetworkGraph graph = new NetworkGraph(maxNodes);
+
+		sim = new SimWorld("check", world);
+		size = 4 + random.nextInt(14);
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int z = 0; z < size; z++) {
+					sim.set(x, y, z, BLOCKS[random.nextInt(BLOCKS.length)]);
+				}
+			}
+		}
+
+		for (int round = 0; round < rounds; round++) {
+			where = "in world " + world + ", round " + round;
+			change(graph);
+			if (graph.isDirty()) {
+				graph.update(sim);
+			}
+			if (!graph.isUsable()) {
+				graph = new NetworkGraph(maxNodes);
+				recompiles++;
+			}
+			addWorkbenches(graph);
+
+			//Sometimes only a slice is grown, leaving networks to be walked later
+			graph.grow(sim, random.nextInt(3) == 0 ? 0 : Long.MAX_VALUE);
+			tooBig += graph.getTooBigWorkbenches().size();
+			if (!checkWalks(graph) || !checkNetworks(graph, maxNodes) || 
+					(maxNodes == 0 && !graph.isGrowing() && !checkFresh(graph))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds one larger world with a few crafting tables, compiles it, then
+	 * changes random areas of it, telling the graph about every block of an
+	 * area at once, and checks the updated graph after each.
+	 *
+	 * @return false if the graph differs
+	 */
+	private boolean checkBurst(int world) {
+		NetworkGraph graph = new NetworkGraph(0);
+		//Narrowest area with more blocks than the graph remembers one by one
+		int minArea = (int) Math.sqrt(NetworkGraph.MAX_DIRTY / HEIGHT) + 1;
+		int area;
+		int areaX;
+		int areaZ;
+
+		sim = new SimWorld("check", world);
+		size = BURST_SIZE;
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int z = 0; z < size; z++) {
+					//Crafting tables are placed below, so networks are few and large
+					sim.set(x, y, z, BLOCKS[random.nextInt(BLOCKS.length - 1)]);
+				}
+			}
+		}
+		for (int i = 0; i < BURST_WORKBENCHES; i++) {
+			sim.set(random.nextInt(size), random.nextInt(HEIGHT), random.nextInt(size), 
+					Material.WORKBENCH);
+		}
+		addWorkbenches(graph);
+		graph.grow(sim, Long.MAX_VALUE);
+
+		for (int round = 0; round < BURST_ROUNDS; round++) {
+			where = "in world " + world + ", burst " + round;
+			//Now and then so many chunks change that the graph is compiled again
+			area = random.nextInt(8) == 0 ? size - 1 : minArea + random.nextInt(16);
+			areaX = random.nextInt(size - area);
+			areaZ = random.nextInt(size - area);
+
+			//Every block of the area is told about, some of them changed
+			for (int x = areaX; x < areaX + area; x++) {
+				for (int y = 0; y < HEIGHT; y++) {
+					for (int z = areaZ; z < areaZ + area; z++) {
+						if (random.nextInt(8) == 0) {
+							sim.set(x, y, z, BLOCKS[random.nextInt(BLOCKS.length)]);
+							changes++;
+						}
+						graph.markDirty(BlockKey.of(x, y, z));
+					}
+				}
+			}
+			graph.update(sim);
+			if (!graph.isUsable()) {
+				graph = new NetworkGraph(0);
+				recompiles++;
+			}
+			else {
+				chunkUpdates++;
+			}
+			addWorkbenches(graph);
+			graph.grow(sim, Long.MAX_VALUE);
+			if (!checkWalks(graph) || !checkNetworks(graph, 0) || !checkFresh(graph)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Changes a few random blocks, telling the graph about each one or about
+	 * a block next to it, the way the listeners do.
+	 */
+	private void change(NetworkGraph graph) {
+		int count = random.nextInt(5);
+		int x;
+		int y;
+		int z;
+		int dir;
+
+		for (int i = 0; i < count; i++) {
+			x = random.nextInt(size + 1) - 1;
+			y = random.nextInt(HEIGHT + 1) - 1;
+			z = random.nextInt(size + 1) - 1;
+			if (y >= 0) {
+				sim.set(x, y, z, BLOCKS[random.nextInt(BLOCKS.length)]);
+			}
+			if (random.nextBoolean()) {
+				graph.markDirty(BlockKey.of(x, y, z));
+			}
+			else {
+				dir = random.nextInt(DX.length);
+				graph.markDirty(BlockKey.of(x + DX[dir], y + DY[dir], z + DZ[dir]));
+			}
+			changes++;
+		}
+	}
+
+	/**
+	 * Adds most of the crafting tables of the world that are not in the
+	 * graph yet, as routing items from them would.
+	 */
+	private void addWorkbenches(NetworkGraph graph) {
+		long key;
+
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int z = 0; z < size; z++) {
+					key = BlockKey.of(x, y, z);
+					if (sim.getType(x, y, z) == Material.WORKBENCH &&
+							graph.getNetwork(key) == null && random.nextInt(3) > 0) {
+						graph.addWorkbench(key, sim);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walks from every crafting table of the graph over the graph and over
+	 * the world.
+	 *
+	 * @return false if a walk differs
+	 */
+	private boolean checkWalks(NetworkGraph graph) {
+		ArrayList<Long> expected;
+		PathWalker.Result worldResult;
+		PathWalker.Result graphResult;
+		int worldVisited;
+		int budget;
+
+		full.clear();
+		blocking.clear();
+		for (int x = -1; x <= size; x++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int z = -1; z <= size; z++) {
+					if (random.nextInt(3) > 0) {
+						full.add(BlockKey.of(x, y, z));
+					}
+					if (random.nextInt(4) == 0) {
+						blocking.add(BlockKey.of(x, y, z));
+					}
+				}
+			}
+		}
+
+		for (long workKey : graph.getWorkbenches()) {
+			if (!graph.getNetwork(workKey).isComplete()) {
+				continue;
+			}
+			budget = random.nextBoolean() ? 0 : 1 + random.nextInt(60);
+			walker.setBudget(budget, 0);
+
+			walker.reset();
+			order.clear();
+			worldResult = walker.walk(sim, workKey, visitor);
+			worldVisited = walker.getNodesVisited();
+			expected = new ArrayList<Long>(order);
+
+			walker.reset();
+			order.clear();
+			graphResult = walker.walk(graph, workKey, visitor);
+			walks++;
+
+			if (worldResult != graphResult) {
+				where += ", from " + BlockKey.toString(workKey) + ": " + worldResult +
+						" over the world, " + graphResult + " over the graph";
+				return false;
+			}
+			if (worldResult == PathWalker.Result.BUDGET_EXCEEDED) {
+				continue;
+			}
+			if (!expected.equals(order)) {
+				where += ", from " + BlockKey.toString(workKey) + ": visited " +
+						expected + " over the world, " + order + " over the graph";
+				return false;
+			}
+			if (worldVisited != walker.getNodesVisited()) {
+				where += ", from " + BlockKey.toString(workKey) + ": counted " +
+						worldVisited + " blocks over the world, " +
+						walker.getNodesVisited() + " over the graph";
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Joins the nodes of a graph along their edges and checks that the parts
+	 * are its networks, one to one, and that none has more nodes than a walk
+	 * may reach.
+	 *
+	 * @return false if they differ
+	 */
+	private boolean checkNetworks(NetworkGraph graph, int maxNodes) {
+		int[] parents = new int[graph.size()];
+		HashMap<Integer, NetworkGraph.Network> networks = 
+				new HashMap<Integer, NetworkGraph.Network>();
+		HashMap<NetworkGraph.Network, Integer> roots = 
+				new HashMap<NetworkGraph.Network, Integer>();
+		NetworkGraph.Network network;
+		int next;
+		int root;
+
+		for (int node = 0; node < parents.length; node++) {
+			parents[node] = node;
+		}
+		for (int node = 0; node < parents.length; node++) {
+			for (int dir = 0; dir < 4; dir++) {
+				next = graph.getEdge(node, dir);
+				if (next >= 0) {
+					parents[find(parents, node)] = find(parents, next);
+				}
+			}
+		}
+		for (int node = 0; node < parents.length; node++) {
+			if (graph.getType(node) == null) {
+				continue;
+			}
+			root = find(parents, node);
+			network = graph.getNetwork(graph.getKey(node));
+			if (maxNodes > 0 && network.size() > maxNodes) {
+				where += ", at " + BlockKey.toString(graph.getKey(node)) + ": network of " + 
+						network.size() + " nodes kept";
+				return false;
+			}
+			if (networks.containsKey(root) ? networks.get(root) != network : 
+					roots.containsKey(network)) {
+				where += ", at " + BlockKey.toString(graph.getKey(node)) + 
+						": network differs from the nodes joined to it";
+				return false;
+			}
+			networks.put(root, network);
+			roots.put(network, root);
+		}
+		if (networks.size() != graph.getNetworkCount()) {
+			where += ": " + graph.getNetworkCount() + " networks, " + networks.size() + 
+					" of joined nodes";
+			return false;
+		}
+		return true;
+	}
+
+	private static int find(int[] parents, int node) {
+		while (parents[node] != node) {
+			node = parents[node] = parents[parents[node]];
+		}
+		return node;
+	}
+
+	/**
+	 * Compiles a graph afresh from the crafting tables of a graph and
+	 * compares the two by block key.
+	 * <p>
+	 * An updated graph may keep nodes that no crafting table reaches any 
+	 * more, as long as they are joined to its network (see 
+	 * {@link NetworkGraph}). They are never walked to, but a network they 
+	 * join may be one where the fresh graph has two, and a wire they have an
+	 * edge into is no link. Everything else must be the same.
+	 *
+	 * @return false if they differ
+	 */
+	private boolean checkFresh(NetworkGraph graph) {
+		NetworkGraph fresh = new NetworkGraph(0);
+		boolean[] isReached = new boolean[graph.size()];
+		boolean[] isEnteredAside = new boolean[graph.size()];  //Has an edge from a node not reached
+		int[] queue = new int[graph.size()];
+		int queueSize = 0;
+		HashMap<NetworkGraph.Network, NetworkGraph.Network> networks = 
+				new HashMap<NetworkGraph.Network, NetworkGraph.Network>();
+		NetworkGraph.Network network;
+		String at;
+		long key;
+		int node;
+		int next;
+		int other;
+		int jump;
+		int freshJump;
+
+		for (long workKey : graph.getWorkbenches()) {
+			fresh.addWorkbench(workKey, sim);
+			node = graph.nodeOf(workKey);
+			isReached[node] = true;
+			queue[queueSize++] = node;
+		}
+		fresh.grow(sim, Long.MAX_VALUE);
+		for (int i = 0; i < queueSize; i++) {
+			for (int dir = 0; dir < 4; dir++) {
+				next = graph.getEdge(queue[i], dir);
+				if (next >= 0 && !isReached[next]) {
+					isReached[next] = true;
+					queue[queueSize++] = next;
+				}
+			}
+		}
+		for (node = 0; node < graph.size(); node++) {
+			for (int dir = 0; dir < 4 && !isReached[node]; dir++) {
+				next = graph.getEdge(node, dir);
+				if (next >= 0) {
+					isEnteredAside[next] = true;
+				}
+			}
+		}
+		if (fresh.getNodeCount() != queueSize) {
+			where += ": " + queueSize + " components reached, compiled afresh " + 
+					fresh.getNodeCount();
+			return false;
+		}
+
+		for (int i = 0; i < queueSize; i++) {
+			node = queue[i];
+			key = graph.getKey(node);
+			other = fresh.nodeOf(key);
+			at = ", at " + BlockKey.toString(key);
+			if (other < 0 || fresh.getType(other) != graph.getType(node)) {
+				where += at + ": " + graph.getType(node) + ", compiled afresh " + 
+						(other < 0 ? "missing" : fresh.getType(other));
+				return false;
+			}
+			if (!isEnteredAside[node] && fresh.isLink(other) != graph.isLink(node)) {
+				where += at + ": jumped over " + graph.isLink(node) + ", compiled afresh " + 
+						fresh.isLink(other);
+				return false;
+			}
+			for (int dir = 0; dir < 4; dir++) {
+				next = graph.getEdge(node, dir);
+				if (keyOf(graph, next) != keyOf(fresh, fresh.getEdge(other, dir))) {
+					where += at + ": edge " + dir + " differs from compiled afresh";
+					return false;
+				}
+				if (next < 0 || isEnteredAside[node] || isEnteredAside[next]) {
+					continue;
+				}
+				jump = graph.getJump(node, dir);
+				freshJump = fresh.getJump(other, dir);
+				if ((jump < 0) != (freshJump < 0)) {
+					where += at + ": jump " + dir + " differs from compiled afresh";
+					return false;
+				}
+				if (jump >= 0 && isRunClean(graph, isEnteredAside, node, next) && 
+						(graph.getKey(graph.getJumpTarget(jump)) != 
+								fresh.getKey(fresh.getJumpTarget(freshJump)) || 
+						graph.getJumpWeight(jump) != fresh.getJumpWeight(freshJump))) {
+					where += at + ": jump " + dir + " differs from compiled afresh";
+					return false;
+				}
+			}
+
+			//Every fresh network must lie within one network of the graph
+			network = networks.get(fresh.getNetwork(key));
+			if (network == null) {
+				networks.put(fresh.getNetwork(key), graph.getNetwork(key));
+			}
+			else if (network != graph.getNetwork(key)) {
+				where += at + ": split from a network it is joined to when compiled afresh";
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Follows a run of links and checks that no node reaches into it from
+	 * aside, so that it is the same run in a graph compiled afresh.
+	 */
+	private static boolean isRunClean(NetworkGraph graph, boolean[] isEnteredAside, 
+			int from, int node) {
+		int previous = from;
+		int next;
+
+		for (int steps = 0; graph.isLink(node) && steps <= graph.size(); steps++) {
+			for (int dir = 0; dir < 4; dir++) {
+				next = graph.getEdge(node, dir);
+				if (next >= 0 && next != previous) {
+					previous = node;
+					node = next;
+					break;
+				}
+			}
+			if (isEnteredAside[node]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long keyOf(NetworkGraph graph, int node) {
+		return node >= 0 ? graph.getKey(node) : Long.MIN_VALUE;
+	}
+
+	private static int option(String[] args, String name, int fallback) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals(name)) {
+				return Integer.parseInt(args[i + 1]);
+			}
+		}
+		return fallback;
+	}
+}
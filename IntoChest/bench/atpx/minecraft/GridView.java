@@ -0,0 +1,72 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+
+/**
+ * {@code GridView} is a flat layer of blocks for benchmarking walks. Every
+ * block outside of the layer is air.
+ *
+ * @author Jeff Lee
+ */
+final class GridView implements BlockView {
+
+	private final int width;
+	private final int depth;
+	private final int y;
+	private final Material[] types;
+
+	/**
+	 * Creates a layer of air.
+	 *
+	 * @param width  number of blocks along x, starting at 0
+	 * @param depth  number of blocks along z, starting at 0
+	 * @param y  height of the layer
+	 */
+	GridView(int width, int depth, int y) {
+		this.width = width;
+		this.depth = depth;
+		this.y = y;
+		this.types = new Material[width * depth];
+	}
+
+	/**
+	 * Sets the type of a block of the layer.
+	 *
+	 * @param x  x coordinate of the block
+	 * @param z  z coordinate of the block
+	 * @param type  the type of the block
+	 */
+	void set(int x, int z, Material type) {
+		types[x * depth + z] = type;
+	}
+
+	@Override
+	public Material getType(int x, int y, int z) {
+		Material type;
+
+		if (y != this.y || x < 0 || x >= width || z < 0 || z >= depth) {
+			return Material.AIR;
+		}
+		type = types[x * depth + z];
+		return type != null ? type : Material.AIR;
+	}
+}
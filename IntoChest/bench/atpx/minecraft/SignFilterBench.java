@@ -0,0 +1,114 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.block.Sign;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code SignFilterBench} measures reading a filter sign and checking items
+ * against it, across the shapes of signs players write.
+ * <p>
+ * {@link #compile()} is the cost of reading a sign, paid once per sign since
+ * filters are cached. {@link #firstMatch(Blackhole)} is the cost of checking
+ * an item against a sign, paid for every sign every walk reaches.
+ *
+ * @author Jeff Lee
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignFilterBench {
+
+	//Items checked against the sign: stone, birch wood, diamond, orange carpet
+	private static final int[] ITEMS = 
+		{ItemKey.of(1, 0), ItemKey.of(17, 2), ItemKey.of(264, 0), ItemKey.of(171, 1)};
+
+	/** Shape of the sign. */
+	@Param({"name", "group", "ids", "wildcard", "long"})
+	public String shape;
+
+	private Sign sign;
+	private SignFilter filter;
+
+	/**
+	 * Writes the sign.
+	 */
+	@Setup
+	public void setUp() {
+		switch (shape) {
+			case "name":
+				sign = BukkitStubs.sign("stone");
+				break;
+			case "group":
+				sign = BukkitStubs.sign("diamonds");
+				break;
+			case "ids":
+				sign = BukkitStubs.sign("1,17|2,", "264|0,", "4");
+				break;
+			case "wildcard":
+				sign = BukkitStubs.sign("cobblestone,*");
+				break;
+			default:
+				sign = BukkitStubs.sign("stone,dirt,", "cobblestone,sand,", 
+						"diamonds,armor,", "carpet,17|2");
+				break;
+		}
+		filter = SignFilter.compile(sign.getLines());
+	}
+
+	/**
+	 * Reads the sign.
+	 *
+	 * @return the filter of the sign
+	 */
+	@Benchmark
+	public SignFilter compile() {
+		return SignFilter.compile(sign.getLines());
+	}
+
+	/**
+	 * Checks every item against the sign.
+	 *
+	 * @param blackhole  takes the results
+	 */
+	@Benchmark
+	public void firstMatch(Blackhole blackhole) {
+		for (int item : ITEMS) {
+			blackhole.consume(filter.firstMatch(item));
+		}
+	}
+}
@@ -0,0 +1,352 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.block.Dispenser;
+import org.bukkit.block.Sign;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.UUID;
+
+/**
+ * {@code SimWorld} is an in-memory world for running IntoChest routing 
+ * without a server, see {@link Simulator}.
+ * <p>
+ * Block types are kept as one byte per block in sections of 16x16x16 blocks,
+ * so millions of blocks take a few bytes each. Only signs and
+ * chests/dispensers keep more: the lines of the sign and the slots of the
+ * inventory. Everything that was never set is air.
+ * <p>
+ * Blocks are read directly as a {@link BlockView}, or through Bukkit
+ * {@link World}, {@link Block}, {@link BlockState} and {@link Inventory}
+ * stand-ins (see {@link BukkitStubs}) that answer the calls IntoChest makes.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Jeff Lee
+ */
+final class SimWorld implements BlockView {
+
+	private static final Material[] BY_ID = new Material[256];
+
+	static {
+		for (Material material : Material.values()) {
+			@SuppressWarnings("deprecation")
+			int id = material.getId();
+			if (id >= 0 && id < BY_ID.length && BY_ID[id] == null) {
+				BY_ID[id] = material;
+			}
+		}
+	}
+
+	private final UUID uid;
+	private final String name;
+	private final World world;
+	//Block types of every section, by section coordinates packed as a block key
+	private final LongObjectHashMap<byte[]> sections = new LongObjectHashMap<byte[]>();
+	private final LongObjectHashMap<String[]> signs = new LongObjectHashMap<String[]>();
+	//One inventory per chest/dispenser, so it equals itself between lookups
+	private final LongObjectHashMap<Inventory> inventories = 
+			new LongObjectHashMap<Inventory>();
+	private long blockCount;
+
+	/**
+	 * Creates an empty world.
+	 *
+	 * @param name  name of the world
+	 * @param seed  seed of the unique ID of the world
+	 */
+	SimWorld(String name, long seed) {
+		this.name = name;
+		this.uid = new UUID(seed, seed);
+		this.world = BukkitStubs.stub(World.class, (method, args) -> {
+			switch (method) {
+				case "getName":     return this.name;
+				case "getUID":      return uid;
+				case "getMaxHeight": return 256;
+				case "getBlockAt":
+					return args.length == 3 ? 
+							getBlockAt((Integer) args[0], (Integer) args[1], (Integer) args[2]) :
+							null;
+				default:            return null;
+			}
+		});
+	}
+
+	/**
+	 * Gets the Bukkit stand-in of the world.
+	 *
+	 * @return the world
+	 */
+	World getWorld() {
+		return world;
+	}
+
+	/**
+	 * Gets the number of blocks that are not air.
+	 *
+	 * @return number of blocks
+	 */
+	long getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Gets the number of bytes used to hold block types.
+	 *
+	 * @return number of bytes
+	 */
+	long getSectionBytes() {
+		return (long) sections.size() * 4096;
+	}
+
+	/**
+	 * Sets the type of a block. Setting a sign or chest/dispenser this way
+	 * gives it no text or an inventory, see {@link #setSign(int, int, int, String...)}
+	 * and {@link #setChest(int, int, int, int)}.
+	 *
+	 * @param x  x coordinate of the block
+	 * @param y  y coordinate of the block, 0 to 255
+	 * @param z  z coordinate of the block
+	 * @param type  the type of the block, a block with an ID below 256
+	 */
+	@SuppressWarnings("deprecation")
+	void set(int x, int y, int z, Material type) {
+		long sectionKey = BlockKey.of(x >> 4, y >> 4, z >> 4);
+		byte[] section = sections.get(sectionKey);
+		int index = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+		long key = BlockKey.of(x, y, z);
+
+		if (section == null) {
+			section = new byte[4096];
+			sections.put(sectionKey, section);
+		}
+		if (section[index] == 0 && type != Material.AIR) {
+			blockCount++;
+		}
+		else if (section[index] != 0 && type == Material.AIR) {
+			blockCount--;
+		}
+		section[index] = (byte) type.getId();
+		signs.remove(key);
+		inventories.remove(key);
+	}
+
+	/**
+	 * Places a sign post.
+	 *
+	 * @param x  x coordinate of the sign
+	 * @param y  y coordinate of the sign
+	 * @param z  z coordinate of the sign
+	 * @param lines  the text of the sign, up to four lines
+	 */
+	void setSign(int x, int y, int z, String... lines) {
+		String[] text = {"", "", "", ""};
+
+		System.arraycopy(lines, 0, text, 0, Math.min(lines.length, text.length));
+		set(x, y, z, Material.SIGN_POST);
+		signs.put(BlockKey.of(x, y, z), text);
+	}
+
+	/**
+	 * Places an empty chest.
+	 *
+	 * @param x  x coordinate of the chest
+	 * @param y  y coordinate of the chest
+	 * @param z  z coordinate of the chest
+	 * @param size  number of slots
+	 * @return the slots of the chest, changed as items are stored
+	 */
+	ItemStack[] setChest(int x, int y, int z, int size) {
+		ItemStack[] contents = new ItemStack[size];
+
+		set(x, y, z, Material.CHEST);
+		inventories.put(BlockKey.of(x, y, z), BukkitStubs.inventory(contents));
+		return contents;
+	}
+
+	/**
+	 * Gets the text of a sign.
+	 *
+	 * @param key  block key of the sign
+	 * @return the lines of the sign or null if there is no sign
+	 */
+	String[] getLines(long key) {
+		return signs.get(key);
+	}
+
+	@Override
+	public Material getType(int x, int y, int z) {
+		byte[] section;
+		Material type;
+
+		if (y < 0 || y > 255) {
+			return Material.AIR;
+		}
+		section = sections.get(BlockKey.of(x >> 4, y >> 4, z >> 4));
+		if (section == null) {
+			return Material.AIR;
+		}
+		type = BY_ID[section[((y & 15) << 8) | ((z & 15) << 4) | (x & 15)] & 0xFF];
+		return type != null ? type : Material.AIR;
+	}
+
+	/**
+	 * Gets a location in the world. Its coordinates and block are answered
+	 * from this world rather than by {@link Location} itself.
+	 *
+	 * @param x  x coordinate of the location
+	 * @param y  y coordinate of the location
+	 * @param z  z coordinate of the location
+	 * @return the location
+	 */
+	Location getLocation(double x, double y, double z) {
+		return new Location(world, x, y, z) {
+			@Override
+			public World getWorld() {
+				return world;
+			}
+
+			@Override
+			public double getX() {
+				return x;
+			}
+
+			@Override
+			public double getY() {
+				return y;
+			}
+
+			@Override
+			public double getZ() {
+				return z;
+			}
+
+			@Override
+			public int getBlockX() {
+				return (int) Math.floor(x);
+			}
+
+			@Override
+			public int getBlockY() {
+				return (int) Math.floor(y);
+			}
+
+			@Override
+			public int getBlockZ() {
+				return (int) Math.floor(z);
+			}
+
+			@Override
+			public Block getBlock() {
+				return getBlockAt(getBlockX(), getBlockY(), getBlockZ());
+			}
+		};
+	}
+
+	/**
+	 * Gets the Bukkit stand-in of a block. A new one is created on every 
+	 * call, the way Bukkit does.
+	 *
+	 * @param x  x coordinate of the block
+	 * @param y  y coordinate of the block
+	 * @param z  z coordinate of the block
+	 * @return the block
+	 */
+	Block getBlockAt(int x, int y, int z) {
+		Block[] block = new Block[1];
+
+		block[0] = BukkitStubs.stub(Block.class, (method, args) -> {
+			switch (method) {
+				case "getX":     return x;
+				case "getY":     return y;
+				case "getZ":     return z;
+				case "getType":  return getType(x, y, z);
+				case "getWorld": return world;
+				case "getState": return getState(block[0]);
+				case "getRelative": return getRelative(x, y, z, args);
+				default:         return null;
+			}
+		});
+		return block[0];
+	}
+
+	/**
+	 * Gets the block next to or at a distance from a block, for any of the
+	 * {@link Block#getRelative} calls.
+	 */
+	private Block getRelative(int x, int y, int z, Object[] args) {
+		BlockFace face;
+		int distance;
+
+		if (args.length == 3) {
+			return getBlockAt(x + (Integer) args[0], y + (Integer) args[1], 
+					z + (Integer) args[2]);
+		}
+		face = (BlockFace) args[0];
+		distance = args.length == 2 ? (Integer) args[1] : 1;
+		return getBlockAt(x + face.getModX() * distance, y + face.getModY() * distance,
+				z + face.getModZ() * distance);
+	}
+
+	/**
+	 * Gets a snapshot of a block's state, a {@link Sign}, {@link Chest} or
+	 * {@link Dispenser} where the block is one.
+	 */
+	private BlockState getState(Block block) {
+		long key = BlockKey.of(block);
+		Material type = block.getType();
+		String[] lines = signs.get(key);
+		Inventory inventory = inventories.get(key);
+		Class<? extends BlockState> kind = BlockState.class;
+
+		if (lines != null) {
+			kind = Sign.class;
+		}
+		else if (inventory != null && type == Material.CHEST) {
+			kind = Chest.class;
+		}
+		else if (inventory != null && type == Material.DISPENSER) {
+			kind = Dispenser.class;
+		}
+		return BukkitStubs.stub(kind, (method, args) -> {
+			switch (method) {
+				case "getBlock":     return block;
+				case "getX":         return block.getX();
+				case "getY":         return block.getY();
+				case "getZ":         return block.getZ();
+				case "getType":      return type;
+				case "getWorld":     return world;
+				case "getLines":     return lines != null ? lines.clone() : null;
+				case "getLine":      return lines != null ? lines[(Integer) args[0]] : null;
+				case "getInventory": return inventory;
+				default:             return null;
+			}
+		});
+	}
+}
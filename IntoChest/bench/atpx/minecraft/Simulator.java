@@ -0,0 +1,362 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Item;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * {@code Simulator} builds a large IntoChest network in a {@link SimWorld}
+ * and routes items through it with the classes the plugin routes with, to
+ * measure routing throughput without a server.
+ * <p>
+ * The network is a trunk of redstone wire running east from one crafting
+ * table. Every few blocks a branch leaves the trunk to the south through a
+ * filter sign, with chests on both sides of the branch. Signs let through a
+ * few random items, and every so often a sign is a wildcard. The same seed
+ * always builds the same network and routes the same items, so runs can be
+ * compared.
+ * <p>
+ * Every tick a few stacks of items are dropped on the crafting table, grouped
+ * into batches (see {@link ItemBatch}) and routed with the
+ * {@link ItemRouter} the plugin routes with, in the same order: batches whose
+ * path was too long to walk are left alone, the rest look their route up in
+ * the forwarding table, the route cache or by walking. Chests fill up as the
+ * run goes on, so later items walk further. Items that are not stored are
+ * taken off the crafting table and counted as left, rather than being routed
+ * again next tick.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -P bench test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=atpx.minecraft.Simulator \
+ *     -Dexec.args="--wires 100000 --signs 5000 --chests 10000 --items 100000"
+ * </pre>
+ * Other options are {@code --seed}, {@code --route-cache} (0 to walk every
+ * time), {@code --graph} (0 to walk the world instead of a compiled
+ * {@link NetworkGraph}), {@code --table} (0 to not look items up in a
+ * {@link ForwardingTable} of the compiled graph), {@code --max-nodes},
+ * {@code --per-tick} (stacks dropped on the crafting table per tick) and
+ * {@code --wildcard-every}.
+ *
+ * @author Jeff Lee
+ */
+public final class Simulator {
+
+	private static final int Y = 64;
+	private static final int SPACING = 4;      //Blocks between branches along the trunk
+	private static final int POOL_SIZE = 64;   //Kinds of items that get routed
+	private static final int CHEST_SIZE = 27;
+	private static final long TABLE_WAIT_NANOS = 60000000000L;   //Longest wait for a forwarding table
+
+	private final Random random;
+	private final SimWorld sim;
+	private final World world;
+	private final RouteCache routeCache;
+	private final SignFilterCache signFilterCache = new SignFilterCache();
+	private final ItemRouter router;
+	private final int[] pool = new int[POOL_SIZE];
+	private final long workKey = BlockKey.of(0, Y, 0);
+	private NetworkGraphCache networkGraphs;   //Compiled paths, null to walk the world
+	private ForwardingTableCache forwardingTables;  //Routes of every item, may be null
+
+	//Results of the run
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram nodes = new LatencyHistogram();
+	private long batches;
+	private long walks;
+	private long followed;
+	private long looked;
+	private long budgetExceeded;
+	private long itemsStored;
+	private long itemsLeft;
+
+	/**
+	 * Creates a simulator with an empty world.
+	 *
+	 * @param seed  seed of the network and of the items routed
+	 * @param routeCacheSize  most routes to remember, 0 to walk every time
+	 * @param maxNodes  most blocks a walk may reach, 0 for no limit
+	 */
+	Simulator(long seed, int routeCacheSize, int maxNodes) {
+		this.random = new Random(seed);
+		this.sim = new SimWorld("sim", seed);
+		this.world = sim.getWorld();
+		this.routeCache = new RouteCache(routeCacheSize);
+		this.router = new ItemRouter(new PathWalker(maxNodes, 0), routeCache, signFilterCache,
+				new EndComponentCache(), new CapacityTracker(), new RoutingStats(), 
+				new WorkbenchProfiler()) {
+			@Override
+			protected Material getType(World world, int x, int y, int z) {
+				return sim.getType(x, y, z);
+			}
+		};
+	}
+
+	/**
+	 * Builds the network.
+	 *
+	 * @param wires  number of redstone wire blocks
+	 * @param signs  number of filter signs, one per branch
+	 * @param chests  number of chests
+	 * @param wildcardEvery  every how many signs one is a wildcard, 0 for none
+	 */
+	@SuppressWarnings("deprecation")
+	void build(int wires, int signs, int chests, int wildcardEvery) {
+		int branches = Math.max(1, signs);
+		int trunk = branches * SPACING;
+		int perBranch = (chests + branches - 1) / branches;
+		int length = Math.max(Math.max(2, perBranch), (wires - trunk) / branches);
+		int placed = 0;
+		int key;
+		int x;
+		String[] lines;
+
+		//Items that get routed, picked from every item IntoChest knows
+		for (int i = 0; i < pool.length; i++) {
+			do {
+				key = ItemKey.keyAt(random.nextInt(ItemKey.ordinalCount()));
+			} while (ItemKey.typeId(key) == 0 || 
+					Material.getMaterial(ItemKey.typeId(key)) == null);
+			pool[i] = key;
+		}
+
+		sim.set(0, Y, 0, Material.WORKBENCH);
+		for (x = 1; x <= trunk; x++) {
+			sim.set(x, Y, 0, Material.REDSTONE_WIRE);
+		}
+		for (int b = 0; b < branches; b++) {
+			x = b * SPACING + 2;
+			if (wildcardEvery > 0 && b % wildcardEvery == wildcardEvery - 1) {
+				lines = new String[] {"*"};
+			}
+			else {
+				lines = new String[1 + random.nextInt(4)];
+				for (int i = 0; i < lines.length; i++) {
+					lines[i] = ItemKey.getName(pool[random.nextInt(pool.length)]) + ",";
+				}
+			}
+			sim.setSign(x, Y, 1, lines);
+			for (int z = 2; z < 2 + length; z++) {
+				sim.set(x, Y, z, Material.REDSTONE_WIRE);
+			}
+			//Chests every other block on both sides, so no two chests touch
+			for (int i = 0; i < perBranch && placed < chests; i++, placed++) {
+				sim.setChest(x + (i % 2 == 0 ? 1 : -1), Y, 2 + (i / 2) * 2, CHEST_SIZE);
+			}
+		}
+	}
+
+	/**
+	 * Compiles the network into a graph, which is walked from then on.
+	 *
+	 * @param maxNodes  most nodes the network may hold, 0 for no limit
+	 * @return false if the network has more blocks than a walk may reach
+	 */
+	boolean compileGraph(int maxNodes) {
+		networkGraphs = new NetworkGraphCache(routeCache, maxNodes);
+		if (networkGraphs.get(world, workKey, sim, true, Long.MAX_VALUE) == null) {
+			networkGraphs = null;
+			return false;
+		}
+		router.setGraphs(networkGraphs, null);
+		return true;
+	}
+
+	/**
+	 * Builds the forwarding table of the compiled graph, on the builder 
+	 * thread of a {@link ForwardingTableCache} the way the plugin does, and
+	 * waits for it.
+	 *
+	 * @return the table or null if it could not be built in time
+	 */
+	ForwardingTable buildTable() {
+		NetworkGraph graph = networkGraphs.get(world, workKey, sim, false, Long.MAX_VALUE);
+		NetworkGraph.Network network = graph.getNetwork(workKey);
+		long start = System.nanoTime();
+
+		forwardingTables = new ForwardingTableCache(signFilterCache);
+		router.setGraphs(networkGraphs, forwardingTables);
+		while (network.getTable() == null && System.nanoTime() - start < TABLE_WAIT_NANOS) {
+			forwardingTables.get(world, graph, workKey, pool[0]);
+			try {
+				Thread.sleep(1);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return network.getTable();
+	}
+
+	/**
+	 * Drops stacks of random items on the crafting table, a few every tick,
+	 * and routes them.
+	 *
+	 * @param items  number of stacks to route
+	 * @param perTick  number of stacks dropped on the crafting table per tick
+	 */
+	@SuppressWarnings("deprecation")
+	void run(int items, int perTick) {
+		Location onTop = sim.getLocation(.5, Y + 1, .5);
+		ArrayList<Item> dropped = new ArrayList<Item>(perTick);
+		int[] amounts = new int[perTick];
+		ItemStack stack;
+		Item item;
+		int itemKey;
+		int left;
+		long start;
+
+		for (int n = 0; n < items; n += dropped.size()) {
+			dropped.clear();
+			for (int i = 0; i < perTick && n + i < items; i++) {
+				itemKey = pool[random.nextInt(pool.length)];
+				stack = new ItemStack(Material.getMaterial(ItemKey.typeId(itemKey)), 1, 
+						(short) ItemKey.dataVal(itemKey));
+				stack.setAmount(1 + random.nextInt(stack.getMaxStackSize()));
+				amounts[i] = stack.getAmount();
+				dropped.add(BukkitStubs.item(onTop, stack));
+			}
+
+			for (ItemBatch batch : ItemBatch.group(dropped)) {
+				batches++;
+				start = System.nanoTime();
+				if (router.isOverBudget(batch)) {
+					budgetExceeded++;
+				}
+				else {
+					router.route(batch, Long.MAX_VALUE);
+					switch (router.getLookup()) {
+						case TABLE:       looked++; break;
+						case CACHE:       followed++; break;
+						case WALK:        walks++; break;
+						case OVER_BUDGET: budgetExceeded++; break;
+						default:          break;
+					}
+					nodes.record(router.getSearch().getNodesVisited());
+				}
+				latency.record(System.nanoTime() - start);
+			}
+
+			//Items still there, on the crafting table or on top of a full chest,
+			//were not stored
+			for (int i = 0; i < dropped.size(); i++) {
+				item = dropped.get(i);
+				left = item.isValid() ? item.getItemStack().getAmount() : 0;
+				itemsStored += amounts[i] - left;
+				itemsLeft += left;
+			}
+		}
+	}
+
+	/**
+	 * Builds a network and routes items through it, then prints what it 
+	 * cost.
+	 *
+	 * @param args  the options, see the class documentation
+	 */
+	public static void main(String[] args) {
+		int wires = option(args, "--wires", 100000);
+		int signs = option(args, "--signs", 5000);
+		int chests = option(args, "--chests", 10000);
+		int items = option(args, "--items", 100000);
+		long seed = option(args, "--seed", 1);
+		Simulator simulator = new Simulator(seed, option(args, "--route-cache", 1024),
+				option(args, "--max-nodes", 0));
+		ForwardingTable table;
+		long start;
+		long buildNanos;
+		long runNanos;
+
+		start = System.nanoTime();
+		simulator.build(wires, signs, chests, option(args, "--wildcard-every", 50));
+		buildNanos = System.nanoTime() - start;
+		System.out.println("Built " + simulator.sim.getBlockCount() + " blocks (" + 
+				wires + " wires, " + signs + " signs, " + chests + " chests) in " + 
+				RoutingStats.formatNanos(buildNanos) + ", " + 
+				(simulator.sim.getSectionBytes() >> 10) + " KiB of block types");
+
+		if (option(args, "--graph", 1) != 0) {
+			start = System.nanoTime();
+			if (simulator.compileGraph(option(args, "--max-nodes", 0))) {
+				System.out.println("Compiled " + simulator.networkGraphs.getNodeCount() + 
+						" components in " + RoutingStats.formatNanos(System.nanoTime() - start) + 
+						", " + simulator.networkGraphs.getLinkCount() + " wires jumped over");
+			}
+			else {
+				System.out.println("Network too big to compile, walking the world");
+			}
+		}
+		if (simulator.networkGraphs != null && option(args, "--table", 1) != 0) {
+			start = System.nanoTime();
+			table = simulator.buildTable();
+			if (table != null) {
+				System.out.println("Built a forwarding table of " + table.getClassCount() + 
+						" item classes in " + RoutingStats.formatNanos(System.nanoTime() - start));
+			}
+			else {
+				System.out.println("No forwarding table could be built, routing without");
+			}
+		}
+
+		start = System.nanoTime();
+		simulator.run(items, Math.max(1, option(args, "--per-tick", 4)));
+		runNanos = System.nanoTime() - start;
+		if (simulator.forwardingTables != null) {
+			simulator.forwardingTables.shutdown();
+		}
+		simulator.report(items, runNanos);
+	}
+
+	private void report(int items, long runNanos) {
+		ArrayList<String> lines = new ArrayList<String>();
+
+		lines.add("Routed " + items + " stacks in " + batches + " batches in " + 
+				RoutingStats.formatNanos(runNanos) + ": " + 
+				(long) (items / (runNanos / 1e9)) + " stacks/s");
+		lines.add("  walks " + walks + ", cached routes followed " + followed + 
+				", looked up " + looked + ", over budget " + budgetExceeded);
+		lines.add("  items stored " + itemsStored + ", items left " + itemsLeft);
+		lines.add("  per batch p50 " + RoutingStats.formatNanos(latency.getPercentile(50)) + 
+				", p99 " + RoutingStats.formatNanos(latency.getPercentile(99)) + 
+				", max " + RoutingStats.formatNanos(latency.getMax()));
+		lines.add("  blocks per batch p50 " + nodes.getPercentile(50) + 
+				", p99 " + nodes.getPercentile(99) + ", max " + nodes.getMax());
+		for (String line : lines) {
+			System.out.println(line);
+		}
+	}
+
+	private static int option(String[] args, String name, int fallback) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals(name)) {
+				return Integer.parseInt(args[i + 1]);
+			}
+		}
+		return fallback;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code TraversalBench} measures finding a chest with room for an item by
+ * walking a redstone path, on synthetic layers of wire.
+ * <p>
+ * The shapes are:
+ * <ul>
+ * <li>line: a straight wire with the chest at its end
+ * <li>signs: the same wire with a sign letting the item through every 16
+ *     blocks
+ * <li>full: the same wire with a full chest every 32 blocks, so the walk
+ *     goes past every one of them to the last chest
+ * <li>grid: a square of wire with the chest in the far corner, so the walk
+ *     goes through most of the square
+ * </ul>
+ *
+ * @author Jeff Lee
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraversalBench {
+
+	private static final int Y = 64;
+	private static final int STONE = ItemKey.of(1, 0);
+
+	/** Shape of the path. */
+	@Param({"line", "signs", "full", "grid"})
+	public String shape;
+
+	/** Number of blocks of wire. */
+	@Param({"256", "4096"})
+	public int size;
+
+	private final PathWalker walker = new PathWalker(0, 0);
+	private final LongObjectHashMap<EndComponent> ends = new LongObjectHashMap<EndComponent>();
+	private final LongObjectHashMap<SignFilter> filters = new LongObjectHashMap<SignFilter>();
+	private final SignFilter stoneFilter = SignFilter.compile(new String[] {"stone"});
+	private long lastEndKey;
+	private GridView view;
+
+	private final RouteSearch search = new RouteSearch() {
+		@Override
+		protected EndComponent getEnd(long key) {
+			return ends.get(key);
+		}
+
+		@Override
+		protected int getRoom(EndComponent end) {
+			return end.getKey() == lastEndKey ? 64 : 0;
+		}
+
+		@Override
+		protected SignFilter getFilter(long key) {
+			return filters.get(key);
+		}
+	};
+
+	/**
+	 * Lays out the path. The crafting table is always at X0/Z0.
+	 */
+	@Setup
+	public void setUp() {
+		int side;
+
+		if (shape.equals("grid")) {
+			side = (int) Math.sqrt(size);
+			view = new GridView(side, side, Y);
+			for (int x = 0; x < side; x++) {
+				for (int z = 0; z < side; z++) {
+					view.set(x, z, Material.REDSTONE_WIRE);
+				}
+			}
+			view.set(0, 0, Material.WORKBENCH);
+			addChest(side - 1, side - 1);
+			return;
+		}
+
+		view = new GridView(size + 2, 1, Y);
+		view.set(0, 0, Material.WORKBENCH);
+		for (int x = 1; x <= size; x++) {
+			if (shape.equals("signs") && x % 16 == 0) {
+				view.set(x, 0, Material.SIGN_POST);
+				filters.put(BlockKey.of(x, Y, 0), stoneFilter);
+			}
+			else if (shape.equals("full") && x % 32 == 0) {
+				addChest(x, 0);
+			}
+			else {
+				view.set(x, 0, Material.REDSTONE_WIRE);
+			}
+		}
+		addChest(size + 1, 0);
+	}
+
+	/**
+	 * Walks from the crafting table to the chest with room.
+	 *
+	 * @return the outcome of the walk
+	 */
+	@Benchmark
+	public PathWalker.Result walk() {
+		search.reset(STONE, 1);
+		return search.walk(walker, view, BlockKey.of(0, Y, 0));
+	}
+
+	private void addChest(int x, int z) {
+		EndComponent end = EndComponent.of(BukkitStubs.chest(x, Y, z, new ItemStack[27]));
+
+		view.set(x, z, Material.CHEST);
+		ends.put(end.getKey(), end);
+		lastEndKey = end.getKey();
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code AsyncRouter} walks the paths of crafting tables on a pool of worker
+ * threads, using a {@link NetworkSnapshot} of the chunks around them instead
+ * of the live world.
+ * <p>
+ * The server main thread fills a snapshot, submits a {@link Job} per batch of
+ * items and later picks the finished jobs up with {@link #poll()} to store
+ * the items. Everything a worker reads was copied or looked up on the main
+ * thread before the job was submitted, and a worker never touches the world,
+ * the items or any inventory. Signs and chests/dispensers are only looked up
+ * once a walk reaches them, along with the room the chests/dispensers have
+ * for the items, so a walk stops at the first one with room like a walk on
+ * the main thread does. Items of a job that has not been picked up yet
+ * are reported by {@link #isPending(ItemBatch)} so they are not routed twice.
+ * <p>
+ * Apart from {@link Job#run()}, everything must only be used from the server
+ * main thread.
+ *
+ * @author Jeff Lee
+ */
+public class AsyncRouter {
+
+	/**
+	 * Routing of a batch of items on a worker thread.
+	 * <p>
+	 * A walk that reaches a sign or chest/dispenser the snapshot has not 
+	 * looked up yet goes on through it as if the sign let every item through
+	 * and the chest/dispenser were full, so one walk finds every one of them
+	 * it may need. Its outcome is not used: the main thread looks them up 
+	 * (see {@link #getMissing()}) and submits the job again, up to 
+	 * {@link #MAX_ROUNDS} times.
+	 */
+	public static final class Job implements Runnable {
+		//Most times a job is walked before it is routed on the main thread instead
+		public static final int MAX_ROUNDS = 4;
+
+		private final ItemBatch batch;
+		private final long workKey;
+		private final NetworkSnapshot snapshot;
+		private final long routeChanges;
+		private final LongHashSet touched = new LongHashSet(256);
+		private final SnapshotSearch search;
+		//Room of the chests/dispensers looked up for the job, by end component key
+		private final LongObjectHashMap<Integer> rooms = new LongObjectHashMap<Integer>();
+		//Signs and chests/dispensers looked up after the snapshot was taken
+		private final LongObjectHashMap<SignFilter> filters = new LongObjectHashMap<SignFilter>();
+		private final LongObjectHashMap<EndComponent> ends = new LongObjectHashMap<EndComponent>();
+		private final LongHashSet resolved = new LongHashSet();
+		private final LongHashSet missing = new LongHashSet();   //Filled by the worker thread
+		private AsyncRouter router;
+		private PathWalker.Result result;
+		private int rounds;
+		private long nanos;
+
+		/**
+		 * Creates a job. Must be called from the server main thread.
+		 *
+		 * @param batch  items of the same kind sitting on the same crafting table
+		 * @param snapshot  snapshot holding the chunks around the crafting table
+		 * @param routeChanges  number of changes the route cache had seen, see
+		 *                      {@link RouteCache#getChanges()}
+		 */
+		public Job(ItemBatch batch, NetworkSnapshot snapshot, long routeChanges) {
+			this.batch = batch;
+			this.workKey = BlockKey.of(batch.getWorkbench());
+			this.snapshot = snapshot;
+			this.routeChanges = routeChanges;
+			this.search = new SnapshotSearch();
+		}
+
+		/**
+		 * Sets how many of the items a chest or dispenser has room for, from 
+		 * its {@link CapacityTracker.Capacity}. Must be called before the job
+		 * is submitted.
+		 *
+		 * @param end  the end component
+		 * @param room  number of items it can take
+		 */
+		public void setRoom(EndComponent end, int room) {
+			rooms.put(end.getKey(), room);
+		}
+
+		/**
+		 * Hands the job a sign the snapshot did not hold. Must be called 
+		 * before the job is submitted.
+		 *
+		 * @param key  block key of the sign
+		 * @param filter  its compiled filter, or null if it is no sign
+		 */
+		public void resolveFilter(long key, SignFilter filter) {
+			resolved.add(key);
+			if (filter != null) {
+				filters.put(key, filter);
+			}
+		}
+
+		/**
+		 * Hands the job a chest or dispenser the snapshot did not hold. Must be
+		 * called before the job is submitted.
+		 *
+		 * @param key  block key of the chest/dispenser
+		 * @param end  its end component, or null if it is none
+		 * @param room  number of the items it can take
+		 */
+		public void resolveEnd(long key, EndComponent end, int room) {
+			resolved.add(key);
+			if (end != null) {
+				ends.put(key, end);
+				setRoom(end, room);
+			}
+		}
+
+		/**
+		 * Gets the snapshot the job walks on.
+		 *
+		 * @return the snapshot
+		 */
+		public NetworkSnapshot getSnapshot() {
+			return snapshot;
+		}
+
+		/**
+		 * Gets the items the job routes.
+		 *
+		 * @return the batch of items
+		 */
+		public ItemBatch getBatch() {
+			return batch;
+		}
+
+		/**
+		 * Gets the search that planned the route of the items.
+		 *
+		 * @return the search
+		 */
+		public RouteSearch getSearch() {
+			return search;
+		}
+
+		/**
+		 * Gets the outcome of the walk.
+		 *
+		 * @return the outcome or null if the walk failed
+		 */
+		public PathWalker.Result getResult() {
+			return result;
+		}
+
+		/**
+		 * Gets the number of times the job was walked.
+		 *
+		 * @return number of walks
+		 */
+		public int getRounds() {
+			return rounds;
+		}
+
+		/**
+		 * Gets the time the worker threads spent walking, over every round.
+		 *
+		 * @return time in nanoseconds
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Did the walk reach a block outside of the chunks of the snapshot? If
+		 * so, its outcome cannot be trusted.
+		 *
+		 * @return true if the snapshot did not cover the whole walk
+		 */
+		public boolean isIncomplete() {
+			return search.isIncomplete;
+		}
+
+		/**
+		 * Gets the signs and chests/dispensers the walk reached that were not
+		 * looked up. If there are any, the outcome of the walk cannot be 
+		 * trusted, and they have to be handed to the job before it is 
+		 * submitted again.
+		 *
+		 * @return block keys of the blocks to look up
+		 */
+		public LongHashSet getMissing() {
+			return missing;
+		}
+
+		/**
+		 * Gets the number of changes the route cache had seen when the 
+		 * snapshot was taken.
+		 *
+		 * @return number of changes
+		 */
+		public long getRouteChanges() {
+			return routeChanges;
+		}
+
+		/**
+		 * Gets every block the walk looked at.
+		 *
+		 * @return the blocks looked at
+		 */
+		public LongHashSet getTouched() {
+			return touched;
+		}
+
+		@Override
+		public void run() {
+			PathWalker walker = router.walkers.get();
+			long start = System.nanoTime();
+
+			try {
+				rounds++;
+				touched.clear();
+				missing.clear();
+				search.isIncomplete = false;
+				search.reset(batch.getItemKey(), batch.getAmount());
+				walker.setTouched(touched);
+				result = search.walk(walker, search, workKey);
+			}
+			catch (RuntimeException e) {
+				result = null;         //Routed again on the main thread
+			}
+			finally {
+				walker.setTouched(null);
+				nanos += System.nanoTime() - start;
+				router.done.add(this);
+			}
+		}
+
+		/**
+		 * Looks up the blocks of a path in the snapshot and what was handed
+		 * to the job since.
+		 */
+		private final class SnapshotSearch extends RouteSearch implements BlockView {
+			private boolean isIncomplete;
+
+			@Override
+			public Material getType(int x, int y, int z) {
+				if (!snapshot.contains(x, z)) {
+					isIncomplete = true;
+				}
+				return snapshot.getType(x, y, z);
+			}
+
+			@Override
+			protected EndComponent getEnd(long key) {
+				EndComponent end = snapshot.getEnd(key);
+
+				if (end == null) {
+					end = ends.get(key);
+				}
+				if (end == null && !resolved.contains(key)) {
+					missing.add(key);     //Counted as full until it is looked up
+				}
+				return end;
+			}
+
+			@Override
+			protected int getRoom(EndComponent end) {
+				Integer room = rooms.get(end.getKey());
+				return room != null ? room : 0;
+			}
+
+			@Override
+			protected SignFilter getFilter(long key) {
+				SignFilter filter = snapshot.getFilter(key);
+
+				if (filter == null) {
+					filter = filters.get(key);
+				}
+				if (filter == null && !resolved.contains(key)) {
+					missing.add(key);
+					return SignFilter.UNREAD;
+				}
+				return filter;
+			}
+		}
+	}
+
+	private final ExecutorService workers;
+	private final ThreadLocal<PathWalker> walkers;
+	private final RoutingStats stats;
+	private final ConcurrentLinkedQueue<Job> done = new ConcurrentLinkedQueue<Job>();
+	private final HashSet<UUID> pending = new HashSet<UUID>(); //Items of submitted jobs
+
+	/**
+	 * Creates a router and starts its worker threads.
+	 *
+	 * @param threads  number of worker threads
+	 * @param maxNodes  most blocks a walk may reach, 0 for no limit
+	 * @param maxMillis  most time in milliseconds a walk may take, 0 for no limit
+	 * @param stats  where the walks are recorded, or null for nowhere
+	 */
+	public AsyncRouter(int threads, int maxNodes, long maxMillis, RoutingStats stats) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, "IntoChest Router #" + 
+					count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		this.stats = stats;
+		workers = Executors.newFixedThreadPool(Math.max(1, threads), factory);
+		walkers = ThreadLocal.withInitial(() -> new PathWalker(maxNodes, maxMillis));
+	}
+
+	/**
+	 * Are any items of a batch still being routed by a job?
+	 *
+	 * @param batch  the batch of items
+	 * @return true if a job holds one of its items
+	 */
+	public boolean isPending(ItemBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			if (pending.contains(batch.getItem(i).getUniqueId())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Hands a job to the worker threads.
+	 *
+	 * @param job  the job
+	 */
+	public void submit(Job job) {
+		for (int i = 0; i < job.batch.size(); i++) {
+			pending.add(job.batch.getItem(i).getUniqueId());
+		}
+		job.router = this;
+		job.search.setStats(stats);
+		workers.execute(job);
+	}
+
+	/**
+	 * Picks up a finished job.
+	 *
+	 * @return the job or null if no job has finished
+	 */
+	public Job poll() {
+		Job job = done.poll();
+
+		if (job != null) {
+			for (int i = 0; i < job.batch.size(); i++) {
+				pending.remove(job.batch.getItem(i).getUniqueId());
+			}
+		}
+		return job;
+	}
+
+	/**
+	 * Stops the worker threads. Jobs that have not finished are dropped.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+		done.clear();
+		pending.clear();
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+/**
+ * {@code BlockKey} packs block and chunk coordinates into a single
+ * {@code long} so they can be stored in primitive collections instead of
+ * holding on to {@code Block} objects.
+ * <p>
+ * Block keys use 26 bits for X, 26 bits for Z and 12 bits for Y, which covers
+ * the whole world border. Chunk keys use 32 bits for each chunk coordinate.
+ * <p>
+ * <b>Example</b>: {@code BlockKey.x(BlockKey.of(-5, 64, 12))} is -5.
+ *
+ * @author Jeff Lee
+ */
+public final class BlockKey {
+
+	private static final int XZ_BITS = 26;
+	private static final int Y_BITS = 12;
+	private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+	private static final long Y_MASK = (1L << Y_BITS) - 1;
+	private static final int X_SHIFT = XZ_BITS + Y_BITS;
+	private static final int Z_SHIFT = Y_BITS;
+
+	private BlockKey() {
+	}
+
+	/**
+	 * Packs block coordinates into a block key.
+	 *
+	 * @param x  block X coordinate
+	 * @param y  block Y coordinate
+	 * @param z  block Z coordinate
+	 * @return the block key
+	 */
+	public static long of(int x, int y, int z) {
+		return ((x & XZ_MASK) << X_SHIFT) | ((z & XZ_MASK) << Z_SHIFT) | (y & Y_MASK);
+	}
+
+	/**
+	 * Packs the coordinates of a block into a block key.
+	 *
+	 * @param block  the block
+	 * @return the block key
+	 */
+	public static long of(Block block) {
+		return of(block.getX(), block.getY(), block.getZ());
+	}
+
+	/**
+	 * Gets the X coordinate of a block key.
+	 *
+	 * @param key  the block key
+	 * @return block X coordinate
+	 */
+	public static int x(long key) {
+		return (int) (key >> X_SHIFT);
+	}
+
+	/**
+	 * Gets the Y coordinate of a block key.
+	 *
+	 * @param key  the block key
+	 * @return block Y coordinate
+	 */
+	public static int y(long key) {
+		return (int) (key << (64 - Y_BITS) >> (64 - Y_BITS));
+	}
+
+	/**
+	 * Gets the Z coordinate of a block key.
+	 *
+	 * @param key  the block key
+	 * @return block Z coordinate
+	 */
+	public static int z(long key) {
+		return (int) (key << (64 - X_SHIFT) >> (64 - XZ_BITS));
+	}
+
+	/**
+	 * Gets the block key of the block next to a block key.
+	 *
+	 * @param key  the block key
+	 * @param face  direction of the neighbouring block
+	 * @return block key of the neighbour
+	 */
+	public static long relative(long key, BlockFace face) {
+		return of(x(key) + face.getModX(), y(key) + face.getModY(),
+				z(key) + face.getModZ());
+	}
+
+	/**
+	 * Gets the key of the chunk that holds a block key.
+	 *
+	 * @param key  the block key
+	 * @return the chunk key
+	 */
+	public static long chunkOf(long key) {
+		return chunk(x(key) >> 4, z(key) >> 4);
+	}
+
+	/**
+	 * Packs chunk coordinates into a chunk key.
+	 *
+	 * @param chunkX  chunk X coordinate
+	 * @param chunkZ  chunk Z coordinate
+	 * @return the chunk key
+	 */
+	public static long chunk(int chunkX, int chunkZ) {
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Gets the X coordinate of a chunk key.
+	 *
+	 * @param chunkKey  the chunk key
+	 * @return chunk X coordinate
+	 */
+	public static int chunkX(long chunkKey) {
+		return (int) (chunkKey >> 32);
+	}
+
+	/**
+	 * Gets the Z coordinate of a chunk key.
+	 *
+	 * @param chunkKey  the chunk key
+	 * @return chunk Z coordinate
+	 */
+	public static int chunkZ(long chunkKey) {
+		return (int) chunkKey;
+	}
+
+	/**
+	 * Formats a block key the way IntoChest prints block locations.
+	 *
+	 * @param key  the block key
+	 * @return text such as "X10/Y64/Z-3"
+	 */
+	public static String toString(long key) {
+		return "X" + x(key) + "/Y" + y(key) + "/Z" + z(key);
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+
+/**
+ * {@code BlockView} gives the types of the blocks of a world, either of the
+ * live world or of a copy of some of its chunks (see {@link NetworkSnapshot}),
+ * so a path can be walked without knowing which one it is looking at.
+ *
+ * @author Jeff Lee
+ */
+public interface BlockView {
+
+	/**
+	 * Gets the type of a block.
+	 *
+	 * @param x  x coordinate of the block
+	 * @param y  y coordinate of the block
+	 * @param z  z coordinate of the block
+	 * @return the type of the block
+	 */
+	Material getType(int x, int y, int z);
+}
@@ -0,0 +1,391 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.block.DoubleChest;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockDispenseEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryPickupItemEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * {@code CapacityTracker} remembers how much room the chests and dispensers
+ * that items get routed to have left, so checking whether one of them is
+ * full does not need a snapshot of its contents every time.
+ * <p>
+ * A {@link Capacity} holds the number of empty slots and, per item key (see
+ * {@link ItemKey}), the room left on stacks that are not full. Capacities
+ * are kept by end component key, so both halves of a double chest share the
+ * capacity of the whole double chest (see {@link EndComponent}). Inventory events
+ * fire before the inventory changes, so an event only drops the capacity of
+ * its inventory and the next check summarizes the contents again. Items
+ * IntoChest stores itself are added to the capacity directly, see
+ * {@link #stored(World, long, int, int, int)}.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class CapacityTracker implements Listener {
+
+	private static final BlockFace[] SIDES = 
+		{BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+
+	/**
+	 * Room left in the inventory of a chest or dispenser.
+	 */
+	public static final class Capacity {
+		private int emptySlots;
+		private int[] keys = new int[8];     //Item keys of stacks that are not full
+		private int[] free = new int[8];     //Room left on those stacks, per item key
+		private int keyCount;
+
+		/**
+		 * Summarizes the contents of an inventory.
+		 *
+		 * @param contents  the contents
+		 */
+		public Capacity(ItemStack[] contents) {
+			for (ItemStack item : contents) {
+				if (item == null || item.getAmount() == 0) {
+					emptySlots++;
+				}
+				else {
+					addFree(ItemKey.of(item), item.getMaxStackSize() - item.getAmount());
+				}
+			}
+		}
+
+		/**
+		 * Gets the number of empty slots.
+		 *
+		 * @return number of empty slots
+		 */
+		public int getEmptySlots() {
+			return emptySlots;
+		}
+
+		/**
+		 * Gets the room left on stacks of an item that are not full.
+		 *
+		 * @param itemKey  item key of the item
+		 * @return number of items that still fit on those stacks
+		 */
+		public int getFree(int itemKey) {
+			for (int i = 0; i < keyCount; i++) {
+				if (keys[i] == itemKey) {
+					return free[i];
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Gets how many of an item fit.
+		 *
+		 * @param itemKey  item key of the item
+		 * @param maxStack  most of the item a slot holds
+		 * @return number of items that fit
+		 */
+		public int getRoom(int itemKey, int maxStack) {
+			//Unstackable items never go onto an existing stack
+			return emptySlots * maxStack + (maxStack > 1 ? getFree(itemKey) : 0);
+		}
+
+		private void addFree(int itemKey, int amount) {
+			for (int i = 0; i < keyCount; i++) {
+				if (keys[i] == itemKey) {
+					free[i] += amount;
+					return;
+				}
+			}
+			if (keyCount == keys.length) {
+				keys = Arrays.copyOf(keys, keyCount << 1);
+				free = Arrays.copyOf(free, keyCount << 1);
+			}
+			keys[keyCount] = itemKey;
+			free[keyCount++] = amount;
+		}
+	}
+
+	//Per world, block key of every summarized chest/dispenser mapped to its capacity
+	private final HashMap<UUID, LongObjectHashMap<Capacity>> capacities = 
+			new HashMap<UUID, LongObjectHashMap<Capacity>>();
+
+	/**
+	 * Gets the capacity of a chest or dispenser.
+	 *
+	 * @param world  the world of the chest/dispenser
+	 * @param key  key of the chest/dispenser, see {@link EndComponent#getKey()}
+	 * @return the capacity or null if it has to be summarized again
+	 */
+	public Capacity get(World world, long key) {
+		LongObjectHashMap<Capacity> worldCapacities = capacities.get(world.getUID());
+		return worldCapacities != null ? worldCapacities.get(key) : null;
+	}
+
+	/**
+	 * Remembers the capacity of a chest or dispenser.
+	 *
+	 * @param world  the world of the chest/dispenser
+	 * @param key  key of the chest/dispenser, see {@link EndComponent#getKey()}
+	 * @param contents  contents of the chest/dispenser
+	 * @return the capacity
+	 */
+	public Capacity put(World world, long key, ItemStack[] contents) {
+		LongObjectHashMap<Capacity> worldCapacities = capacities.get(world.getUID());
+		Capacity capacity = new Capacity(contents);
+
+		if (worldCapacities == null) {
+			worldCapacities = new LongObjectHashMap<Capacity>();
+			capacities.put(world.getUID(), worldCapacities);
+		}
+		worldCapacities.put(key, capacity);
+		return capacity;
+	}
+
+	/**
+	 * Adds items IntoChest has stored in a chest or dispenser to its capacity.
+	 * The items are assumed to have gone onto stacks that are not full first
+	 * and then into empty slots, like {@code Inventory.addItem} puts them.
+	 *
+	 * @param world  the world of the chest/dispenser
+	 * @param key  key of the chest/dispenser, see {@link EndComponent#getKey()}
+	 * @param itemKey  item key of the stored items
+	 * @param amount  number of items stored
+	 * @param maxStack  most of the item a slot holds
+	 */
+	public void stored(World world, long key, int itemKey, int amount, int maxStack) {
+		Capacity capacity = get(world, key);
+		int onStacks;
+		int slots;
+
+		if (capacity == null) {
+			return;
+		}
+		onStacks = maxStack > 1 ? Math.min(amount, capacity.getFree(itemKey)) : 0;
+		slots = (amount - onStacks + maxStack - 1) / maxStack;
+		if (slots > capacity.emptySlots) {
+			invalidate(world, key);          //Does not add up, summarize again
+			return;
+		}
+		capacity.emptySlots -= slots;
+		capacity.addFree(itemKey, slots * maxStack - (amount - onStacks) - onStacks);
+	}
+
+	/**
+	 * Forgets the capacity of a chest or dispenser.
+	 *
+	 * @param world  the world of the chest/dispenser
+	 * @param key  key of the chest/dispenser, see {@link EndComponent#getKey()}
+	 */
+	public void invalidate(World world, long key) {
+		LongObjectHashMap<Capacity> worldCapacities = capacities.get(world.getUID());
+
+		if (worldCapacities != null) {
+			worldCapacities.remove(key);
+		}
+	}
+
+	/**
+	 * Forgets every capacity.
+	 */
+	public void clear() {
+		capacities.clear();
+	}
+
+	/**
+	 * Forgets the capacity of the chests/dispensers an inventory belongs to.
+	 */
+	private void invalidate(Inventory inventory) {
+		if (inventory != null) {
+			invalidate(inventory.getHolder());
+		}
+	}
+
+	private void invalidate(InventoryHolder holder) {
+		if (holder instanceof Chest) {
+			//A single half of a double chest, known by the key of the left half
+			invalidateAround(((Chest) holder).getBlock());
+		}
+		else if (holder instanceof BlockState) {
+			invalidate(((BlockState) holder).getBlock());
+		}
+		else if (holder instanceof DoubleChest) {
+			invalidate(((DoubleChest) holder).getLeftSide());
+			invalidate(((DoubleChest) holder).getRightSide());
+		}
+	}
+
+	private void invalidate(Block block) {
+		invalidate(block.getWorld(), BlockKey.of(block));
+	}
+
+	/**
+	 * Forgets the capacity of a block and the blocks next to it, as placing or
+	 * breaking a chest joins or splits a double chest.
+	 */
+	private void invalidateAround(Block block) {
+		invalidate(block);
+		for (BlockFace face : SIDES) {
+			invalidate(block.getRelative(face));
+		}
+	}
+
+	/**
+	 * Event handler when a player clicks in an inventory.
+	 *
+	 * @param event  data of the click
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onInventoryClick(InventoryClickEvent event) {
+		invalidate(event.getView().getTopInventory());
+	}
+
+	/**
+	 * Event handler when a player drags items across an inventory.
+	 *
+	 * @param event  data of the drag
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onInventoryDrag(InventoryDragEvent event) {
+		invalidate(event.getView().getTopInventory());
+	}
+
+	/**
+	 * Event handler when a player closes an inventory.
+	 *
+	 * @param event  data of the closed inventory
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onInventoryClose(InventoryCloseEvent event) {
+		invalidate(event.getInventory());
+	}
+
+	/**
+	 * Event handler when a hopper (or the like) moves an item between
+	 * inventories.
+	 *
+	 * @param event  data of the move
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onInventoryMoveItem(InventoryMoveItemEvent event) {
+		invalidate(event.getSource());
+		invalidate(event.getDestination());
+	}
+
+	/**
+	 * Event handler when a hopper picks up an item lying on it.
+	 *
+	 * @param event  data of the pickup
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onInventoryPickupItem(InventoryPickupItemEvent event) {
+		invalidate(event.getInventory());
+	}
+
+	/**
+	 * Event handler when a dispenser dispenses an item.
+	 *
+	 * @param event  data of the dispensed item
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockDispense(BlockDispenseEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a block is placed.
+	 *
+	 * @param event  data of the placed block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		invalidateAround(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a block is broken.
+	 *
+	 * @param event  data of the broken block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBreak(BlockBreakEvent event) {
+		invalidateAround(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a chunk is unloaded.
+	 *
+	 * @param event  data of the unloaded chunk
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent event) {
+		LongObjectHashMap<Capacity> worldCapacities = 
+				capacities.get(event.getWorld().getUID());
+		long chunkKey = BlockKey.chunk(event.getChunk().getX(), event.getChunk().getZ());
+		LongHashSet unloaded = new LongHashSet();
+
+		if (worldCapacities == null) {
+			return;
+		}
+		for (int slot = 0; slot < worldCapacities.capacity(); slot++) {
+			if (worldCapacities.valueAt(slot) != null && 
+					BlockKey.chunkOf(worldCapacities.keyAt(slot)) == chunkKey) {
+				unloaded.add(worldCapacities.keyAt(slot));
+			}
+		}
+		//Removed afterwards as removing moves entries between slots
+		for (long key : unloaded.toArray()) {
+			worldCapacities.remove(key);
+		}
+	}
+
+	/**
+	 * Event handler when a world is unloaded.
+	 *
+	 * @param event  data of the unloaded world
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		capacities.remove(event.getWorld().getUID());
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@code ChunkSnapshotCache} keeps the copies of chunks that paths are walked
+ * on away from the server main thread (see {@link NetworkSnapshot}), so a
+ * chunk is only copied again once a block in it changed.
+ * <p>
+ * Along with the copy of its blocks, a {@link CachedChunk} remembers the 
+ * compiled filters of the signs and the {@link EndComponent}s of the 
+ * chests/dispensers in it that walks have needed so far. They are looked up
+ * on the main thread when a walk first reaches them, never for the whole 
+ * chunk at once.
+ * <p>
+ * A chunk is dropped when a block in it or next to it is placed or broken,
+ * when a block in it is told that a block next to it changed or is moved by
+ * a piston, or when a sign in it is changed or it unloads. As blocks can 
+ * also change without any of these events (other plugins, world editors), a
+ * copy is never used once it is older than {@link #MAX_AGE_NANOS}.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread. The 
+ * {@link ChunkSnapshot}s handed out are immutable and can be read from any
+ * thread.
+ *
+ * @author Jeff Lee
+ */
+public class ChunkSnapshotCache implements Listener {
+
+	//Age after which a copy is taken again even though no event changed the chunk
+	public static final long MAX_AGE_NANOS = 10000000000L;
+
+	private static final BlockFace[] SIDES = 
+		{BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+
+	/**
+	 * Copy of a chunk with the signs and chests/dispensers looked up in it.
+	 */
+	public static final class CachedChunk {
+		private final ChunkSnapshot snapshot;
+		private final long capturedNanos;
+		private final LongObjectHashMap<SignFilter> filters = 
+				new LongObjectHashMap<SignFilter>();
+		private final LongObjectHashMap<EndComponent> ends = 
+				new LongObjectHashMap<EndComponent>();
+
+		CachedChunk(ChunkSnapshot snapshot, long capturedNanos) {
+			this.snapshot = snapshot;
+			this.capturedNanos = capturedNanos;
+		}
+
+		/**
+		 * Gets the copy of the blocks of the chunk.
+		 *
+		 * @return the copy
+		 */
+		public ChunkSnapshot getSnapshot() {
+			return snapshot;
+		}
+
+		/**
+		 * Gets the signs of the chunk looked up so far.
+		 *
+		 * @return compiled filters by block key of the sign
+		 */
+		public LongObjectHashMap<SignFilter> getFilters() {
+			return filters;
+		}
+
+		/**
+		 * Gets the chests/dispensers of the chunk looked up so far.
+		 *
+		 * @return end components by block key of the chest/dispenser
+		 */
+		public LongObjectHashMap<EndComponent> getEnds() {
+			return ends;
+		}
+	}
+
+	//Per world, chunk key of every copied chunk mapped to its copy
+	private final HashMap<UUID, LongObjectHashMap<CachedChunk>> chunks =
+			new HashMap<UUID, LongObjectHashMap<CachedChunk>>();
+
+	/**
+	 * Gets the copy of a chunk, copying it if there is none or it is too old.
+	 *
+	 * @param world  the world of the chunk
+	 * @param chunkX  chunk X coordinate of the chunk
+	 * @param chunkZ  chunk Z coordinate of the chunk
+	 * @return the copy or null if the chunk is not loaded
+	 */
+	public CachedChunk get(World world, int chunkX, int chunkZ) {
+		LongObjectHashMap<CachedChunk> worldChunks = chunks.get(world.getUID());
+		long chunkKey = BlockKey.chunk(chunkX, chunkZ);
+		long now = System.nanoTime();
+		CachedChunk chunk;
+
+		if (worldChunks == null) {
+			worldChunks = new LongObjectHashMap<CachedChunk>();
+			chunks.put(world.getUID(), worldChunks);
+		}
+		chunk = worldChunks.get(chunkKey);
+		if (chunk != null && now - chunk.capturedNanos < MAX_AGE_NANOS) {
+			return chunk;
+		}
+		if (!world.isChunkLoaded(chunkX, chunkZ)) {
+			worldChunks.remove(chunkKey);
+			return null;
+		}
+		chunk = new CachedChunk(
+				world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false), now);
+		worldChunks.put(chunkKey, chunk);
+		return chunk;
+	}
+
+	/**
+	 * Remembers the filter of a sign in the copy of its chunk, if the chunk 
+	 * is copied.
+	 *
+	 * @param world  the world of the sign
+	 * @param key  block key of the sign
+	 * @param filter  the compiled filter
+	 */
+	public void putFilter(World world, long key, SignFilter filter) {
+		CachedChunk chunk = getCached(world, key);
+
+		if (chunk != null) {
+			chunk.filters.put(key, filter);
+		}
+	}
+
+	/**
+	 * Remembers the end component of a chest/dispenser in the copy of its 
+	 * chunk, if the chunk is copied.
+	 *
+	 * @param world  the world of the chest/dispenser
+	 * @param key  block key of the chest/dispenser
+	 * @param end  the end component
+	 */
+	public void putEnd(World world, long key, EndComponent end) {
+		CachedChunk chunk = getCached(world, key);
+
+		if (chunk != null) {
+			chunk.ends.put(key, end);
+		}
+	}
+
+	/**
+	 * Drops every copy.
+	 */
+	public void clear() {
+		chunks.clear();
+	}
+
+	private CachedChunk getCached(World world, long key) {
+		LongObjectHashMap<CachedChunk> worldChunks = chunks.get(world.getUID());
+		return worldChunks != null ? worldChunks.get(BlockKey.chunkOf(key)) : null;
+	}
+
+	private void invalidate(Block block) {
+		LongObjectHashMap<CachedChunk> worldChunks;
+
+		if (chunks.isEmpty()) {
+			return;
+		}
+		worldChunks = chunks.get(block.getWorld().getUID());
+		if (worldChunks != null) {
+			worldChunks.remove(BlockKey.chunk(block.getX() >> 4, block.getZ() >> 4));
+		}
+	}
+
+	/**
+	 * Drops the copies of the chunks of a block and the blocks next to it, as
+	 * placing or breaking a chest joins or splits a double chest.
+	 */
+	private void invalidateAround(Block block) {
+		invalidate(block);
+		for (BlockFace face : SIDES) {
+			invalidate(block.getRelative(face));
+		}
+	}
+
+	/**
+	 * Drops the copies of the chunks blocks a piston moves leave and enter.
+	 */
+	private void invalidateMoved(Block piston, List<Block> blocks, BlockFace direction) {
+		invalidate(piston);
+		for (Block block : blocks) {
+			invalidate(block);
+			invalidate(block.getRelative(direction));
+		}
+	}
+
+	/**
+	 * Event handler when a block is placed.
+	 *
+	 * @param event  data of the placed block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		invalidateAround(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a block is broken.
+	 *
+	 * @param event  data of the broken block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBreak(BlockBreakEvent event) {
+		invalidateAround(event.getBlock());
+	}
+
+	/**
+	 * Event handler when the text of a sign is changed.
+	 *
+	 * @param event  data of the changed sign
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onSignChange(SignChangeEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a block is told that a block next to it changed,
+	 * which catches changes made without a place or break event (water,
+	 * explosions, ...).
+	 *
+	 * @param event  data of the block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPhysics(BlockPhysicsEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a piston pushes blocks.
+	 *
+	 * @param event  data of the piston and the blocks it moves
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPistonExtend(BlockPistonExtendEvent event) {
+		invalidateMoved(event.getBlock(), event.getBlocks(), event.getDirection());
+	}
+
+	/**
+	 * Event handler when a sticky piston pulls blocks.
+	 *
+	 * @param event  data of the piston and the blocks it moves
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPistonRetract(BlockPistonRetractEvent event) {
+		invalidateMoved(event.getBlock(), event.getBlocks(), event.getDirection());
+	}
+
+	/**
+	 * Event handler when a chunk is unloaded.
+	 *
+	 * @param event  data of the unloaded chunk
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent event) {
+		LongObjectHashMap<CachedChunk> worldChunks = chunks.get(event.getWorld().getUID());
+
+		if (worldChunks != null) {
+			worldChunks.remove(BlockKey.chunk(event.getChunk().getX(), event.getChunk().getZ()));
+		}
+	}
+
+	/**
+	 * Event handler when a world is unloaded.
+	 *
+	 * @param event  data of the unloaded world
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		chunks.remove(event.getWorld().getUID());
+	}
+}
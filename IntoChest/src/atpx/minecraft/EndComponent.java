@@ -0,0 +1,218 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.block.Dispenser;
+import org.bukkit.block.DoubleChest;
+import org.bukkit.inventory.DoubleChestInventory;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.HashMap;
+
+/**
+ * {@code EndComponent} is a chest or dispenser items can be stored in, with
+ * the inventory of the chest already looked up.
+ * <p>
+ * Both halves of a double chest share one inventory
+ * ({@link DoubleChestInventory}), which takes items into the left half first
+ * and then into the right half. Either half of a double chest has the same
+ * key (see {@link #getKey()}), the block key of its left half, so room
+ * remembered for one half is the room of the whole double chest.
+ * <p>
+ * The inventory is live: it shows the contents at the time it is read and
+ * items added to it go straight into the chest/dispenser. An end component is
+ * only valid until a chest/dispenser is placed or broken at or next to it.
+ * Blocks replaced without an event (other plugins, world editors) leave it
+ * holding the inventory of a chest/dispenser that is gone, which 
+ * {@link #isCurrent()} finds out before anything is stored.
+ *
+ * @author Jeff Lee
+ */
+public final class EndComponent {
+
+	private final Block block;
+	private final Material type;
+	private final Inventory inventory;
+	private final long key;
+	private final long otherKey;
+
+	private EndComponent(Block block, Material type, Inventory inventory, 
+			long key, long otherKey) {
+		this.block = block;
+		this.type = type;
+		this.inventory = inventory;
+		this.key = key;
+		this.otherKey = otherKey;
+	}
+
+	/**
+	 * Looks up the inventory of a chest or dispenser.
+	 *
+	 * @param block  the chest/dispenser
+	 * @return the end component or null if the block is not a chest/dispenser
+	 */
+	public static EndComponent of(Block block) {
+		BlockState blockState = block.getState();
+		Inventory inventory;
+		DoubleChest doubleChest;
+		long blockKey = BlockKey.of(block);
+		long leftKey;
+		long rightKey;
+
+		if (blockState instanceof Chest) {
+			inventory = ((Chest) blockState).getInventory();
+			if (inventory instanceof DoubleChestInventory) {
+				doubleChest = ((DoubleChestInventory) inventory).getHolder();
+				leftKey = keyOf(doubleChest.getLeftSide(), blockKey);
+				rightKey = keyOf(doubleChest.getRightSide(), blockKey);
+				return new EndComponent(block, blockState.getType(), inventory, 
+						leftKey, leftKey == blockKey ? rightKey : leftKey);
+			}
+		}
+		else if (blockState instanceof Dispenser) {
+			inventory = ((Dispenser) blockState).getInventory();
+		}
+		else {
+			return null;
+		}
+		return new EndComponent(block, blockState.getType(), inventory, 
+				blockKey, blockKey);
+	}
+
+	/**
+	 * Gets the block key of a half of a double chest.
+	 */
+	private static long keyOf(InventoryHolder side, long fallback) {
+		if (side instanceof BlockState) {
+			return BlockKey.of(((BlockState) side).getBlock());
+		}
+		return fallback;
+	}
+
+	/**
+	 * Gets the block the end component was looked up at.
+	 *
+	 * @return the block
+	 */
+	public Block getBlock() {
+		return block;
+	}
+
+	/**
+	 * Gets the type the block had when the end component was looked up.
+	 *
+	 * @return the type of the block
+	 */
+	public Material getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the block key that stands for the whole end component: the left
+	 * half of a double chest or else the block itself.
+	 *
+	 * @return the block key
+	 */
+	public long getKey() {
+		return key;
+	}
+
+	/**
+	 * Gets the block key of the other half of a double chest.
+	 *
+	 * @return the block key of the other half, or of the block itself if it
+	 *         is not part of a double chest
+	 */
+	public long getOtherKey() {
+		return otherKey;
+	}
+
+	/**
+	 * Is the end component a double chest?
+	 *
+	 * @return true if it is a double chest
+	 */
+	public boolean isDoubleChest() {
+		return key != otherKey;
+	}
+
+	/**
+	 * Gets the inventory of the end component. For a double chest this is the
+	 * inventory of both halves.
+	 *
+	 * @return the inventory
+	 */
+	public Inventory getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * Does the end component still hold the inventory of the chest/dispenser
+	 * at its block? A chest/dispenser replaced by another one has an inventory
+	 * of its own, so items added to the one that was looked up would be lost.
+	 * Reads the state of the block, so it is only checked before storing.
+	 *
+	 * @return true if the inventory is still the one in the world
+	 */
+	public boolean isCurrent() {
+		BlockState blockState = block.getState();
+		Inventory current;
+
+		if (blockState.getType() != type || !(blockState instanceof InventoryHolder)) {
+			return false;
+		}
+		current = ((InventoryHolder) blockState).getInventory();
+		
+		//A double chest inventory is created anew on every lookup, its halves are not
+		if (inventory instanceof DoubleChestInventory) {
+			return current instanceof DoubleChestInventory &&
+					((DoubleChestInventory) inventory).getLeftSide().equals(
+							((DoubleChestInventory) current).getLeftSide()) &&
+					((DoubleChestInventory) inventory).getRightSide().equals(
+							((DoubleChestInventory) current).getRightSide());
+		}
+		return inventory.equals(current);
+	}
+
+	/**
+	 * Gets the item contents of the end component.
+	 *
+	 * @return array of item contents
+	 */
+	public ItemStack[] getContents() {
+		return inventory.getContents();
+	}
+
+	/**
+	 * Adds items to the end component with a single inventory operation.
+	 *
+	 * @param stacks  the items to add
+	 * @return the stacks that did not fit, by index of the stack
+	 */
+	public HashMap<Integer, ItemStack> addItem(ItemStack... stacks) {
+		return inventory.addItem(stacks);
+	}
+}
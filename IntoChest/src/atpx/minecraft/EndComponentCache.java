@@ -0,0 +1,182 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * {@code EndComponentCache} holds the {@link EndComponent} of every chest and
+ * dispenser items have been routed to, by block location, so finding out
+ * whether a chest is one half of a double chest and looking up its inventory
+ * is only done once per chest.
+ * <p>
+ * A chest placed or broken next to another chest turns it into a double chest
+ * or back, so placing or breaking a block drops the end components at and
+ * next to it. End components are also dropped with the chunk that holds
+ * either half of them when the chunk unloads, as that unloads their
+ * inventory. A block whose type no longer matches its end component (blown
+ * up, changed by another plugin, ...) is looked up again.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class EndComponentCache implements Listener {
+
+	private static final BlockFace[] SIDES = 
+		{BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+
+	//Per world, block key of every chest/dispenser mapped to its end component
+	private final HashMap<UUID, LongObjectHashMap<EndComponent>> components =
+			new HashMap<UUID, LongObjectHashMap<EndComponent>>();
+
+	/**
+	 * Gets the end component of a chest or dispenser, looking it up if it has
+	 * not been looked up since it or a block next to it last changed.
+	 *
+	 * @param block  the chest/dispenser
+	 * @return the end component or null if the block is not a chest/dispenser
+	 */
+	public EndComponent get(Block block) {
+		LongObjectHashMap<EndComponent> worldComponents;
+		EndComponent component;
+		long key = BlockKey.of(block);
+		UUID worldId = block.getWorld().getUID();
+
+		worldComponents = components.get(worldId);
+		if (worldComponents == null) {
+			worldComponents = new LongObjectHashMap<EndComponent>();
+			components.put(worldId, worldComponents);
+		}
+		component = worldComponents.get(key);
+		if (component != null && component.getType() == block.getType()) {
+			return component;
+		}
+		component = EndComponent.of(block);
+		if (component != null) {
+			worldComponents.put(key, component);
+		}
+		else {
+			worldComponents.remove(key);
+		}
+		return component;
+	}
+
+	/**
+	 * Drops the end component of a block.
+	 *
+	 * @param world  the world of the block
+	 * @param key  block key of the block
+	 */
+	public void invalidate(World world, long key) {
+		LongObjectHashMap<EndComponent> worldComponents = 
+				components.get(world.getUID());
+
+		if (worldComponents != null) {
+			worldComponents.remove(key);
+		}
+	}
+
+	/**
+	 * Drops every end component.
+	 */
+	public void clear() {
+		components.clear();
+	}
+
+	private void invalidateAround(Block block) {
+		invalidate(block.getWorld(), BlockKey.of(block));
+		for (BlockFace face : SIDES) {
+			invalidate(block.getWorld(), BlockKey.of(block.getRelative(face)));
+		}
+	}
+
+	/**
+	 * Event handler when a block is placed.
+	 *
+	 * @param event  data of the placed block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		invalidateAround(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a block is broken.
+	 *
+	 * @param event  data of the broken block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBreak(BlockBreakEvent event) {
+		invalidateAround(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a chunk is unloaded.
+	 *
+	 * @param event  data of the unloaded chunk
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent event) {
+		LongObjectHashMap<EndComponent> worldComponents = 
+				components.get(event.getWorld().getUID());
+		long chunkKey = BlockKey.chunk(event.getChunk().getX(), event.getChunk().getZ());
+		LongHashSet unloaded = new LongHashSet();
+		EndComponent component;
+
+		if (worldComponents == null) {
+			return;
+		}
+		for (int slot = 0; slot < worldComponents.capacity(); slot++) {
+			component = worldComponents.valueAt(slot);
+			if (component != null && 
+					(BlockKey.chunkOf(component.getKey()) == chunkKey || 
+					 BlockKey.chunkOf(component.getOtherKey()) == chunkKey)) {
+				unloaded.add(worldComponents.keyAt(slot));
+			}
+		}
+		//Removed afterwards as removing moves entries between slots
+		for (long key : unloaded.toArray()) {
+			worldComponents.remove(key);
+		}
+	}
+
+	/**
+	 * Event handler when a world is unloaded.
+	 *
+	 * @param event  data of the unloaded world
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		components.remove(event.getWorld().getUID());
+	}
+}
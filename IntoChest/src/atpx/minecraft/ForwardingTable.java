@@ -0,0 +1,248 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * {@code ForwardingTable} holds, for every crafting table of a network and
+ * every item, the chests/dispensers the walk from the crafting table reaches
+ * in order, so routing an item is a lookup followed by checking the listed
+ * chests/dispensers for room (see {@link RouteSearch#follow(RouteCache.Route)}).
+ * <p>
+ * Whether a chest/dispenser has room only decides where the walk stops, not
+ * which blocks it goes through, so the list is found by a walk that takes
+ * every chest/dispenser to be full. Where the walk goes for an item only
+ * depends on the first term of each sign that matches it (see
+ * {@link SignFilter#firstMatch(int)}), so items that match the same way on
+ * every sign of the network form one class and share their lists. Classes
+ * are found for every item with an ordinal (see {@link ItemKey#ordinal(int)});
+ * other items are not in the table.
+ * <p>
+ * Lists are kept to {@link #MAX_ENDS} chests/dispensers. A longer list is cut
+ * and marked as found, so once every listed chest/dispenser is full the path
+ * is walked as usual.
+ * <p>
+ * Immutable once built. Built by {@link #build(NetworkGraph, LongObjectHashMap)}
+ * on any thread from a copy of the network (see
+ * {@link NetworkGraph#copy(NetworkGraph.Network)}).
+ *
+ * @author Jeff Lee
+ */
+public final class ForwardingTable {
+
+	/** Most chests/dispensers listed per crafting table and item class. */
+	public static final int MAX_ENDS = 128;
+
+	//First match recorded for a sign whose text could not be read
+	private static final int NO_FILTER = Integer.MIN_VALUE;
+
+	/**
+	 * The first matches of an item on every sign of the network, in node
+	 * order.
+	 */
+	private static final class Signature {
+		private final int[] matches;
+		private final int hash;
+
+		Signature(int[] matches) {
+			this.matches = matches;
+			this.hash = Arrays.hashCode(matches);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Signature && Arrays.equals(matches, ((Signature) obj).matches);
+		}
+	}
+
+	private final long version;
+	private final long builtNanos;
+	private final int[] classes;        //Class of every item by its ordinal
+	private final int classCount;
+	private final LongObjectHashMap<RouteCache.Route[]> routes;   //By crafting table, by class
+
+	private ForwardingTable(long version, long builtNanos, int[] classes, int classCount,
+			LongObjectHashMap<RouteCache.Route[]> routes) {
+		this.version = version;
+		this.builtNanos = builtNanos;
+		this.classes = classes;
+		this.classCount = classCount;
+		this.routes = routes;
+	}
+
+	/**
+	 * Builds the table of a network.
+	 *
+	 * @param network  a copy of the network, holding nothing else
+	 * @param filters  the compiled filter of every sign of the network by its
+	 *                 block key, missing for signs that could not be read
+	 * @return the table
+	 */
+	public static ForwardingTable build(NetworkGraph network, 
+			LongObjectHashMap<SignFilter> filters) {
+		long start = System.nanoTime();
+		HashMap<Signature, Integer> signatures = new HashMap<Signature, Integer>();
+		SignFilter[] signs = new SignFilter[network.size()];
+		int[] classes = new int[ItemKey.ordinalCount()];
+		int[] members = new int[classes.length];   //An item of every class
+		LongObjectHashMap<RouteCache.Route[]> routes = 
+				new LongObjectHashMap<RouteCache.Route[]>();
+		PathWalker walker = new PathWalker(0, 0);
+		RouteSearch search = new RouteSearch() {
+			@Override
+			protected EndComponent getEnd(long key) {
+				return null;
+			}
+
+			@Override
+			protected int getRoom(EndComponent end) {
+				return 0;
+			}
+
+			@Override
+			protected SignFilter getFilter(long key) {
+				return filters.get(key);
+			}
+		};
+		Material type;
+		Integer itemClass;
+		int[] matches;
+		int signCount = 0;
+		int classCount = 0;
+		RouteCache.Route[] workRoutes;
+
+		for (int node = 0; node < network.size(); node++) {
+			type = network.getType(node);
+			if (type == Material.SIGN_POST || type == Material.WALL_SIGN) {
+				signs[signCount++] = filters.get(network.getKey(node));
+			}
+		}
+
+		//Sort every item into the class of the items that match the same way
+		for (int ordinal = 0; ordinal < classes.length; ordinal++) {
+			matches = new int[signCount];
+			for (int i = 0; i < signCount; i++) {
+				matches[i] = signs[i] != null ? 
+						signs[i].firstMatch(ItemKey.keyAt(ordinal)) : NO_FILTER;
+			}
+			itemClass = signatures.putIfAbsent(new Signature(matches), classCount);
+			if (itemClass == null) {
+				itemClass = classCount;
+				members[classCount++] = ItemKey.keyAt(ordinal);
+			}
+			classes[ordinal] = itemClass;
+		}
+
+		for (long workKey : network.getWorkbenches()) {
+			workRoutes = new RouteCache.Route[classCount];
+			for (int i = 0; i < classCount; i++) {
+				search.reset(members[i], 1);
+				search.walk(walker, network, workKey);
+				workRoutes[i] = cut(search.getRoute());
+			}
+			routes.put(workKey, workRoutes);
+		}
+		return new ForwardingTable(network.getNetwork(network.getKey(0)).getVersion(), 
+				start, classes, classCount, routes);
+	}
+
+	/**
+	 * Gets the version of the network the table was built for (see
+	 * {@link NetworkGraph.Network#getVersion()}). The table may only be used
+	 * while the network has the same version.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets when the build of the table started.
+	 *
+	 * @return the {@link System#nanoTime()} of the start
+	 */
+	public long getBuiltNanos() {
+		return builtNanos;
+	}
+
+	/**
+	 * Gets the number of item classes.
+	 *
+	 * @return number of classes
+	 */
+	public int getClassCount() {
+		return classCount;
+	}
+
+	/**
+	 * Is a crafting table in the table?
+	 *
+	 * @param workKey  block key of the crafting table
+	 * @return true if it is
+	 */
+	public boolean hasWorkbench(long workKey) {
+		return routes.containsKey(workKey);
+	}
+
+	/**
+	 * Gets the chests/dispensers an item reaches from a crafting table, in
+	 * order. The route is never found unless it was cut.
+	 *
+	 * @param workKey  block key of the crafting table
+	 * @param itemKey  item key of the item (see {@link ItemKey})
+	 * @return the route or null if the crafting table or item is not in the
+	 *         table
+	 */
+	public RouteCache.Route get(long workKey, int itemKey) {
+		RouteCache.Route[] workRoutes = routes.get(workKey);
+		int ordinal = ItemKey.ordinal(itemKey);
+
+		if (workRoutes == null || ordinal < 0) {
+			return null;
+		}
+		return workRoutes[classes[ordinal]];
+	}
+
+	/**
+	 * Cuts a route down to {@link #MAX_ENDS} chests/dispensers.
+	 */
+	private static RouteCache.Route cut(RouteCache.Route route) {
+		long[] ends;
+
+		if (route.size() <= MAX_ENDS) {
+			return route;
+		}
+		ends = new long[MAX_ENDS];
+		for (int i = 0; i < MAX_ENDS; i++) {
+			ends[i] = route.getEnd(i);
+		}
+		return new RouteCache.Route(ends, true, route.isWildcardWalked());
+	}
+}
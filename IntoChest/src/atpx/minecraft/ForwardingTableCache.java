@@ -0,0 +1,188 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.util.HashSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@code ForwardingTableCache} builds the {@link ForwardingTable} of every
+ * network items are routed on, on a thread of its own, and looks routes up
+ * in them.
+ * <p>
+ * A table is asked for the first time an item is routed on its network, and
+ * again once the network has changed (see
+ * {@link NetworkGraph.Network#getVersion()}), but not more often than every
+ * {@link #MIN_REBUILD_NANOS}, counted from the start of the last build
+ * whether it gave a table or failed. The network is copied and the text of its signs
+ * read on the server thread; the walks run on the builder thread. A table is
+ * only used while its network has not changed since it was copied, so until
+ * a new one is built, items are routed the usual way.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class ForwardingTableCache {
+
+	/** Least time between two builds of the table of a network. */
+	public static final long MIN_REBUILD_NANOS = 1000000000L;
+
+	/**
+	 * A table being built for a network.
+	 */
+	private static final class Build {
+		private final NetworkGraph.Network network;
+		private final long startNanos = System.nanoTime();
+		private ForwardingTable table;
+
+		Build(NetworkGraph.Network network) {
+			this.network = network;
+		}
+	}
+
+	private final SignFilterCache signFilterCache;
+	private final ExecutorService builder;
+	private final ConcurrentLinkedQueue<Build> done = new ConcurrentLinkedQueue<Build>();
+	private final HashSet<NetworkGraph.Network> building = new HashSet<NetworkGraph.Network>();
+	//Start of the last build of a network that gave no table, until the network is dropped
+	private final WeakHashMap<NetworkGraph.Network, Long> failed = 
+			new WeakHashMap<NetworkGraph.Network, Long>();
+
+	/**
+	 * Creates a cache and starts its builder thread.
+	 *
+	 * @param signFilterCache  where the compiled sign filters are read from
+	 */
+	public ForwardingTableCache(SignFilterCache signFilterCache) {
+		this.signFilterCache = signFilterCache;
+		this.builder = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "IntoChest Forwarding Table Builder");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Gets the route of an item from a crafting table out of the table of
+	 * its network. Starts building the table if it is missing or out of date.
+	 *
+	 * @param world  the world of the crafting table
+	 * @param graph  the graph of the world, up to date
+	 * @param workKey  block key of the crafting table
+	 * @param itemKey  item key of the item (see {@link ItemKey})
+	 * @return the route or null if there is no up to date table or the item
+	 *         is not in it
+	 */
+	public RouteCache.Route get(World world, NetworkGraph graph, long workKey, int itemKey) {
+		NetworkGraph.Network network = graph.getNetwork(workKey);
+		ForwardingTable table;
+		Build build;
+		Long failedNanos;
+		long lastNanos;
+
+		while ((build = done.poll()) != null) {
+			building.remove(build.network);
+			if (build.table == null) {
+				failed.put(build.network, build.startNanos);
+			}
+			else {
+				failed.remove(build.network);
+				if (build.table.getVersion() == build.network.getVersion()) {
+					build.network.setTable(build.table);
+				}
+			}
+		}
+
+		table = network.getTable();
+		if (table != null && table.getVersion() == network.getVersion() && 
+				table.hasWorkbench(workKey)) {
+			return table.get(workKey, itemKey);
+		}
+		if (building.contains(network)) {
+			return null;
+		}
+		failedNanos = failed.get(network);
+		if (failedNanos != null) {
+			lastNanos = failedNanos;
+		}
+		else if (table != null) {
+			lastNanos = table.getBuiltNanos();
+		}
+		else {
+			submit(world, graph, network);
+			return null;
+		}
+		if (System.nanoTime() - lastNanos >= MIN_REBUILD_NANOS) {
+			submit(world, graph, network);
+		}
+		return null;
+	}
+
+	/**
+	 * Stops the builder thread. Tables that are being built are dropped.
+	 */
+	public void shutdown() {
+		builder.shutdownNow();
+		done.clear();
+		building.clear();
+		failed.clear();
+	}
+
+	/**
+	 * Copies a network and the filters of its signs and hands them to the
+	 * builder thread.
+	 */
+	private void submit(World world, NetworkGraph graph, NetworkGraph.Network network) {
+		NetworkGraph copy = graph.copy(network);
+		LongObjectHashMap<SignFilter> filters = new LongObjectHashMap<SignFilter>();
+		Build build = new Build(network);
+		SignFilter filter;
+		Material type;
+		long key;
+
+		for (int node = 0; node < copy.size(); node++) {
+			type = copy.getType(node);
+			if (type == Material.SIGN_POST || type == Material.WALL_SIGN) {
+				key = copy.getKey(node);
+				filter = signFilterCache.get(world.getBlockAt(
+						BlockKey.x(key), BlockKey.y(key), BlockKey.z(key)));
+				if (filter != null) {
+					filters.put(key, filter);
+				}
+			}
+		}
+		building.add(network);
+		builder.execute(() -> {
+			try {
+				build.table = ForwardingTable.build(copy, filters);
+			}
+			finally {
+				done.add(build);
+			}
+		});
+	}
+}
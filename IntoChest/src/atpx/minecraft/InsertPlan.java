@@ -0,0 +1,130 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import java.util.Arrays;
+
+/**
+ * {@code InsertPlan} lists how many items go into which chest or dispenser
+ * when the items do not all fit into the first one a walk reaches.
+ * <p>
+ * Chests/dispensers are added in the order the walk reaches them, each
+ * taking as many items as it has room for, until every item has a place.
+ * <p>
+ * Both halves of a double chest are one {@link EndComponent}, so a double
+ * chest the walk reaches twice only takes items the first time.
+ * <p>
+ * A plan is reused between batches to avoid allocations. Not thread-safe.
+ *
+ * @author Jeff Lee
+ */
+public class InsertPlan {
+
+	private EndComponent[] components = new EndComponent[4];
+	private int[] amounts = new int[4];
+	private int size;
+	private int remaining;
+
+	/**
+	 * Starts a new plan.
+	 *
+	 * @param amount  number of items to find room for
+	 */
+	public void reset(int amount) {
+		Arrays.fill(components, 0, size, null);
+		size = 0;
+		remaining = amount;
+	}
+
+	/**
+	 * Adds a chest or dispenser to the plan.
+	 *
+	 * @param component  the chest/dispenser
+	 * @param room  number of items it has room for
+	 * @return true if every item now has a place
+	 */
+	public boolean add(EndComponent component, int room) {
+		int amount = Math.min(room, remaining);
+
+		if (amount > 0 && !contains(component)) {
+			if (size == components.length) {
+				components = Arrays.copyOf(components, size << 1);
+				amounts = Arrays.copyOf(amounts, size << 1);
+			}
+			components[size] = component;
+			amounts[size++] = amount;
+			remaining -= amount;
+		}
+		return remaining == 0;
+	}
+
+	/**
+	 * Is a chest or dispenser already in the plan?
+	 *
+	 * @param component  the chest/dispenser
+	 * @return true if it is in the plan
+	 */
+	public boolean contains(EndComponent component) {
+		for (int i = 0; i < size; i++) {
+			if (components[i].getKey() == component.getKey()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the number of chests/dispensers in the plan.
+	 *
+	 * @return number of chests/dispensers
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets a chest or dispenser of the plan.
+	 *
+	 * @param i  index in the order they were added
+	 * @return the chest/dispenser
+	 */
+	public EndComponent getComponent(int i) {
+		return components[i];
+	}
+
+	/**
+	 * Gets the number of items that go into a chest or dispenser of the plan.
+	 *
+	 * @param i  index in the order they were added
+	 * @return number of items
+	 */
+	public int getAmount(int i) {
+		return amounts[i];
+	}
+
+	/**
+	 * Gets the number of items that have no place yet.
+	 *
+	 * @return number of items
+	 */
+	public int getRemaining() {
+		return remaining;
+	}
+}
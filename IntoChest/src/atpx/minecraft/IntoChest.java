@@ -22,11 +22,9 @@ package atpx.minecraft;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.World;
-import org.bukkit.Location;
 import org.bukkit.block.*;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.entity.Entity;
 import org.bukkit.entity.Item;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -38,11 +36,11 @@ import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -87,28 +85,62 @@ import java.util.logging.Logger;
  */
 public class IntoChest 
 		extends JavaPlugin 
-		implements Runnable, DataValues, Listener {
+		implements DataValues, Listener {
 
 	/* ****CONSTANTS**** */
-	private final long INTERVAL = 1000;    //Time interval for scheduler	
+	private final long INTERVAL = 1000;    //Normal time interval for scheduler	
 	private final String DELIMITER = "|";  //Delimiter for item IDs and item data value
+	private final int TOP_COUNT = 5;       //Crafting tables listed by /ic top
+	private final int MAX_TOP_COUNT = 20;  //Most crafting tables /ic top may list
 	
 	/* ****HIGH-LEVEL VARIABLES**** */
 	private Logger logger = Logger.getLogger("Minecraft"); //Used for sending messages to the server console
 	private CommandSender clientConsole;									 //Used for sending messages to the user client
 	private PluginDescriptionFile pdf;                     //Plugin metadata
+	private ItemTracker itemTracker = new ItemTracker();   //Keeps track of item entities that lie on crafting tables
+	private WorkbenchRegistry workbenchRegistry;           //Knows where the crafting tables are
 	
   /* ****VARIABLES**** */
-	//Holds list of blocks that have been visited during traversal, prevent infinite loops
-	private ArrayList<Block> visitedB = new ArrayList<Block>(); 
+	//Finds the chests/dispensers of items and stores them on the main thread
+	private ItemRouter itemRouter;
+	private RouteCache routeCache;         //Where items went before
+	//Compiled paths of the crafting tables, null if paths are walked in the world
+	private NetworkGraphCache networkGraphs;
+	//Routes of every item on the compiled networks, null if they are not built
+	private ForwardingTableCache forwardingTables;
+	private SignFilterCache signFilterCache = new SignFilterCache();
+	//Inventories of the chests/dispensers items were routed to
+	private EndComponentCache endComponentCache = new EndComponentCache();
+	//Room left in the chests/dispensers items were routed to
+	private CapacityTracker capacityTracker = new CapacityTracker();
+	//Walks paths on worker threads, null if paths are walked on the main thread
+	private AsyncRouter asyncRouter;
+	private int asyncRadius;               //Chunks around a crafting table to copy
+	//Copies of the chunks around crafting tables, for the async router
+	private ChunkSnapshotCache chunkCache = new ChunkSnapshotCache();
+	private ScanScheduler scanScheduler;   //Runs the scan for items
+	private long maxScanNanos;             //Most time of a tick spent routing, 0 for no limit
+	private long scanDeadline;             //System.nanoTime() the running scan stops at
+	private int movedItems;                //Items the running scan stored, moved or handed over
+	//Batches of items found but not routed yet, first come first served
+	private ArrayDeque<ItemBatch> backlog = new ArrayDeque<ItemBatch>();
+	private int backlogItems;              //Number of items in the backlog
+	//Batches and chunk copies of this tick to hand to the worker threads
+	private ArrayList<ItemBatch> asyncBatches = new ArrayList<ItemBatch>();
+	private HashMap<UUID, NetworkSnapshot> asyncSnapshots = 
+			new HashMap<UUID, NetworkSnapshot>();
+	//How long each phase of routing takes, for /ic stats
+	private RoutingStats stats = new RoutingStats();
+	//What routing the items of every crafting table costs, for /ic top
+	private WorkbenchProfiler profiler = new WorkbenchProfiler();
+	//Crafting tables whose path was reported to be too long to walk
+	private LongHashSet budgetWarnedB = new LongHashSet();
 	//Debug message toggle flags
 	private boolean isGeneralDebugOn;
 	private boolean isFilterDebugOn;
 	private boolean isRuntimeDebugOn;
 	private boolean isPathingDebugOn;
 	
-	private Block wildcardB;               //Holds wildcard block
-	private Block fullB;                   //Holds block that is found to be full
 	private String pluginName = "";
 	
   //Map users who are about to check the info for an item they're holding or
@@ -129,6 +161,37 @@ public class IntoChest
 		logger.info(pluginName + " is now disabled.");
 		
 		HandlerList.unregisterAll((Plugin) this);
+		if (scanScheduler != null) {
+			scanScheduler.stop();
+			scanScheduler = null;
+		}
+		if (asyncRouter != null) {
+			asyncRouter.shutdown();
+			asyncRouter = null;
+		}
+		itemTracker.clear();
+		backlog.clear();
+		backlogItems = 0;
+		signFilterCache.clear();
+		endComponentCache.clear();
+		chunkCache.clear();
+		capacityTracker.clear();
+		profiler.clear();
+		if (routeCache != null) {
+			routeCache.clear();
+		}
+		if (networkGraphs != null) {
+			networkGraphs.clear();
+			networkGraphs = null;
+		}
+		if (forwardingTables != null) {
+			forwardingTables.shutdown();
+			forwardingTables = null;
+		}
+		if (workbenchRegistry != null) {
+			workbenchRegistry.shutdown();
+			workbenchRegistry = null;
+		}
 	}
 
 	/**
@@ -140,12 +203,56 @@ public class IntoChest
 		logger.info(pluginName + " version " + pdf.getVersion() + 
 				" is now enabled.");
 		
+		saveDefaultConfig();
+		routeCache = new RouteCache(getConfig().getInt("route-cache.size"));
+		itemRouter = new Router(new PathWalker(getConfig().getInt("traversal.max-nodes"),
+				getConfig().getLong("traversal.max-millis")));
+		if (getConfig().getBoolean("network-graph.enabled", true)) {
+			networkGraphs = new NetworkGraphCache(routeCache, 
+					getConfig().getInt("traversal.max-nodes"));
+			if (getConfig().getBoolean("network-graph.forwarding-tables", true)) {
+				forwardingTables = new ForwardingTableCache(signFilterCache);
+			}
+			itemRouter.setGraphs(networkGraphs, forwardingTables);
+		}
+		if (getConfig().getBoolean("async.enabled")) {
+			asyncRouter = new AsyncRouter(getConfig().getInt("async.threads"),
+					getConfig().getInt("traversal.max-nodes"),
+					getConfig().getLong("traversal.max-millis"), stats);
+			asyncRadius = getConfig().getInt("async.chunk-radius");
+		}
+		
 		getServer().getPluginManager().registerEvents(this, this);
+		getServer().getPluginManager().registerEvents(itemTracker, this);
+		getServer().getPluginManager().registerEvents(routeCache, this);
+		if (networkGraphs != null) {
+			getServer().getPluginManager().registerEvents(networkGraphs, this);
+		}
+		getServer().getPluginManager().registerEvents(signFilterCache, this);
+		getServer().getPluginManager().registerEvents(endComponentCache, this);
+		getServer().getPluginManager().registerEvents(chunkCache, this);
+		getServer().getPluginManager().registerEvents(capacityTracker, this);
+		getServer().getPluginManager().registerEvents(profiler, this);
+		
+		workbenchRegistry = new WorkbenchRegistry();
+		getServer().getPluginManager().registerEvents(workbenchRegistry, this);
+		
+		//Items and chunks that already exist will not be reported by events, so
+		//pick them up once here. From now on both keep themselves up to date.
+		for (World world : getServer().getWorlds()) {
+			itemTracker.trackWorld(world);
+			workbenchRegistry.loadWorld(world);
+		}
+		
+		maxScanNanos = getConfig().getLong("scan.max-millis") * 1000000L;
 		
 		//This plugin loops in order to constantly check for items sitting on
-		//crafting tables. 
-		getServer().getScheduler().scheduleSyncRepeatingTask(this, this, 100L, 
-		INTERVAL * 20L / 1000L);
+		//crafting tables, more often while items keep coming. 
+		scanScheduler = new ScanScheduler(this, this::scan, workbenchRegistry,
+				getConfig().getLong("scan.min-ticks"), INTERVAL * 20L / 1000L,
+				getConfig().getLong("scan.max-ticks"));
+		getServer().getPluginManager().registerEvents(scanScheduler, this);
+		scanScheduler.start(100L);
 	}
 
 	/**
@@ -156,6 +263,9 @@ public class IntoChest
 	 * <ul>
 	 * <li>help === Show help text
 	 * <li>debug - on/off - general/runtime/filter/pathing === Types of debug messages
+	 * <li>status === Show how often items are scanned for and why, and how many are queued
+	 * <li>stats - reset/minutes === Show how long each phase of routing takes
+	 * <li>top - count/reset === List the crafting tables whose routing costs the most
 	 * </ul>
 	 * <p>
 	 * @param sender  user who sent the command
@@ -231,6 +341,21 @@ public class IntoChest
 	    str.append(ChatColor.RED + "off ");
 	    str.append(ChatColor.GRAY + "=== Persistently keep item inspection " + 
 	    		"on or off. \n");
+	    str.append(ChatColor.LIGHT_PURPLE + "/ic status ");
+	    str.append(ChatColor.GRAY + "=== Show how often items are scanned for " + 
+	    		"and why, and how many are queued. \n");
+	    str.append(ChatColor.LIGHT_PURPLE + "/ic stats ");
+	    str.append(ChatColor.RED + "reset");
+	    str.append(ChatColor.WHITE + "|");
+	    str.append(ChatColor.RED + "<minutes> ");
+	    str.append(ChatColor.GRAY + "=== Show how long each phase of routing " + 
+	    		"takes since the last reset or in the last minutes, or reset. \n");
+	    str.append(ChatColor.LIGHT_PURPLE + "/ic top ");
+	    str.append(ChatColor.RED + "<count>");
+	    str.append(ChatColor.WHITE + "|");
+	    str.append(ChatColor.RED + "reset ");
+	    str.append(ChatColor.GRAY + "=== List the crafting tables whose " + 
+	    		"routing took the most time, or reset. \n");
 			str.append(ChatColor.WHITE + "==============================");
 	    
 	    sendMsgToClient(MessageType.ONCOMMAND, str.toString());
@@ -407,87 +532,251 @@ public class IntoChest
 				return false;
 			}
 		}
+		//STATUS
+		else if (args[0].equalsIgnoreCase("status")) {
+			StringBuilder str = new StringBuilder();
+			
+			str.append("\n");
+			str.append(ChatColor.GOLD + "Scan period: ");
+			str.append(ChatColor.WHITE + String.valueOf(scanScheduler.getPeriod()) + 
+					" tick(s) ");
+			str.append(ChatColor.GRAY + "(" + scanScheduler.getReason() + ")\n");
+			str.append(ChatColor.GOLD + "Queued: ");
+			str.append(ChatColor.WHITE + String.valueOf(backlog.size()) + 
+					" batch(es), " + backlogItems + " item(s)\n");
+			str.append(ChatColor.GOLD + "Known routes: ");
+			str.append(ChatColor.WHITE + String.valueOf(routeCache.size()) + "\n");
+			if (networkGraphs != null) {
+				str.append(ChatColor.GOLD + "Compiled networks: ");
+				str.append(ChatColor.WHITE + String.valueOf(networkGraphs.getNetworkCount()) + 
+						" network(s), " + networkGraphs.getNodeCount() + " block(s), " + 
+						networkGraphs.getLinkCount() + " jumped over, " + 
+						networkGraphs.getRegionNodeCount() + " crossed through portals\n");
+			}
+			str.append(ChatColor.GOLD + "Worker threads: ");
+			str.append(ChatColor.WHITE + (asyncRouter != null ? "on" : "off"));
+			
+			sendMsgToClient(MessageType.ONCOMMAND, str.toString());
+			return true;
+		}
+		//STATS
+		else if (args[0].equalsIgnoreCase("stats")) {
+			int window = 0;
+			
+			if (argsLength == 2) {
+				if (args[1].equalsIgnoreCase("reset")) {
+					stats.reset();
+					sendMsgToClient(MessageType.ONCOMMAND, "Routing stats reset.");
+					return true;
+				}
+				try {
+					window = Integer.parseInt(args[1]);
+				}
+				catch (NumberFormatException e) {
+					return false;
+				}
+				if (window < 1 || window > RoutingStats.MAX_WINDOW_MINUTES) {
+					sendMsgToClient(MessageType.ONCOMMAND, "Minutes must be 1 to " + 
+							RoutingStats.MAX_WINDOW_MINUTES + ".");
+					return true;
+				}
+			}
+			else if (argsLength > 2) {
+				return false;
+			}
+			
+			sendMsgToClient(MessageType.ONCOMMAND, getStatsText(window));
+			return true;
+		}
+		//TOP
+		else if (args[0].equalsIgnoreCase("top")) {
+			int count = TOP_COUNT;
+			
+			if (argsLength == 2) {
+				if (args[1].equalsIgnoreCase("reset")) {
+					profiler.clear();
+					sendMsgToClient(MessageType.ONCOMMAND, "Crafting table costs reset.");
+					return true;
+				}
+				try {
+					count = Integer.parseInt(args[1]);
+				}
+				catch (NumberFormatException e) {
+					return false;
+				}
+				if (count < 1 || count > MAX_TOP_COUNT) {
+					sendMsgToClient(MessageType.ONCOMMAND, "Count must be 1 to " + 
+							MAX_TOP_COUNT + ".");
+					return true;
+				}
+			}
+			else if (argsLength > 2) {
+				return false;
+			}
+			
+			sendMsgToClient(MessageType.ONCOMMAND, getTopText(count));
+			return true;
+		}
 		//Having an invalid first argument is bad
 		else {
 			return false;
 		}
 	}
   
+	/**
+	 * Builds the text of {@code /ic stats}: count, p50, p99 and max of every
+	 * phase of routing, and of the number of blocks every walk reached.
+	 * 
+	 * @param window  minutes to cover, 0 for everything since the last reset
+	 * @return the text
+	 */
+	private String getStatsText(int window) {
+		StringBuilder str = new StringBuilder();
+		LatencyHistogram histogram;
+		
+		str.append("\n");
+		if (window > 0) {
+			str.append(ChatColor.WHITE + "Routing in the last " + window + 
+					" minute(s):\n");
+		}
+		else {
+			str.append(ChatColor.WHITE + "Routing in the last " + 
+					((System.currentTimeMillis() - stats.getResetMillis()) / 60000) + 
+					" minute(s) since reset:\n");
+		}
+		for (RoutingStats.Phase phase : RoutingStats.Phase.values()) {
+			histogram = stats.get(phase, window);
+			str.append(ChatColor.GOLD + phase.getLabel() + ": ");
+			str.append(ChatColor.WHITE + String.valueOf(histogram.getCount()) + 
+					"x, p50 " + RoutingStats.formatNanos(histogram.getPercentile(50)) + 
+					", p99 " + RoutingStats.formatNanos(histogram.getPercentile(99)) + 
+					", max " + RoutingStats.formatNanos(histogram.getMax()) + "\n");
+		}
+		histogram = stats.getNodes(window);
+		str.append(ChatColor.GOLD + "blocks per walk: ");
+		str.append(ChatColor.WHITE + "p50 " + histogram.getPercentile(50) + 
+				", p99 " + histogram.getPercentile(99) + 
+				", max " + histogram.getMax());
+		return str.toString();
+	}
+	
+	/**
+	 * Builds the text of {@code /ic top}: the crafting tables whose routing
+	 * took the most time, with where they are and what they cost.
+	 * 
+	 * @param count  most crafting tables to list
+	 * @return the text
+	 */
+	private String getTopText(int count) {
+		StringBuilder str = new StringBuilder();
+		ArrayList<WorkbenchProfiler.Cost> top = profiler.getTop(count);
+		WorkbenchProfiler.Cost cost;
+		World world;
+		
+		str.append("\n");
+		str.append(ChatColor.WHITE + "Most expensive of " + profiler.size() + 
+				" crafting table(s):");
+		for (int i = 0; i < top.size(); i++) {
+			cost = top.get(i);
+			world = getServer().getWorld(cost.getWorldId());
+			str.append("\n" + ChatColor.GOLD + (i + 1) + ". " + 
+					(world != null ? world.getName() : cost.getWorldId().toString()) + 
+					" " + BlockKey.toString(cost.getWorkKey()) + ": ");
+			str.append(ChatColor.WHITE + RoutingStats.formatNanos(cost.getNanos()) + 
+					" for " + cost.getBatches() + " batch(es), " + cost.getNodes() + 
+					" blocks, " + cost.getSigns() + " signs, " + cost.getChests() + 
+					" chests/dispensers");
+		}
+		return str.toString();
+	}
+	
 	/**
 	 * Checks for any items that are sitting on a crafting table and processes
 	 * those items to be placed in a chest or dispenser (end component), 
 	 * along with accounting for sign filters.
+	 * <p>
+	 * Run by the {@link ScanScheduler}, which adapts how often it runs to the
+	 * number of items routed. Items that find no chest/dispenser, or whose 
+	 * path is too long, are not counted, so they do not keep the scan running
+	 * every tick.
+	 * 
+	 * @return the number of items stored, moved on top of a full 
+	 *         chest/dispenser or handed to the worker threads
 	 */
-	public void run() {
+	protected int scan() {
 	  long start = System.nanoTime();
+	  long deadline = maxScanNanos > 0 ? start + maxScanNanos : Long.MAX_VALUE;
 	  long end;
+	  long detectStart;
 	  double duration;
+	  int carried = backlog.size();   //Batches left over from earlier ticks
+	  boolean isRouted = false;       //Whether a batch was routed this tick
 	  
-	  Item item;
-	  Block workB;
-	  ItemStack itemStack;  //Item stack data
-	  int itemTypeId;       //Item decimal ID
-	  int itemDataVal;      //Item data value
-	  String itemIdStr;
+	  ArrayList<Item> items;
+	  ItemBatch batch;
+	  AsyncRouter.Job job;
 	  
-	  //Loop through every entity in every world of the server and check if
-	  //the entity is an item sitting on top of a crafting table.
+	  //Loop through every item that is sitting on top of a crafting table.
+	  //Other entities never need to be looked at: only the space above every
+	  //known crafting table is looked at, and the item tracker keeps the items
+	  //it saw land on crafting tables the registry does not know yet. Items of
+	  //the same kind on the same crafting table are routed together.
+		scanDeadline = deadline;
+		movedItems = 0;
 		try {
-			for (World world : getServer().getWorlds()) {
-				for (Entity entity : world.getEntities()) {
-					if (entity instanceof Item) {
-						item = (Item) entity;
-						workB = 
-								item.getLocation().getBlock().getRelative(BlockFace.DOWN);
-						if (workB.getType() == Material.WORKBENCH) {
-						  itemStack = item.getItemStack();                
-							itemTypeId = itemStack.getTypeId();								
-							itemDataVal = itemStack.getData().getData();         
-							itemIdStr = itemTypeId + DELIMITER + itemDataVal; 
-							
-							sendMsgToClient(MessageType.GENERAL, 
-									"\n\nProcessing item: " + ITEMNAMES.get(itemIdStr) + 
-									" / " + itemTypeId + " / " + itemDataVal);
-							
-							visitedB.clear(); //Flush list of traversed blocks
-							wildcardB = null; //??
-							fullB = null;     //Holds an end component that is full
-							
-							//Look for a valid chest/dispenser, traversing through redstone path
-							workB = findNextEmptyComponent(workB, itemStack, itemIdStr);
-							
-							//A full end component was found but there is no non-full end
-							//component found, so send the item to sit ON TOP of the full end component.
-							if (workB == null && fullB != null) {
-								sendMsgToClient(MessageType.PATHING,
-										"Moving item on top of chest/dispenser because it's full: X" + 
-										fullB.getX() + "/Y" + fullB.getY() + "/Z" + fullB.getZ());
-								item.teleport(new Location(world, fullB.getX() + .5, 
-										fullB.getY() + 1, fullB.getZ() + .5));
-							} 
-							//A wildcard end block was found but there is no non-full end
-							//component found, so traverse for a valid end component from the
-							//wildcard end block.
-							else if (workB == null && wildcardB != null) {
-								workB = findNextEmptyComponent(wildcardB, itemStack, itemIdStr); 
-							}
-							
-							//A valid end component was found so store the item into this
-							//end component.
-							if (workB != null) {
-								sendMsgToClient(MessageType.GENERAL,
-										"Storing in chest/dispenser: X" + workB.getX() + 
-										"/Y" + workB.getY() + "/Z" + workB.getZ());
-								addContents(workB, itemStack);
-								item.remove();
-							}
-							else {
-								sendMsgToClient(MessageType.GENERAL,
-										"No chest/dispenser to send item!");
-							}
-						}
-					}
+			//Store the items whose paths the worker threads have walked since
+			//the last cycle first, so they are gone before items are looked for
+			if (asyncRouter != null) {
+				while (System.nanoTime() < deadline && (job = asyncRouter.poll()) != null) {
+					commitJob(job);
+				}
+			}
+			
+			//Only look for items again once the ones found before are routed,
+			//so items are routed first come first served
+			if (backlog.isEmpty()) {
+				detectStart = System.nanoTime();
+				for (World world : getServer().getWorlds()) {
+					workbenchRegistry.findItems(world, itemTracker::add);
+				}
+				items = itemTracker.getItemsOnWorkbenches();
+				for (ItemBatch found : ItemBatch.group(items)) {
+					backlog.add(found);
+					backlogItems += found.size();
+				}
+				stats.record(RoutingStats.Phase.DETECTION, System.nanoTime() - detectStart);
+			}
+			//Route until the tick's budget is used up, but always route at least
+			//one batch so the backlog keeps moving. Batches left over from 
+			//earlier ticks may have been picked up or moved in the meantime.
+			//Batches whose path was too long to walk last time are left where
+			//they are without counting as routed.
+			do {
+				batch = backlog.poll();
+				if (batch == null) {
+					break;
+				}
+				backlogItems -= batch.size();
+				if (carried-- > 0 && !batch.isUnchanged()) {
+					continue;
 				}
+				if (itemRouter.isOverBudget(batch)) {
+					continue;
+				}
+				isRouted = true;
+				if (asyncRouter != null) {
+					routeAsync(batch);
+				}
+				else {
+					movedItems += itemRouter.route(batch, scanDeadline);
+				}
+			} while (!isRouted || System.nanoTime() < deadline);
+			
+			if (asyncRouter != null) {
+				submitAsync();
+			}
+			if (!backlog.isEmpty()) {
+				scanScheduler.hurry(backlog.size() + " batch(es) of items queued");
 			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, pluginName + " threw " + e.getMessage(), e);
@@ -500,192 +789,233 @@ public class IntoChest
 			sendMsgToClient(MessageType.RUNTIME, duration + "ms");
 			sendMsgToLogger(MessageType.RUNTIME, duration + "ms");
 		}
+		return movedItems;
 	}
+
 	
 	/**
-	 * Recursively traverses the qualifying path between crafting table and
-	 * end component while checking for filters. 
+	 * Routes a batch of items with the async router. A batch that has a 
+	 * cached route or a compiled path is cheap to route, so it is routed
+	 * right away. For any other batch the copies of the chunks around its
+	 * crafting table are taken from the chunk cache, and the batch is handed to the worker threads by {@link #submitAsync()}.
 	 * 
-	 * @param curBlock  current block being pointed at
-	 * @param itemStack  item that is sitting on the crafting table
-	 * @param itemIdStr  item identifier of item that is sitting on the crafting table
-	 * @return a block that is found to be the end component or null if no
-	 * 				 block was found
+	 * @param batch  items of the same kind sitting on the same crafting table
 	 */
-	protected Block findNextEmptyComponent(Block curBlock, 
-																			ItemStack itemStack,
-																			String itemIdStr) {
-		if (visitedB.contains(curBlock))
-			return null;
-
-		if (isBlockAnEndComponent(curBlock)) {
-			if (isEndComponentFull(getContents(curBlock), itemStack)) {
-				sendMsgToClient(MessageType.PATHING, 
-						"Skipping chest/dispenser because it's full: X" + 
-						curBlock.getX() + "/Y" + curBlock.getY() + "/Z" + curBlock.getZ());
-				fullB = curBlock;
-			} 
-			else
-			{
-				return curBlock;
-			}
+	private void routeAsync(ItemBatch batch) {
+		NetworkSnapshot snapshot;
+		
+		if (asyncRouter.isPending(batch)) {
+			return;
 		}
-
-		if (isBlockAFilterComponent(curBlock)) {
-			Sign sign = (Sign) curBlock.getState();
-			if (isAllowed(sign, itemStack.getTypeId(), 
-					itemStack.getData().getData(), itemIdStr)) {
-				sendMsgToClient(MessageType.PATHING,
-						"Allowed via sign found at: X" + curBlock.getX() + "/Y" + 
-						curBlock.getY() + "/Z" + curBlock.getZ());
-			} 
-			else {
-				if (curBlock.equals(wildcardB))
-					sendMsgToClient(MessageType.PATHING,
-							"YET skipping because wildcard was found at: X" + 
-							curBlock.getX() + "/Y" + curBlock.getY() + "/Z" + 
-							curBlock.getZ());
-				else {
-					sendMsgToClient(MessageType.PATHING,
-							"Skipping because not allowed via sign found at: X" + 
-							curBlock.getX() + "/Y" + curBlock.getY() + "/Z" + 
-							curBlock.getZ());
-				}
-				  
-				return null;
+		if (itemRouter.isCheap(batch, scanDeadline)) {
+			movedItems += itemRouter.route(batch, scanDeadline);
+			return;
+		}
+		snapshot = asyncSnapshots.get(batch.getWorld().getUID());
+		if (snapshot == null) {
+			snapshot = new NetworkSnapshot(batch.getWorld());
+			asyncSnapshots.put(batch.getWorld().getUID(), snapshot);
+		}
+		snapshot.capture(BlockKey.of(batch.getWorkbench()), asyncRadius, chunkCache);
+		asyncBatches.add(batch);
+	}
+	
+	/**
+	 * Hands the batches set aside by {@link #routeAsync(ItemBatch)} to the 
+	 * worker threads of the async router, which walk their paths on the 
+	 * copied chunks. Every job is handed the room the chests/dispensers
+	 * looked up so far have for its items, so its walk stops at the first one
+	 * with room.
+	 */
+	private void submitAsync() {
+		NetworkSnapshot snapshot;
+		AsyncRouter.Job job;
+		
+		//Only hand jobs over once every chunk is copied, as a snapshot must not
+		//change any more while a worker thread reads it
+		for (ItemBatch batch : asyncBatches) {
+			snapshot = asyncSnapshots.get(batch.getWorld().getUID());
+			job = new AsyncRouter.Job(batch, snapshot, routeCache.getChanges());
+			for (int i = 0; i < snapshot.getEndCount(); i++) {
+				job.setRoom(snapshot.getEndAt(i), 
+						itemRouter.getRoom(snapshot.getEndAt(i), batch.getStack()));
 			}
+			asyncRouter.submit(job);
+			movedItems += batch.size();
+		}
+		asyncBatches.clear();
+		asyncSnapshots.clear();
+	}
+	
+	/**
+	 * Stores the items of a job the async router has finished. If the walk 
+	 * reached signs or chests/dispensers that were not looked up yet, they
+	 * are looked up now and the job is walked again. The chests/dispensers of
+	 * the plan are checked again for room, as items may have been stored in 
+	 * them while the path was walked. The items may have changed as well, so
+	 * the job is only used if they still lie on the crafting table as they 
+	 * were. Otherwise they are picked up again next cycle.
+	 * 
+	 * @param job  the finished job
+	 */
+	private void commitJob(AsyncRouter.Job job) {
+		ItemBatch batch = job.getBatch();
+		RouteSearch search = job.getSearch();
+		InsertPlan plan = search.getPlan();
+		EndComponent end;
+		long start = System.nanoTime();
+		
+		//Picked up again next cycle as they are now, if they are still there
+		if (!batch.isUnchanged()) {
+			return;
+		}
+		
+		//Look up what the walk reached and walk again, unless the walk left 
+		//the copied chunks or failed
+		if (job.getResult() != null && !job.isIncomplete() && !job.getMissing().isEmpty() &&
+				job.getRounds() < AsyncRouter.Job.MAX_ROUNDS) {
+			resolveMissing(job);
+			asyncRouter.submit(job);
+			return;
 		}
-
-		// Only process this block once per item or we will get infinite loops!
-		visitedB.add(curBlock); // Place this after the wildcard-return!
-
-		Block findBlock;
-		Block aboveBlock = curBlock.getRelative(BlockFace.UP);
-		Material aboveType = aboveBlock.getType();
 		
-		findBlock = findNextEmptyComponentHelper(curBlock, aboveBlock, aboveType, BlockFace.NORTH, itemStack, itemIdStr);
-		if (findBlock != null) {
-			return findBlock;
+		//The walk left the copied chunks, failed or went on looking things up
+		//for too long. The worker thread's walk still counts towards the cost
+		//of the crafting table.
+		if (job.getResult() == null || job.isIncomplete() || !job.getMissing().isEmpty()) {
+			profiler.record(batch.getWorkbench(), search, job.getNanos());
+			movedItems += itemRouter.route(batch, scanDeadline);
+			return;
 		}
-		findBlock = findNextEmptyComponentHelper(curBlock, aboveBlock, aboveType, BlockFace.EAST, itemStack, itemIdStr);
-		if (findBlock != null) {
-			return findBlock;
+		
+		//Left where they are, as a walk on the main thread would have
+		if (job.getResult() == PathWalker.Result.BUDGET_EXCEEDED) {
+			reportBudgetExceeded(batch.getWorkbench(), search.getNodesVisited());
+			if (job.getRouteChanges() == routeCache.getChanges()) {
+				routeCache.putOverBudget(batch.getWorld(), BlockKey.of(batch.getWorkbench()), 
+						batch.getItemKey(), job.getTouched());
+			}
+			profiler.record(batch.getWorkbench(), search, job.getNanos());
+			return;
 		}
-		findBlock = findNextEmptyComponentHelper(curBlock, aboveBlock, aboveType, BlockFace.SOUTH, itemStack, itemIdStr);
-		if (findBlock != null) {
-			return findBlock;
+		
+		for (int i = 0; i < plan.size(); i++) {
+			end = plan.getComponent(i);
+			if (end.getBlock().getType() != end.getType() || 
+					itemRouter.getRoom(end, batch.getStack()) < plan.getAmount(i)) {
+				profiler.record(batch.getWorkbench(), search, job.getNanos());
+				movedItems += itemRouter.route(batch, scanDeadline);
+				return;
+			}
 		}
-		findBlock = findNextEmptyComponentHelper(curBlock, aboveBlock, aboveType, BlockFace.WEST, itemStack, itemIdStr);
-		if (findBlock != null) {
-			return findBlock;
+		
+		//The route is only remembered if no block changed since the snapshot
+		if (job.getRouteChanges() == routeCache.getChanges()) {
+			routeCache.put(batch.getWorld(), BlockKey.of(batch.getWorkbench()), 
+					batch.getItemKey(), search.getRoute(), job.getTouched());
 		}
-		return null;
+		movedItems += itemRouter.commit(batch, search);
+		profiler.record(batch.getWorkbench(), search, 
+				job.getNanos() + System.nanoTime() - start);
 	}
-
+	
 	/**
-	 * From the current block, check in a specific direction if the block
-	 * in that direction is a component for IntoChest to continue the traversal
-	 * path. 
-	 * <p>
-	 * Is a helper function for {@link #findNextEmptyComponent(Block, ItemStack, String)}
-	 * which is called recursively in order to traverse the possible IntoChest
-	 * paths.
+	 * Looks up the signs and chests/dispensers the walk of a job reached that
+	 * were not looked up yet, and hands them to the job. They are kept with
+	 * the copies of their chunks as well, so the walks of later jobs find 
+	 * them.
 	 * 
-	 * @param curBlock  the current block we are pointing at
-	 * @param aboveBlock  the block above the current block
-	 * @param aboveBlockType  the type of the aboveBlock
-	 * @param direction  the direction to check for a block that is a component
-	 * @param itemStack  object for item stack sitting on crafting table
-	 * @param itemIdStr  identifier string of the item stack
-	 * @return block that is found to be an end component
+	 * @param job  the finished job
 	 */
-	private Block findNextEmptyComponentHelper(Block curBlock, 
-																	Block aboveBlock,
-																	Material aboveBlockType,
-																	BlockFace direction, 
-																	ItemStack itemStack, 
-																	String itemIdStr) {
-		Block newBlock;
-		Material newBlockType;
-		Block findBlock;
-		Material findBlockType;
+	private void resolveMissing(AsyncRouter.Job job) {
+		World world = job.getBatch().getWorld();
+		EndComponent end;
+		SignFilter filter;
+		Block block;
 		
-		newBlock = curBlock.getRelative(direction);
-		newBlockType = newBlock.getType();
-		
-		if (isBlockTypeAComponent(newBlockType)) {
-			findBlock = findNextEmptyComponent(newBlock, itemStack, itemIdStr);
-			if (findBlock != null)
-				return findBlock;
-		} 
-		else if (newBlockType == Material.AIR) { // Down one step
-			findBlock = newBlock.getRelative(BlockFace.DOWN);
-		  findBlockType = findBlock.getType();
-			if (isBlockTypeAComponent(findBlockType)) {
-				findBlock = findNextEmptyComponent(findBlock, itemStack, itemIdStr);
-				if (findBlock != null)
-					return findBlock;
+		for (long key : job.getMissing().toArray()) {
+			if (!world.isChunkLoaded(BlockKey.x(key) >> 4, BlockKey.z(key) >> 4)) {
+				job.resolveFilter(key, null);
+				continue;
 			}
-		} 
-		else if (aboveBlockType == Material.AIR) { // Up one step
-			findBlock = aboveBlock.getRelative(direction);
-			findBlockType = findBlock.getType();
-			if (isBlockTypeAComponent(findBlockType)) {
-				findBlock = findNextEmptyComponent(findBlock, itemStack, itemIdStr);
-				if (findBlock != null)
-					return findBlock;
+			block = world.getBlockAt(BlockKey.x(key), BlockKey.y(key), BlockKey.z(key));
+			switch (block.getType()) {
+				case CHEST:
+				case DISPENSER:
+					end = endComponentCache.get(block);
+					job.resolveEnd(key, end, itemRouter.getRoom(end, job.getBatch().getStack()));
+					if (end != null) {
+						chunkCache.putEnd(world, key, end);
+					}
+					break;
+				case SIGN_POST:
+				case WALL_SIGN:
+					filter = signFilterCache.get(block);
+					job.resolveFilter(key, filter);
+					if (filter != null) {
+						chunkCache.putFilter(world, key, filter);
+					}
+					break;
+				default:
+					job.resolveFilter(key, null);
 			}
 		}
-		return null;
 	}
 	
 	/**
-	 * Is a block's type a component that is valid for traversing an IntoChest
-	 * path?
-	 * <p>
-	 * Valid types:
-	 * <br>
-	 * <ul>
-	 * <li>Chest
-	 * <li>Dispenser
-	 * <li>Redstone Wire
-	 * <li>Sign Post
-	 * <li>Wall Sign
-	 * </ul>
-	 * <p>
-	 * @param blockType  The type of the block to check
-	 * @return true if the block has a type that is a valid component.
+	 * Lets the user know that the path of a crafting table could not be
+	 * walked within budget. The server log only gets told once per crafting 
+	 * table so a huge build does not flood it every cycle.
+	 * 
+	 * @param workB  the crafting table the item is sitting on
+	 * @param nodes  number of blocks walked before giving up
 	 */
-	protected boolean isBlockTypeAComponent(Material blockType) {
-		if (blockType == Material.CHEST || 
-				blockType == Material.DISPENSER || 
-			  blockType == Material.REDSTONE_WIRE || 
-				blockType == Material.SIGN_POST || 
-				blockType == Material.WALL_SIGN) {
-			return true;
-		}
-		else {
-			return false;
+	private void reportBudgetExceeded(Block workB, int nodes) {
+		sendMsgToClient(MessageType.PATHING, () -> 
+				"Gave up looking for a chest/dispenser after " + 
+				nodes + " blocks: X" + workB.getX() + 
+				"/Y" + workB.getY() + "/Z" + workB.getZ());
+		if (budgetWarnedB.add(BlockKey.of(workB))) {
+			logger.warning(pluginName + ": The path of the crafting table at X" + 
+					workB.getX() + "/Y" + workB.getY() + "/Z" + workB.getZ() + 
+					" in " + workB.getWorld().getName() + " is too long to walk " + 
+					"within the traversal limits. Items on it are left in place.");
 		}
 	}
 	
 	/**
-	 * Is this block an end component where items may be dumped into?
-	 * <p>
-	 * Currently only chests and dispensers are end components.
-	 * <p>
-	 * @param block  The block we are checking
-	 * @return true if the block is an end component
+	 * Routes items on the main thread, sending its debug messages to the user.
 	 */
-	protected boolean isBlockAnEndComponent(Block block) {
-		Material curBlockType = block.getType();
-		if (curBlockType == Material.CHEST || 
-				curBlockType == Material.DISPENSER) {
-			return true;
+	private class Router extends ItemRouter {
+		
+		Router(PathWalker walker) {
+			super(walker, routeCache, signFilterCache, endComponentCache, capacityTracker, 
+					stats, profiler);
 		}
-		else 
-		{
-			return false;
+		
+		@Override
+		protected boolean canReport(MessageType msgType) {
+			return canSendMsg(msgType);
+		}
+		
+		@Override
+		protected void report(MessageType msgType, String text) {
+			sendMsgToClient(msgType, text);
+		}
+		
+		@Override
+		protected void report(MessageType msgType, String text, Block block) {
+			sendMsgToClient(msgType, text, block);
+		}
+		
+		@Override
+		protected void reportSign(Block signB) {
+			sendMsgToClient(MessageType.FILTER, () -> getSignItems((Sign) signB.getState()));
+		}
+		
+		@Override
+		protected void reportBudgetExceeded(Block workB, int nodes) {
+			IntoChest.this.reportBudgetExceeded(workB, nodes);
 		}
 	}
 	
@@ -709,111 +1039,6 @@ public class IntoChest
 		}
 	}
 	
-	/**
-	 * Check if the item that's sitting on the crafting table is allowed to pass
-	 * through a sign filter.
-	 * <p>
-	 * The sign can include text that matches an item through its item identifier
-	 * (decimal ID and data value delimited by a pipe), decimal ID, exact name, 
-	 * short name, or group name.
-	 * 
-	 * @param sign  the sign that is checked against the item sitting on crafting table
-	 * @param typeId  item decimal ID (Example: 15)
-	 * @param dataVal  item data value (Example: 2)
-	 * @param itemIdStr  item identifier (Example: 15|2)
-	 * @return true if the item is allowed to pass through the sign filter.
-	 */
-	protected boolean isAllowed(final Sign sign, 
-			                      final int typeId, 
-			                      final int dataVal,
-			                      final String itemIdStr) {
-		boolean retVal = false;
-		boolean filterHasDataVal = false;
-		char firstChar = ' ';
-		boolean isfirstCharADigit = false;
-		
-		sendMsgToClient(MessageType.FILTER, getSignItems(sign));
-		
-		for (String filterStr : (sign.getLine(0) +
-		                         sign.getLine(1) + 
-					                   sign.getLine(2) + 
-							               sign.getLine(3)).toLowerCase().split(",")) {
-			filterStr = filterStr.trim();
-
-			if (filterStr.contains(DELIMITER)) {
-				filterHasDataVal = true;
-			}
-			else {
-				filterHasDataVal = false;
-			}
-			
-		  //Don't process if the term is an empty string
-			if (filterStr.length() == 0) {
-				continue;
-			}
-			
-			firstChar = filterStr.charAt(0);
-			isfirstCharADigit = (firstChar >= '0' && firstChar <= '9');
-			
-			//Filter is a decimal identifier, not a lexical name
-			if (isfirstCharADigit) {
-				//Filter is in the form of an item identifier for exact matching: "10|1"
-			  if (filterHasDataVal) {
-					if (filterStr.equals(itemIdStr)) { //Item decimal number and data value
-						sendMsgToClient(MessageType.FILTER, "Fit via id: " + filterStr);
-						retVal = true;
-					}
-				}
-			  //Filter only has the item's decimal ID: "10"
-			  else {
-			  	if (filterStr.equals(String.valueOf(typeId))) { //Item decimal number
-			  		sendMsgToClient(MessageType.FILTER, "Fit via id of a group: " + typeId);
-			  		retVal = true;
-			  	}
-			  }
-			}
-			//Filter is a lexical name
-			else {
-				if (filterStr.equals(ITEMNAMES.get(itemIdStr))) { //Item exact name
-					sendMsgToClient(MessageType.FILTER, "Fit via exact name: " + 
-							filterStr);
-					retVal = true; 
-				} 
-				else if (GRPDATAVALUES.containsKey(filterStr)) { //Group name that includes item
-					ArrayList<String> valuesList = GRPDATAVALUES.get(filterStr);
-					if (valuesList.contains(itemIdStr)) {
-						sendMsgToClient(MessageType.FILTER, "Fit via group name: " + 
-								filterStr);
-						retVal = true;
-					}	
-				}
-				else if (filterStr.equals(SHORTITEMNAMES.get(itemIdStr))) { //Item short name
-					sendMsgToClient(MessageType.FILTER, "Fit via short name: " + 
-							filterStr + " -> " + ITEMNAMES.get(itemIdStr));
-				  retVal = true;
-				}
-			}
-			
-		  // Wildcard sign, means "if nothing else matches"
-			if (!retVal && filterStr.matches("^\\*$")) { 
-				sendMsgToClient(MessageType.FILTER, 
-						"We have a wildcard! X" + sign.getBlock().getX() + "/Y" + 
-						sign.getBlock().getY() + "/Z" + sign.getBlock().getZ());
-				if (wildcardB == null) {
-					// On the first run stop processing the wildcard and do the rest first.
-					wildcardB = sign.getBlock();
-					retVal = false;
-				} 
-				else {
-					// Then, on the second run, after everything else, do the wildcard.
-					wildcardB = null;
-					retVal = true;
-				}
-			}
-		}
-		return retVal;
-	}
-	
 	/**
 	 * Gets a string that includes a list of items that are allowed to pass
 	 * through a sign and a list of invalid terms from the sign that could
@@ -869,12 +1094,12 @@ public class IntoChest
 		int dataValCtr = 0;
 		String tempFilterStr = "";
 		boolean itemAllowedFound = false;
-		String tempKey = "";
+		ItemGroup group;
 		
-		signStr = sign.getLine(0) +
+		signStr = (sign.getLine(0) +
         sign.getLine(1) + 
         sign.getLine(2) + 
-        sign.getLine(3).toLowerCase();	
+        sign.getLine(3)).toLowerCase();	
 		
 		//Process each term in the sign
 		for (String filterStr : signStr.split(",")) {
@@ -923,26 +1148,21 @@ public class IntoChest
 			  }
 			}
 			else if (!isfirstCharADigit) { 
-				if (ITEMNAMES.containsValue(filterStr)) { //via exact name
+				group = ItemGroup.forName(filterStr);
+				if (ItemKey.getKeysByName(filterStr).length > 0) { //via exact name
 					allowedList.add(filterStr);
 				}
-				else if (GRPDATAVALUES.containsKey(filterStr)) { //via group name
+				else if (group != null) { //via group name
 					//Add every item that is contained in a group name
-					for (String key : GRPDATAVALUES.get(filterStr)) {
-						allowedList.add(ITEMNAMES.get(key));
+					for (int i = 0; i < group.size(); i++) {
+						allowedList.add(ItemKey.getName(group.getKey(i)));
 					}
 				}
-				else if (SHORTITEMNAMES.containsValue(filterStr)) { //via short name
-					//Find the key (item identifier) for the value (the short name).
-					//Have to loop because key is not indexed. Once key is found we can
-					//use the same key to get the full exact name from ITEMNAMES.
-					for (Entry<String,String> entry : SHORTITEMNAMES.entrySet()) {
-						if (Objects.equals(filterStr, entry.getValue())) {
-							tempKey = entry.getKey();
-							break;
-						}
+				else if (ItemKey.getKeysByShortName(filterStr).length > 0) { //via short name
+					//Add the full exact name of every item with the short name
+					for (int key : ItemKey.getKeysByShortName(filterStr)) {
+						allowedList.add(ItemKey.getName(key));
 					}
-					allowedList.add(ITEMNAMES.get(tempKey));
 				}
 				else {
 					invalidList.add(filterStr);
@@ -952,177 +1172,6 @@ public class IntoChest
 		return allowedList;
 	}
 
-	/**
-	 * Check if the contents of an end component is full or has no more space
-	 * to dump the item(s).
-	 * <p>
-	 * @param endCompContents  contents of an end component
-	 * @param check  the stack of the item we want to dump
-	 * @return true if end component cannot take the item(s) we want to dump
-	 */
-	protected boolean isEndComponentFull(ItemStack[] endCompContents, 
-																		 ItemStack check) {
-		if (endCompContents == null) {
-			return false;
-		}
-		
-		int amt = check.getAmount();
-		int maxStack = check.getMaxStackSize(); //Not all items stack up to 64
-		int checkTypeId = check.getTypeId();
-		byte checkDataValue = check.getData().getData();
-		
-		sendMsgToClient(MessageType.GENERAL, "Quantity to stack: " + amt);
-		for (ItemStack item : endCompContents) {	
-			//Empty slot -> Chest/Dispenser is not full for sure. :)
-			if (item == null || item.getAmount() == 0) {
-				sendMsgToClient(MessageType.GENERAL, "Stackable into empty slot");
-				return false;
-			}
-			
-			//If item is unstackable, it can never stack on an existing stack.
-			if (maxStack == 1) {
-				continue;
-			}
-		  //Contains a stack of item of same type, check if we can fit everything
-			//in that stack. 
-			if (item.getTypeId() == checkTypeId) { 
-				if (item.getData().getData() == checkDataValue) {
-					amt -= maxStack - item.getAmount();
-					if (amt <= 0) {
-						sendMsgToClient(MessageType.GENERAL, "Stackable onto existing item stack");
-					  return false;
-					}
-				}
-			}
-		}
-		sendMsgToClient(MessageType.GENERAL, "Chest/dispenser does not have room to take the item");
-		return true;
-	}
-
-	/**
-	 * Gets the item contents of the chest(s) or dispenser.
-	 * <p>
-	 * @param block  end component to check contents for
-	 * @return array of item contents
-	 */
-	protected ItemStack[] getContents(Block block) {
-		BlockState blockState = block.getState();
-		if (blockState instanceof Chest) {
-			Chest chest = (Chest) blockState;
-			Chest otherChest = getOtherChest(block);
-			if (otherChest == null)
-				return chest.getInventory().getContents();
-			else {
-				ArrayList<ItemStack> itemContentsList = new ArrayList<ItemStack>();
-				if (otherChest.getX() < block.getX() || 
-						otherChest.getZ() < block.getZ()) {
-					itemContentsList.addAll(Arrays.asList(otherChest.getInventory().getContents()));
-					itemContentsList.addAll(Arrays.asList(chest.getInventory().getContents()));
-				} 
-				else {
-					itemContentsList.addAll(Arrays.asList(chest.getInventory().getContents()));
-					itemContentsList.addAll(Arrays.asList(otherChest.getInventory().getContents()));
-				}
-				return itemContentsList.toArray(new ItemStack[itemContentsList.size()]);
-			}
-		} 
-		else if (blockState instanceof Dispenser) {
-			return ((Dispenser) blockState).getInventory().getContents();
-		} 
-		else {
-			logger.warning("Unknown BlockState: " + blockState);
-			return null;
-		}
-	}
-
-	/**
-	 * Adds the item sitting on the crafting table into the chest(s) or dispenser.
-	 * 
-	 * @param block  end component to check contents for
-	 * @param stack  stack of item(s) sitting on crafting table
-	 */
-	protected void addContents(Block block, ItemStack stack) {
-		BlockState blockState = block.getState();
-		if (blockState instanceof Chest) {
-			Chest chest = (Chest) blockState;
-			Chest otherChest = getOtherChest(block);
-			if (otherChest == null)
-				chest.getInventory().addItem(stack);
-			else if ((otherChest.getX() < block.getX()) || 
-					     (otherChest.getZ() < block.getZ())) {
-				if (isEndComponentFull(otherChest.getInventory().getContents(), stack))
-					chest.getInventory().addItem(stack);
-				else
-					otherChest.getInventory().addItem(stack);
-			} 
-			else {
-				if (isEndComponentFull(chest.getInventory().getContents(), stack))
-					otherChest.getInventory().addItem(stack);
-				else
-					chest.getInventory().addItem(stack);
-			}
-		} 
-		else if (blockState instanceof Dispenser) {
-			((Dispenser) blockState).getInventory().addItem(stack);
-		} 
-		else {
-			logger.warning("Unknown BlockState: " + blockState);
-		}
-	}
-
-	/**
-	 * Gets the other chest of a chest block (if there is one).
-	 * <p>
-	 * Chests can be placed as one chest or two chests.
-	 * <p>
-	 * @param block  the chest we have already identified
-	 * @return the chest object that is the other chest
-	 */
-	protected static Chest getOtherChest(Block block) {
-		Chest otherChest = null;
-		
-		if (block == null) {
-			return null;
-		}
-		
-		if (isBlockOtherChest(block, BlockFace.NORTH, otherChest)) {
-			return otherChest;
-		}
-		else if (isBlockOtherChest(block, BlockFace.WEST, otherChest)) {
-			return otherChest;
-		}
-		else if (isBlockOtherChest(block, BlockFace.SOUTH, otherChest)) {
-			return otherChest;
-		}
-		else if (isBlockOtherChest(block, BlockFace.EAST, otherChest)) {
-			return otherChest;
-		}
-		else {
-			return null;
-		}
-	}
-	
-	/**
-	 * Helper fxn to check if a certain face of a block is the other chest to 
-	 * a chest.
-	 * <p>
-	 * @param block  chest block we already have identified
-	 * @param face  what face should we check
-	 * @param otherChest  object of otherChest that is to be assigned if the 
-	 *                    other chest has been found
-	 * @return true if the otherChest was found at the face specified
-	 */
-	private static boolean isBlockOtherChest(Block block, BlockFace face, Chest otherChest) {
-		if (block.getRelative(face).getType() == Material.CHEST) {
-			otherChest = (Chest) block.getRelative(face).getState();
-			return true;
-		}
-		else {
-			otherChest = null;
-			return false;
-		}
-	}
-	
 	/**
 	 * Attempts to send a message to the client console. If the message type is
 	 * not set to be outputted, the message will not be sent.
@@ -1148,6 +1197,36 @@ public class IntoChest
 		//sendMsgToLogger(msgType, text); //TODO: Remove
 	}
 	
+	/**
+	 * Attempts to send a message to the client console. The message is only
+	 * built if the message type is set to be outputted, so messages on busy
+	 * paths cost nothing while their debug messages are off.
+	 * <p>
+	 * @param msgType  the message type
+	 * @param text  builds the message string
+	 */
+	protected void sendMsgToClient(MessageType msgType, Supplier<String> text) {
+		if (canSendMsg(msgType)) {
+			sendMsgToClient(msgType, text.get());
+		}
+	}
+	
+	/**
+	 * Attempts to send a message that ends with the location of a block to the
+	 * client console. The message is only built if the message type is set to
+	 * be outputted.
+	 * <p>
+	 * @param msgType  the message type
+	 * @param text  the message string in front of the location
+	 * @param block  the block whose location ends the message
+	 */
+	protected void sendMsgToClient(MessageType msgType, String text, Block block) {
+		if (canSendMsg(msgType)) {
+			sendMsgToClient(msgType, text + "X" + block.getX() + "/Y" + 
+					block.getY() + "/Z" + block.getZ());
+		}
+	}
+	
 	/**
 	 * Attempts to send a message to the logger. If the message type is not
 	 * set to be outputted, the message will not be sent.
@@ -1164,6 +1243,19 @@ public class IntoChest
 		}
 	}
 	
+	/**
+	 * Attempts to send a message to the logger. The message is only built if
+	 * the message type is set to be outputted.
+	 * <p>
+	 * @param msgType  the message type
+	 * @param text  builds the message string
+	 */
+	protected void sendMsgToLogger(MessageType msgType, Supplier<String> text) {
+		if (canSendMsg(msgType)) {
+			sendMsgToLogger(msgType, text.get());
+		}
+	}
+	
 	/**
 	 * Checks if the message type is set to be outputted.
 	 * <p>
@@ -1250,7 +1342,7 @@ public class IntoChest
 	 */
 	private String inspectItem(ItemStack itemStack) {
 		int itemId;
-		int itemDataVal;
+		int itemKey;
 		String itemIdStr = "";
 		String exactName = "";
 		String shortName = "";
@@ -1258,22 +1350,20 @@ public class IntoChest
 		StringBuilder retStr = new StringBuilder();
 		
 		//Get the identifiers of the item
-		itemId = itemStack.getTypeId();                 //Item ID
-		itemDataVal = itemStack.getData().getData();    //Item data value
-		itemIdStr = itemId + DELIMITER + itemDataVal;   //Item exact identifier
+		itemKey = ItemKey.of(itemStack);                //Item ID and data value
+		itemId = ItemKey.typeId(itemKey);               //Item ID
+		itemIdStr = ItemKey.toString(itemKey);          //Item exact identifier
 	
-		if (ITEMNAMES.containsKey(itemIdStr)) {         //Exact name
-			exactName = ITEMNAMES.get(itemIdStr);		
+		if (ItemKey.getName(itemKey) != null) {         //Exact name
+			exactName = ItemKey.getName(itemKey);		
 		}
 	
-		if (SHORTITEMNAMES.containsKey(itemIdStr)) {    //Short name
-			shortName = SHORTITEMNAMES.get(itemIdStr);
+		if (ItemKey.getShortName(itemKey) != null) {    //Short name
+			shortName = ItemKey.getShortName(itemKey);
 		}
 		
-		for (Entry<String,ArrayList<String>> entry : GRPDATAVALUES.entrySet()) {
-			if (entry.getValue().contains(itemIdStr)) {   //Group name(s)
-				groupName += entry.getKey() + ", ";
-			}
+		for (int id : ItemGroup.idsOf(itemKey)) {       //Group name(s)
+			groupName += ItemGroup.forId(id).getName() + ", ";
 		}
 		if (groupName.length() > 2) {
 			groupName = groupName.substring(0, groupName.length()-2);
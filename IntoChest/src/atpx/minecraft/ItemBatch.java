@@ -0,0 +1,212 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Item;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code ItemBatch} is a group of items lying on the same crafting table that
+ * stack with each other, so they can be routed with a single walk and stored
+ * with a single inventory operation.
+ * <p>
+ * Items only join a batch if they have the same item key (see
+ * {@link ItemKey}) and are similar (same name, enchantments, ...), as only
+ * those end up in the same slots.
+ *
+ * @author Jeff Lee
+ */
+public class ItemBatch {
+
+	private final World world;
+	private final Block workbench;
+	private final int itemKey;
+	private final ArrayList<Item> items = new ArrayList<Item>(1);
+	private final ArrayList<ItemStack> stacks = new ArrayList<ItemStack>(1);
+	private int amount;
+
+	private ItemBatch(Block workbench, int itemKey) {
+		this.world = workbench.getWorld();
+		this.workbench = workbench;
+		this.itemKey = itemKey;
+	}
+
+	/**
+	 * Groups items lying on crafting tables into batches.
+	 *
+	 * @param items  items lying on crafting tables
+	 * @return the batches, in the order their first item was given
+	 */
+	public static ArrayList<ItemBatch> group(List<Item> items) {
+		ArrayList<ItemBatch> batches = new ArrayList<ItemBatch>();
+		//Batches of every crafting table by block key
+		LongObjectHashMap<ArrayList<ItemBatch>> byWorkbench = 
+				new LongObjectHashMap<ArrayList<ItemBatch>>();
+		ArrayList<ItemBatch> workBatches;
+		ItemBatch batch;
+		ItemStack stack;
+		Block workB;
+		long workKey;
+		int key;
+
+		for (Item item : items) {
+			workB = item.getLocation().getBlock().getRelative(BlockFace.DOWN);
+			workKey = BlockKey.of(workB);
+			stack = item.getItemStack();
+			key = ItemKey.of(stack);
+
+			workBatches = byWorkbench.get(workKey);
+			if (workBatches == null) {
+				workBatches = new ArrayList<ItemBatch>(1);
+				byWorkbench.put(workKey, workBatches);
+			}
+			batch = null;
+			for (ItemBatch workBatch : workBatches) {
+				if (workBatch.itemKey == key && workBatch.world.equals(item.getWorld()) &&
+						workBatch.stacks.get(0).isSimilar(stack)) {
+					batch = workBatch;
+					break;
+				}
+			}
+			if (batch == null) {
+				batch = new ItemBatch(workB, key);
+				workBatches.add(batch);
+				batches.add(batch);
+			}
+			batch.add(item, stack);
+		}
+		return batches;
+	}
+
+	private void add(Item item, ItemStack stack) {
+		items.add(item);
+		stacks.add(stack);
+		amount += stack.getAmount();
+	}
+
+	/**
+	 * Gets the world of the crafting table.
+	 *
+	 * @return the world
+	 */
+	public World getWorld() {
+		return world;
+	}
+
+	/**
+	 * Gets the crafting table the items are lying on.
+	 *
+	 * @return the crafting table
+	 */
+	public Block getWorkbench() {
+		return workbench;
+	}
+
+	/**
+	 * Gets the item key of the items.
+	 *
+	 * @return the item key
+	 */
+	public int getItemKey() {
+		return itemKey;
+	}
+
+	/**
+	 * Gets the number of items in the batch.
+	 *
+	 * @return number of items
+	 */
+	public int size() {
+		return items.size();
+	}
+
+	/**
+	 * Gets an item of the batch.
+	 *
+	 * @param i  index of the item, from 0 to {@link #size()} - 1
+	 * @return the item
+	 */
+	public Item getItem(int i) {
+		return items.get(i);
+	}
+
+	/**
+	 * Gets the stacks of all items of the batch, in the same order as the
+	 * items.
+	 *
+	 * @return the stacks
+	 */
+	public ItemStack[] getStacks() {
+		return stacks.toArray(new ItemStack[stacks.size()]);
+	}
+
+	/**
+	 * Gets the combined amount of all items of the batch.
+	 *
+	 * @return the amount
+	 */
+	public int getAmount() {
+		return amount;
+	}
+
+	/**
+	 * Gets a stack that stands for all items of the batch, with their
+	 * combined amount.
+	 *
+	 * @return a new stack
+	 */
+	public ItemStack getStack() {
+		ItemStack stack;
+
+		if (stacks.size() == 1) {
+			return stacks.get(0);
+		}
+		stack = stacks.get(0).clone();
+		stack.setAmount(amount);
+		return stack;
+	}
+
+	/**
+	 * Do all items of the batch still lie on its crafting table, as they were
+	 * when the batch was made? Items can be picked up, merged or pushed off
+	 * while a batch waits to be routed.
+	 *
+	 * @return true if every item is still there with the same stack
+	 */
+	public boolean isUnchanged() {
+		Item item;
+
+		for (int i = 0; i < items.size(); i++) {
+			item = items.get(i);
+			if (!item.isValid() || !stacks.get(i).equals(item.getItemStack()) ||
+					!item.getLocation().getBlock().getRelative(BlockFace.DOWN)
+					.equals(workbench)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * {@code ItemGroup} is a group of {@link DataValues#GRPDATAVALUES} held as
+ * a bitset over item ordinals (see {@link ItemKey#ordinal(int)}), so checking
+ * whether an item belongs to a group is a single bit test.
+ * <p>
+ * Every group is created once when the class loads and numbered by the
+ * order of its name; the registry cannot be changed afterwards. The groups
+ * of every item are indexed by item ordinal at the same time, so finding
+ * which groups an item belongs to does not check every group.
+ * <p>
+ * Immutable.
+ *
+ * @author Jeff Lee
+ */
+public final class ItemGroup implements DataValues {
+
+	private static final ItemGroup[] GROUPS;
+	private static final HashMap<String, ItemGroup> BY_NAME = new HashMap<String, ItemGroup>();
+	private static final int[] NO_IDS = new int[0];
+	private static final int[][] IDS_BY_ORDINAL;  //IDs of the groups of every item, in order
+
+	static {
+		String[] names = GRPDATAVALUES.keySet().toArray(new String[GRPDATAVALUES.size()]);
+		int[] counts = new int[ItemKey.ordinalCount()];
+		int ordinal;
+
+		Arrays.sort(names);
+		GROUPS = new ItemGroup[names.length];
+		for (int i = 0; i < names.length; i++) {
+			GROUPS[i] = new ItemGroup(i, names[i], GRPDATAVALUES.get(names[i]));
+			BY_NAME.put(names[i], GROUPS[i]);
+		}
+
+		IDS_BY_ORDINAL = new int[counts.length][];
+		for (ItemGroup group : GROUPS) {
+			for (int key : group.keys) {
+				counts[ItemKey.ordinal(key)]++;
+			}
+		}
+		for (int i = 0; i < counts.length; i++) {
+			IDS_BY_ORDINAL[i] = counts[i] > 0 ? new int[counts[i]] : NO_IDS;
+			counts[i] = 0;
+		}
+		for (ItemGroup group : GROUPS) {
+			for (int key : group.keys) {
+				ordinal = ItemKey.ordinal(key);
+				IDS_BY_ORDINAL[ordinal][counts[ordinal]++] = group.id;
+			}
+		}
+	}
+
+	private final int id;
+	private final String name;
+	private final long[] words;        //Bit per item ordinal
+	private final int[] keys;          //Item keys of the group, sorted
+
+	private ItemGroup(int id, String name, ArrayList<String> itemIdStrs) {
+		BitSet bits = new BitSet(ItemKey.ordinalCount());
+		int ordinal;
+		int i = 0;
+
+		for (String itemIdStr : itemIdStrs) {
+			ordinal = ItemKey.ordinal(ItemKey.parse(itemIdStr));
+			if (ordinal >= 0) {
+				bits.set(ordinal);
+			}
+		}
+		this.id = id;
+		this.name = name;
+		this.words = bits.toLongArray();
+		this.keys = new int[bits.cardinality()];
+		for (ordinal = bits.nextSetBit(0); ordinal >= 0; ordinal = bits.nextSetBit(ordinal + 1)) {
+			keys[i++] = ItemKey.keyAt(ordinal);
+		}
+	}
+
+	/**
+	 * Gets a group by its name.
+	 *
+	 * @param name  the group name, in lower case
+	 * @return the group or null if there is no such group
+	 */
+	public static ItemGroup forName(String name) {
+		return BY_NAME.get(name);
+	}
+
+	/**
+	 * Gets a group by its ID.
+	 *
+	 * @param id  the group ID, from 0 to {@link #count()} - 1
+	 * @return the group
+	 */
+	public static ItemGroup forId(int id) {
+		return GROUPS[id];
+	}
+
+	/**
+	 * Gets the IDs of the groups an item belongs to.
+	 *
+	 * @param itemKey  item key of the item (see {@link ItemKey})
+	 * @return the group IDs in order, empty if the item is in no group
+	 */
+	public static int[] idsOf(int itemKey) {
+		int ordinal = ItemKey.ordinal(itemKey);
+		return ordinal >= 0 ? IDS_BY_ORDINAL[ordinal].clone() : NO_IDS;
+	}
+
+	/**
+	 * Gets the number of groups.
+	 *
+	 * @return number of groups
+	 */
+	public static int count() {
+		return GROUPS.length;
+	}
+
+	/**
+	 * Gets the ID of the group, which numbers the groups by name from 0.
+	 *
+	 * @return the group ID
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the name of the group.
+	 *
+	 * @return the group name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Does an item belong to the group?
+	 *
+	 * @param itemKey  item key of the item (see {@link ItemKey})
+	 * @return true if the item belongs to the group
+	 */
+	public boolean contains(int itemKey) {
+		int ordinal = ItemKey.ordinal(itemKey);
+		return ordinal >= 0 && containsOrdinal(ordinal);
+	}
+
+	/**
+	 * Does the item with an ordinal belong to the group?
+	 *
+	 * @param ordinal  ordinal of the item (see {@link ItemKey#ordinal(int)})
+	 * @return true if the item belongs to the group
+	 */
+	public boolean containsOrdinal(int ordinal) {
+		int word = ordinal >>> 6;
+		return word < words.length && (words[word] & (1L << ordinal)) != 0;
+	}
+
+	/**
+	 * Adds every item of the group to a bitset over item ordinals.
+	 *
+	 * @param ordinals  the bitset to add to
+	 */
+	public void addTo(BitSet ordinals) {
+		ordinals.or(BitSet.valueOf(words));
+	}
+
+	/**
+	 * Gets the number of items in the group.
+	 *
+	 * @return number of items
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Gets the item key of an item in the group.
+	 *
+	 * @param i  index of the item, from 0 to {@link #size()} - 1, in order of
+	 *           item key
+	 * @return the item key
+	 */
+	public int getKey(int i) {
+		return keys[i];
+	}
+}
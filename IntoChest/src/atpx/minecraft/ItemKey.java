@@ -0,0 +1,275 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * {@code ItemKey} packs an item decimal ID and data value into a single
+ * {@code int} (decimal ID &lt;&lt; 8 | data value), so items can be identified
+ * without building "15|2" strings.
+ * <p>
+ * The names of {@link DataValues} are also held in tables keyed by item key,
+ * along with reverse indexes from names and short names to item keys, so no
+ * lookup ever has to scan a whole table (groups are in {@link ItemGroup}). Every item that has a
+ * name or belongs to a group has an ordinal, which numbers those items from 0
+ * so they can index arrays and bitsets.
+ * <p>
+ * <b>Example</b>: {@code ItemKey.toString(ItemKey.of(15, 2))} is "15|2".
+ *
+ * @author Jeff Lee
+ */
+public final class ItemKey implements DataValues {
+
+	/** Not an item key, returned when text is not an item identifier. */
+	public static final int NONE = -1;
+
+	private static final String DELIMITER = "|";  //Delimiter for item IDs and item data value
+	private static final int MAX_TYPE_ID = 0x7FFFFF;
+	private static final int[] NO_KEYS = new int[0];
+
+	//Every item key that has a name or belongs to a group, sorted, so the
+	//index of a key is its ordinal
+	private static final int[] KEYS;
+	private static final String[] NAMES;
+	private static final String[] SHORT_NAMES;
+	
+	//Reverse indexes, each name mapped to the item keys that have it
+	private static final HashMap<String, int[]> BY_NAME = new HashMap<String, int[]>();
+	private static final HashMap<String, int[]> BY_SHORT_NAME = new HashMap<String, int[]>();
+
+	static {
+		TreeSet<Integer> keys = new TreeSet<Integer>();
+		int i = 0;
+
+		for (String itemIdStr : ITEMNAMES.keySet()) {
+			keys.add(parse(itemIdStr));
+		}
+		for (String itemIdStr : SHORTITEMNAMES.keySet()) {
+			keys.add(parse(itemIdStr));
+		}
+		for (ArrayList<String> itemIdStrs : GRPDATAVALUES.values()) {
+			for (String itemIdStr : itemIdStrs) {
+				keys.add(parse(itemIdStr));
+			}
+		}
+		keys.remove(NONE);
+
+		KEYS = new int[keys.size()];
+		for (int key : keys) {
+			KEYS[i++] = key;
+		}
+		NAMES = new String[KEYS.length];
+		SHORT_NAMES = new String[KEYS.length];
+		for (i = 0; i < KEYS.length; i++) {
+			NAMES[i] = ITEMNAMES.get(toString(KEYS[i]));
+			SHORT_NAMES[i] = SHORTITEMNAMES.get(toString(KEYS[i]));
+			if (NAMES[i] != null) {
+				index(BY_NAME, NAMES[i], KEYS[i]);
+			}
+			if (SHORT_NAMES[i] != null) {
+				index(BY_SHORT_NAME, SHORT_NAMES[i], KEYS[i]);
+			}
+		}
+	}
+
+	private ItemKey() {
+	}
+
+	/**
+	 * Packs an item decimal ID and data value into an item key.
+	 *
+	 * @param typeId  item decimal ID (Example: 15)
+	 * @param dataVal  item data value (Example: 2)
+	 * @return the item key
+	 */
+	public static int of(int typeId, int dataVal) {
+		return (typeId << 8) | (dataVal & 0xFF);
+	}
+
+	/**
+	 * Gets the item key of an item. The data value is read from the 
+	 * durability, which is what {@code getData().getData()} would give 
+	 * without creating a {@code MaterialData} on every call.
+	 *
+	 * @param itemStack  the item
+	 * @return the item key
+	 */
+	@SuppressWarnings("deprecation")
+	public static int of(ItemStack itemStack) {
+		return of(itemStack.getTypeId(), (byte) itemStack.getDurability());
+	}
+
+	/**
+	 * Gets the item decimal ID of an item key.
+	 *
+	 * @param key  the item key
+	 * @return item decimal ID
+	 */
+	public static int typeId(int key) {
+		return key >>> 8;
+	}
+
+	/**
+	 * Gets the item data value of an item key, the same way
+	 * {@code MaterialData.getData()} gives it.
+	 *
+	 * @param key  the item key
+	 * @return item data value
+	 */
+	public static int dataVal(int key) {
+		return (byte) key;
+	}
+
+	/**
+	 * Parses an item identifier. Only text printed the way
+	 * {@link #toString(int)} prints it is an item identifier.
+	 *
+	 * @param itemIdStr  item identifier (Example: 15|2)
+	 * @return the item key or {@link #NONE}
+	 */
+	public static int parse(String itemIdStr) {
+		int index = itemIdStr.indexOf(DELIMITER);
+		int typeId;
+		int dataVal;
+
+		if (index < 0) {
+			return NONE;
+		}
+		try {
+			typeId = Integer.parseInt(itemIdStr.substring(0, index));
+			dataVal = Integer.parseInt(itemIdStr.substring(index + 1));
+		}
+		catch (NumberFormatException e) {
+			return NONE;
+		}
+		if (typeId < 0 || typeId > MAX_TYPE_ID || 
+				dataVal < Byte.MIN_VALUE || dataVal > Byte.MAX_VALUE) {
+			return NONE;
+		}
+		return toString(of(typeId, dataVal)).equals(itemIdStr) ? of(typeId, dataVal) : NONE;
+	}
+
+	/**
+	 * Formats an item key as an item identifier.
+	 *
+	 * @param key  the item key
+	 * @return text such as "15|2"
+	 */
+	public static String toString(int key) {
+		return typeId(key) + DELIMITER + dataVal(key);
+	}
+
+	/**
+	 * Gets the ordinal of an item key.
+	 *
+	 * @param key  the item key
+	 * @return the ordinal or -1 if the item has no name and belongs to no group
+	 */
+	public static int ordinal(int key) {
+		int ordinal = Arrays.binarySearch(KEYS, key);
+		return ordinal >= 0 ? ordinal : -1;
+	}
+
+	/**
+	 * Gets the number of items that have an ordinal.
+	 *
+	 * @return number of ordinals
+	 */
+	public static int ordinalCount() {
+		return KEYS.length;
+	}
+
+	/**
+	 * Gets the item key that has an ordinal.
+	 *
+	 * @param ordinal  the ordinal, from 0 to {@link #ordinalCount()} - 1
+	 * @return the item key
+	 */
+	public static int keyAt(int ordinal) {
+		return KEYS[ordinal];
+	}
+
+	/**
+	 * Gets the exact name of an item (see {@link DataValues#ITEMNAMES}).
+	 *
+	 * @param key  the item key
+	 * @return the name or null if the item has none
+	 */
+	public static String getName(int key) {
+		int ordinal = ordinal(key);
+		return ordinal >= 0 ? NAMES[ordinal] : null;
+	}
+
+	/**
+	 * Gets the short name of an item (see {@link DataValues#SHORTITEMNAMES}).
+	 *
+	 * @param key  the item key
+	 * @return the short name or null if the item has none
+	 */
+	public static String getShortName(int key) {
+		int ordinal = ordinal(key);
+		return ordinal >= 0 ? SHORT_NAMES[ordinal] : null;
+	}
+
+	/**
+	 * Gets the item keys whose exact name is a name.
+	 *
+	 * @param name  the exact name, in lower case
+	 * @return the item keys, empty if no item has the name; must not be modified
+	 */
+	public static int[] getKeysByName(String name) {
+		int[] keys = BY_NAME.get(name);
+		return keys != null ? keys : NO_KEYS;
+	}
+
+	/**
+	 * Gets the item keys whose short name is a name.
+	 *
+	 * @param shortName  the short name, in lower case
+	 * @return the item keys, empty if no item has the short name; must not be
+	 *         modified
+	 */
+	public static int[] getKeysByShortName(String shortName) {
+		int[] keys = BY_SHORT_NAME.get(shortName);
+		return keys != null ? keys : NO_KEYS;
+	}
+
+	/**
+	 * Adds an item key to the keys a name is mapped to.
+	 */
+	private static void index(HashMap<String, int[]> index, String name, int key) {
+		int[] keys = index.get(name);
+
+		if (keys == null) {
+			keys = new int[] {key};
+		}
+		else {
+			keys = Arrays.copyOf(keys, keys.length + 1);
+			keys[keys.length - 1] = key;
+		}
+		index.put(name, keys);
+	}
+}
@@ -0,0 +1,582 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Item;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code ItemRouter} finds the chests/dispensers for a batch of items sitting
+ * on a crafting table and stores the items in them, on the live world. The
+ * plugin routes every batch it does not hand to the worker threads with it,
+ * and the {@link Simulator} routes its items with it too.
+ * <p>
+ * The route of a batch is looked for in this order:
+ * <ol>
+ * <li>The forwarding table of the compiled network of the crafting table
+ *     (see {@link ForwardingTableCache}), if it lists a chest/dispenser with
+ *     room.
+ * <li>The route the same item took from the same crafting table last time
+ *     (see {@link RouteCache}), unless those chests/dispensers have filled up
+ *     since. A route that was too long to walk leaves the items where they
+ *     are.
+ * <li>A walk over the compiled network (see {@link NetworkGraphCache}), or
+ *     over the world if it is not compiled. A walk that runs out of budget
+ *     is remembered as too long until a block of its path changes.
+ * </ol>
+ * The items are then stored with a single inventory operation per 
+ * chest/dispenser (see {@link InsertPlan}), and the items that found no room
+ * at all are moved on top of the last full chest/dispenser.
+ * <p>
+ * How debug messages are reported and how block types are read is left to 
+ * subclasses. Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class ItemRouter implements DataValues {
+
+	/**
+	 * Where the route of a batch of items was found.
+	 */
+	public enum Lookup {
+		/** Looked up in the forwarding table of the network. */
+		TABLE,
+		/** The route the item took last time was followed. */
+		CACHE,
+		/** The path was walked. */
+		WALK,
+		/** The path is too long to walk, the items were left where they are. */
+		OVER_BUDGET
+	}
+
+	/**
+	 * Looks up the blocks of a path in the live world for the route search.
+	 */
+	private final class Visitor extends RouteSearch implements BlockView {
+		private World world;          //World of the crafting table
+		private ItemStack itemStack;  //Item that is sitting on the crafting table
+
+		@Override
+		public Material getType(int x, int y, int z) {
+			return ItemRouter.this.getType(world, x, y, z);
+		}
+
+		@Override
+		protected EndComponent getEnd(long key) {
+			return endComponentCache.get(blockAt(key));
+		}
+
+		@Override
+		protected int getRoom(EndComponent end) {
+			return ItemRouter.this.getRoom(end, itemStack);
+		}
+
+		@Override
+		protected SignFilter getFilter(long key) {
+			Block signB = blockAt(key);
+
+			if (ItemRouter.this.canReport(MessageType.FILTER)) {
+				reportSign(signB);
+			}
+			return signFilterCache.get(signB);
+		}
+
+		@Override
+		protected boolean canReport(MessageType msgType) {
+			return ItemRouter.this.canReport(msgType);
+		}
+
+		@Override
+		protected void report(MessageType msgType, String text) {
+			ItemRouter.this.report(msgType, text);
+		}
+
+		@Override
+		protected void report(MessageType msgType, String text, long key) {
+			if (ItemRouter.this.canReport(msgType)) {
+				ItemRouter.this.report(msgType, text, blockAt(key));
+			}
+		}
+
+		private Block blockAt(long key) {
+			return world.getBlockAt(BlockKey.x(key), BlockKey.y(key), BlockKey.z(key));
+		}
+	}
+
+	private final Visitor visitor = new Visitor();
+	//Walks redstone paths, remembers visited blocks to prevent infinite loops
+	private final PathWalker walker;
+	//Every block the walks for the current batch looked at
+	private final LongHashSet touched = new LongHashSet(256);
+	private final RouteCache routeCache;
+	private final SignFilterCache signFilterCache;
+	private final EndComponentCache endComponentCache;
+	private final CapacityTracker capacityTracker;
+	private final RoutingStats stats;
+	private final WorkbenchProfiler profiler;
+	//Compiled paths of the crafting tables, null if paths are walked in the world
+	private NetworkGraphCache networkGraphs;
+	//Routes of every item on the compiled networks, null if they are not built
+	private ForwardingTableCache forwardingTables;
+	private Lookup lookup;                 //Where the route of the last batch was found
+
+	/**
+	 * Creates a router that walks paths in the world.
+	 *
+	 * @param walker  the walker to walk paths with
+	 * @param routeCache  where the routes items took are remembered
+	 * @param signFilterCache  where the compiled sign filters are read from
+	 * @param endComponentCache  where the chests/dispensers are looked up
+	 * @param capacityTracker  where the room left in chests/dispensers is kept
+	 * @param stats  where the time each phase of routing takes is recorded
+	 * @param profiler  where the cost of routing from every crafting table is
+	 *                  added up
+	 */
+	public ItemRouter(PathWalker walker, RouteCache routeCache, 
+			SignFilterCache signFilterCache, EndComponentCache endComponentCache,
+			CapacityTracker capacityTracker, RoutingStats stats, WorkbenchProfiler profiler) {
+		this.walker = walker;
+		this.routeCache = routeCache;
+		this.signFilterCache = signFilterCache;
+		this.endComponentCache = endComponentCache;
+		this.capacityTracker = capacityTracker;
+		this.stats = stats;
+		this.profiler = profiler;
+		walker.setTouched(touched);
+		visitor.setStats(stats);
+	}
+
+	/**
+	 * Sets the compiled networks that are walked instead of the world, and 
+	 * the forwarding tables routes are looked up in first.
+	 *
+	 * @param networkGraphs  the compiled networks, or null to walk the world
+	 * @param forwardingTables  the forwarding tables, or null to not look 
+	 *                          routes up; only used with compiled networks
+	 */
+	public void setGraphs(NetworkGraphCache networkGraphs, 
+			ForwardingTableCache forwardingTables) {
+		this.networkGraphs = networkGraphs;
+		this.forwardingTables = forwardingTables;
+	}
+
+	/**
+	 * Finds chests or dispensers for a batch of items sitting on a crafting
+	 * table and stores them in them.
+	 * <p>
+	 * The path is walked once for the whole batch. If the first chest/dispenser
+	 * the walk reaches has no room for all of the items, it is filled up and 
+	 * the walk goes on to the next one for the rest (see {@link InsertPlan}).
+	 * Items that find no room at all are moved on top of the last full 
+	 * chest/dispenser, the way single items always have been.
+	 * 
+	 * @param batch  items of the same kind sitting on the same crafting table
+	 * @param deadline  the {@link System#nanoTime()} to stop compiling the 
+	 *                  network of the crafting table at
+	 * @return the number of items stored or moved on top of a full 
+	 *         chest/dispenser
+	 */
+	public int route(ItemBatch batch, long deadline) {
+		World world = batch.getWorld();
+		int itemKey = batch.getItemKey();        //Item decimal ID and data value packed together
+		long workKey = BlockKey.of(batch.getWorkbench()); //Block key of the crafting table
+		RouteCache.Route route;
+		NetworkGraph graph;
+		PathWalker.Result result;
+		int moved;
+		long start = System.nanoTime();
+
+		if (canReport(MessageType.GENERAL)) {
+			report(MessageType.GENERAL, "\n\nProcessing item: " + ItemKey.getName(itemKey) + 
+					" / " + ItemKey.typeId(itemKey) + " / " + ItemKey.dataVal(itemKey) + 
+					" x" + batch.getAmount());
+		}
+
+		visitor.world = world;
+		visitor.itemStack = batch.getStack();
+		visitor.reset(itemKey, batch.getAmount());
+
+		//Catch the compiled path up with block changes first, which drops the
+		//routes of the crafting table if the path changed. Compiling it counts
+		//against the scan's time and goes on next tick if it runs out.
+		graph = networkGraphs != null ? 
+				networkGraphs.get(world, workKey, visitor, true, deadline) : null;
+
+		//The forwarding table of the network lists every chest/dispenser the
+		//item can reach, unless the list had to be cut and they are all full
+		route = graph != null && forwardingTables != null ? 
+				forwardingTables.get(world, graph, workKey, itemKey) : null;
+		if (route != null && visitor.follow(route)) {
+			lookup = Lookup.TABLE;
+		}
+		else {
+			if (route != null) {
+				visitor.reset(itemKey, batch.getAmount());
+			}
+
+			//The same item on the same crafting table goes where it went last
+			//time, unless those chests/dispensers have filled up since.
+			route = routeCache.get(world, workKey, itemKey);
+			if (route != null && route.isOverBudget()) {
+				lookup = Lookup.OVER_BUDGET;
+				return 0;
+			}
+			lookup = Lookup.CACHE;
+			if (route == null || !visitor.follow(route)) {
+				lookup = Lookup.WALK;
+				touched.clear();
+
+				//A walk over the compiled path looks at no blocks, its route is
+				//dropped when the compiled path changes instead
+				if (graph != null) {
+					result = visitor.walk(walker, graph, workKey);
+				}
+				else {
+					result = visitor.walk(walker, visitor, workKey);
+				}
+
+				//The path is too long to walk within budget. Leave the items where
+				//they are rather than guessing, they will be tried again once a
+				//block of the path changes or the route cache lets them.
+				if (result == PathWalker.Result.BUDGET_EXCEEDED) {
+					lookup = Lookup.OVER_BUDGET;
+					reportBudgetExceeded(batch.getWorkbench(), visitor.getNodesVisited());
+					routeCache.putOverBudget(world, workKey, itemKey, touched);
+					profiler.record(batch.getWorkbench(), visitor, System.nanoTime() - start);
+					return 0;
+				}
+
+				routeCache.put(world, workKey, itemKey, visitor.getRoute(), touched);
+			}
+		}
+
+		moved = commit(batch, visitor);
+		profiler.record(batch.getWorkbench(), visitor, System.nanoTime() - start);
+		return moved;
+	}
+
+	/**
+	 * Can a batch of items be routed right away at little cost, as the network
+	 * of its crafting table is compiled or the route of the item is cached?
+	 * Does not compile anything.
+	 *
+	 * @param batch  items of the same kind sitting on the same crafting table
+	 * @param deadline  the {@link System#nanoTime()} to stop catching the 
+	 *                  compiled network up with block changes at
+	 * @return true if the batch is cheap to route
+	 */
+	public boolean isCheap(ItemBatch batch, long deadline) {
+		long workKey = BlockKey.of(batch.getWorkbench());
+
+		visitor.world = batch.getWorld();
+		return (networkGraphs != null && 
+				networkGraphs.get(batch.getWorld(), workKey, visitor, false, deadline) != null) ||
+				routeCache.get(batch.getWorld(), workKey, batch.getItemKey()) != null;
+	}
+
+	/**
+	 * Did the walk for a batch of items give up last time because the path 
+	 * was too long, with no block of the path changed since?
+	 * 
+	 * @param batch  items of the same kind sitting on the same crafting table
+	 * @return true if the items are to be left where they are
+	 */
+	public boolean isOverBudget(ItemBatch batch) {
+		RouteCache.Route route = routeCache.get(batch.getWorld(), 
+				BlockKey.of(batch.getWorkbench()), batch.getItemKey());
+
+		return route != null && route.isOverBudget();
+	}
+
+	/**
+	 * Stores a batch of items where a search planned them to go. Items that
+	 * found no room at all are moved on top of the last full chest/dispenser
+	 * the search found, if there is one.
+	 * 
+	 * @param batch  items of the same kind sitting on the same crafting table
+	 * @param search  the search that planned the route of the items
+	 * @return the number of items stored or moved on top of a full 
+	 *         chest/dispenser
+	 */
+	public int commit(ItemBatch batch, RouteSearch search) {
+		World world = batch.getWorld();
+		InsertPlan plan = search.getPlan();
+		Block fullB = null;       //Holds an end component that is full
+		int[] remaining;
+		int moved = 0;
+		ItemStack leftover;
+		Item item;
+
+		if (search.hasFull()) {
+			fullB = world.getBlockAt(BlockKey.x(search.getFullKey()), 
+					BlockKey.y(search.getFullKey()), BlockKey.z(search.getFullKey()));
+		}
+		if (plan.size() == 0 && fullB == null) {
+			report(MessageType.GENERAL, "No chest/dispenser to send item!");
+			return 0;
+		}
+
+		//Store what fits into the chests/dispensers that have room
+		remaining = storePlanned(batch, plan);
+
+		//Some items found no room at all, so send them to sit ON TOP of the 
+		//last full end component. Items that did not fit although they were
+		//counted to fit stay on the crafting table for the next cycle.
+		if (plan.getRemaining() > 0 && fullB != null && canReport(MessageType.PATHING)) {
+			report(MessageType.PATHING,
+					"Moving item on top of chest/dispenser because it's full: ", fullB);
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			item = batch.getItem(i);
+			if (remaining[i] != item.getItemStack().getAmount() || 
+					(plan.getRemaining() > 0 && fullB != null)) {
+				moved++;
+			}
+			if (remaining[i] == 0) {
+				item.remove();
+				continue;
+			}
+			if (remaining[i] != item.getItemStack().getAmount()) {
+				leftover = item.getItemStack();
+				leftover.setAmount(remaining[i]);
+				item.setItemStack(leftover);
+			}
+			if (plan.getRemaining() > 0 && fullB != null) {
+				item.teleport(new Location(world, fullB.getX() + .5, 
+						fullB.getY() + 1, fullB.getZ() + .5));
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Gets how many of an item an end component has room for. The room left
+	 * in it is remembered between checks (see {@link CapacityTracker}), so its
+	 * contents are only looked at again after they changed.
+	 *
+	 * @param end  the end component, both halves of a double chest together
+	 * @param check  the stack of the item we want to dump
+	 * @return number of items the end component can take, 0 if it is not a
+	 *         chest/dispenser
+	 */
+	public int getRoom(EndComponent end, ItemStack check) {
+		CapacityTracker.Capacity capacity;
+		int room;
+		long start = System.nanoTime();
+
+		if (end == null) {
+			return 0;
+		}
+		capacity = capacityTracker.get(end.getBlock().getWorld(), end.getKey());
+		if (capacity == null) {
+			capacity = capacityTracker.put(end.getBlock().getWorld(), end.getKey(), 
+					end.getContents());
+		}
+
+		room = capacity.getRoom(ItemKey.of(check), check.getMaxStackSize());
+		stats.record(RoutingStats.Phase.CAPACITY, System.nanoTime() - start);
+		if (canReport(MessageType.GENERAL)) {
+			report(MessageType.GENERAL, 
+					"Quantity to stack: " + check.getAmount() + ", room: " + room);
+		}
+		return room;
+	}
+
+	/**
+	 * Gets where the route of the last batch routed was found.
+	 *
+	 * @return where the route was found, or null if no batch was routed
+	 */
+	public Lookup getLookup() {
+		return lookup;
+	}
+
+	/**
+	 * Gets the search that routed the last batch, holding the blocks, signs
+	 * and chests/dispensers it went through.
+	 *
+	 * @return the search
+	 */
+	public RouteSearch getSearch() {
+		return visitor;
+	}
+
+	/**
+	 * Gets the type of a block of the world a path is walked in. Reads the
+	 * block from the world by default.
+	 *
+	 * @param world  the world
+	 * @param x  x coordinate of the block
+	 * @param y  y coordinate of the block
+	 * @param z  z coordinate of the block
+	 * @return the type of the block
+	 */
+	protected Material getType(World world, int x, int y, int z) {
+		return world.getBlockAt(x, y, z).getType();
+	}
+
+	/**
+	 * Should messages of a type be reported?
+	 *
+	 * @param msgType  the message type
+	 * @return true if they are reported, false by default
+	 */
+	protected boolean canReport(MessageType msgType) {
+		return false;
+	}
+
+	/**
+	 * Reports a debug message. Does nothing by default.
+	 *
+	 * @param msgType  the message type
+	 * @param text  the message string
+	 */
+	protected void report(MessageType msgType, String text) {
+	}
+
+	/**
+	 * Reports a debug message that ends with the location of a block. Does
+	 * nothing by default.
+	 *
+	 * @param msgType  the message type
+	 * @param text  the message string
+	 * @param block  the block
+	 */
+	protected void report(MessageType msgType, String text, Block block) {
+	}
+
+	/**
+	 * Reports the text of a sign a walk checks the item against. Only called
+	 * if {@link MessageType#FILTER} messages are reported. Does nothing by 
+	 * default.
+	 *
+	 * @param signB  the sign
+	 */
+	protected void reportSign(Block signB) {
+	}
+
+	/**
+	 * Reports that the path of a crafting table could not be walked within
+	 * budget. Does nothing by default.
+	 *
+	 * @param workB  the crafting table the items are sitting on
+	 * @param nodes  number of blocks walked before giving up
+	 */
+	protected void reportBudgetExceeded(Block workB, int nodes) {
+	}
+
+	/**
+	 * Stores the items of a batch into the chests/dispensers of the insert 
+	 * plan, with a single inventory operation per chest/dispenser. The stacks
+	 * of the batch are handed out in order, a stack being split where one 
+	 * chest/dispenser is filled up and the next one takes the rest. A 
+	 * chest/dispenser that was replaced since it was looked up takes nothing.
+	 * 
+	 * @param batch  items of the same kind sitting on the same crafting table
+	 * @param plan  how many items go into which chest/dispenser
+	 * @return the number of items of each stack of the batch that were not 
+	 *         stored, by index of the stack
+	 */
+	private int[] storePlanned(ItemBatch batch, InsertPlan plan) {
+		World world = batch.getWorld();
+		ItemStack[] stacks = batch.getStacks();
+		int[] remaining = new int[stacks.length];
+		ItemStack[] pieces;
+		int[] owners;               //Stack of the batch each piece comes from
+		int count;
+		int next = 0;               //First stack of the batch not handed out yet
+		int want;
+		int take;
+		int lost;
+		EndComponent end;
+		HashMap<Integer, ItemStack> leftovers;
+		long start;
+
+		for (int i = 0; i < stacks.length; i++) {
+			remaining[i] = stacks[i].getAmount();
+		}
+
+		for (int d = 0; d < plan.size(); d++) {
+			end = plan.getComponent(d);
+			want = plan.getAmount(d);
+			pieces = new ItemStack[stacks.length - next];
+			owners = new int[pieces.length];
+			count = 0;
+			while (want > 0 && next < stacks.length) {
+				take = Math.min(want, remaining[next]);
+				pieces[count] = stacks[next];
+				if (take != stacks[next].getAmount()) {
+					pieces[count] = stacks[next].clone();
+					pieces[count].setAmount(take);
+				}
+				owners[count++] = next;
+				remaining[next] -= take;
+				want -= take;
+				if (remaining[next] == 0) {
+					next++;
+				}
+			}
+
+			//The chest/dispenser was replaced without an event since it was 
+			//looked up. Keep the items rather than lose them to its old inventory.
+			if (!end.isCurrent()) {
+				endComponentCache.invalidate(world, BlockKey.of(end.getBlock()));
+				endComponentCache.invalidate(world, end.getKey());
+				endComponentCache.invalidate(world, end.getOtherKey());
+				capacityTracker.invalidate(world, end.getKey());
+				for (int p = 0; p < count; p++) {
+					remaining[owners[p]] += pieces[p].getAmount();
+				}
+				continue;
+			}
+
+			if (canReport(MessageType.GENERAL)) {
+				report(MessageType.GENERAL, "Storing in chest/dispenser: ", end.getBlock());
+			}
+			start = System.nanoTime();
+			leftovers = end.addItem(Arrays.copyOf(pieces, count));
+			stats.record(RoutingStats.Phase.INSERT, System.nanoTime() - start);
+			lost = 0;
+			for (Map.Entry<Integer, ItemStack> entry : leftovers.entrySet()) {
+				remaining[owners[entry.getKey()]] += entry.getValue().getAmount();
+				lost += entry.getValue().getAmount();
+			}
+
+			//Keep the room left in the chest/dispenser up to date. If anything
+			//did not fit, the room was counted wrong, so count it again next time.
+			if (lost == 0) {
+				capacityTracker.stored(world, end.getKey(), batch.getItemKey(), 
+						plan.getAmount(d), stacks[0].getMaxStackSize());
+			}
+			else {
+				capacityTracker.invalidate(world, end.getKey());
+			}
+		}
+		return remaining;
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Item;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.entity.ItemDespawnEvent;
+import org.bukkit.event.entity.ItemMergeEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+import org.bukkit.event.player.PlayerDropItemEvent;
+import org.bukkit.event.player.PlayerPickupItemEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@code ItemTracker} keeps a live set of the item entities that lie on a
+ * crafting table, so a scan only handles those and never has to sweep the
+ * entities of a world.
+ * <p>
+ * Items are added when they spawn, are dropped by a player, take in another
+ * item or are loaded with a chunk while the block below them is a crafting
+ * table, and when the {@link WorkbenchRegistry} finds them above a known 
+ * crafting table (see {@link #add(Item)}), which is how items that fall or 
+ * float onto one later are picked up. They are removed when they merge into
+ * another item, despawn, are picked up completely or are unloaded with their
+ * chunk, and when the crafting table under them is broken or moved by a 
+ * piston. Any item that died or moved off its crafting table in a way no 
+ * event reports (burnt, pushed by water, removed by another plugin, ...) is
+ * pruned the next time the tracker is polled.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class ItemTracker implements Listener {
+
+	//Item entities lying on a crafting table, keyed by entity UUID. An entity
+	//that is reloaded with its chunk gets a new Item object but keeps its 
+	//UUID, so the newer object simply replaces the stale one.
+	private final HashMap<UUID, Item> onWorkbenches = new HashMap<UUID, Item>();
+
+	//Reused between polls so the hot path does not allocate a new list every cycle
+	private final ArrayList<Item> candidates = new ArrayList<Item>();
+
+	/**
+	 * Picks up the items that already lie on crafting tables in the given 
+	 * world.
+	 * <p>
+	 * Meant to be called once per world when the plugin is enabled, as items
+	 * that spawned before that have not been reported to us by any event.
+	 *
+	 * @param world  the world to pick up existing items from
+	 */
+	public void trackWorld(World world) {
+		for (Item item : world.getEntitiesByClass(Item.class)) {
+			offer(item);
+		}
+	}
+
+	/**
+	 * Stops tracking all items.
+	 */
+	public void clear() {
+		onWorkbenches.clear();
+		candidates.clear();
+	}
+
+	/**
+	 * Gets the number of items currently known to lie on crafting tables.
+	 *
+	 * @return number of tracked items
+	 */
+	public int size() {
+		return onWorkbenches.size();
+	}
+
+	/**
+	 * Gets the tracked items that still lie on top of a crafting table. Items
+	 * that are no longer valid or have left their crafting table are dropped
+	 * from tracking along the way.
+	 * <p>
+	 * The returned list is reused by the next call, so callers must not hold
+	 * on to it.
+	 *
+	 * @return items sitting on a crafting table
+	 */
+	public ArrayList<Item> getItemsOnWorkbenches() {
+		Iterator<Item> it = onWorkbenches.values().iterator();
+		Item item;
+
+		candidates.clear();
+		while (it.hasNext()) {
+			item = it.next();
+			if (!item.isValid() || !isOnWorkbench(item)) {
+				it.remove();
+				continue;
+			}
+			candidates.add(item);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Starts tracking an item that was found lying on a crafting table.
+	 *
+	 * @param item  the item
+	 */
+	public void add(Item item) {
+		onWorkbenches.put(item.getUniqueId(), item);
+	}
+
+	/**
+	 * Starts tracking an item entity if it lies on a crafting table.
+	 *
+	 * @param item  the item to track
+	 */
+	protected void offer(Item item) {
+		if (item != null && isOnWorkbench(item)) {
+			onWorkbenches.put(item.getUniqueId(), item);
+		}
+	}
+
+	/**
+	 * Stops tracking an item entity.
+	 *
+	 * @param item  the item to stop tracking
+	 */
+	protected void untrack(Item item) {
+		if (item != null) {
+			onWorkbenches.remove(item.getUniqueId());
+		}
+	}
+
+	private static boolean isOnWorkbench(Item item) {
+		return item.getLocation().getBlock().getRelative(BlockFace.DOWN).getType()
+				== Material.WORKBENCH;
+	}
+
+	/**
+	 * Stops tracking the items lying on any of the given blocks.
+	 */
+	private void untrackAbove(List<Block> blocks) {
+		Iterator<Item> it;
+		Location location;
+
+		if (onWorkbenches.isEmpty() || blocks.isEmpty()) {
+			return;
+		}
+		it = onWorkbenches.values().iterator();
+		while (it.hasNext()) {
+			location = it.next().getLocation();
+			for (Block block : blocks) {
+				if (location.getBlockX() == block.getX() && 
+						location.getBlockY() == block.getY() + 1 &&
+						location.getBlockZ() == block.getZ() && 
+						location.getWorld().equals(block.getWorld())) {
+					it.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Event handler when an item entity spawns into a world.
+	 *
+	 * @param event  data of the spawned item
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onItemSpawn(ItemSpawnEvent event) {
+		offer(event.getEntity());
+	}
+
+	/**
+	 * Event handler when a player drops an item.
+	 *
+	 * @param event  data of the dropped item
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPlayerDropItem(PlayerDropItemEvent event) {
+		offer(event.getItemDrop());
+	}
+
+	/**
+	 * Event handler when an item entity merges into a nearby item entity of
+	 * the same type. The merged item is removed from the world while the
+	 * target is kept.
+	 *
+	 * @param event  data of the merging items
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onItemMerge(ItemMergeEvent event) {
+		untrack(event.getEntity());
+		offer(event.getTarget());
+	}
+
+	/**
+	 * Event handler when an item entity despawns of old age.
+	 *
+	 * @param event  data of the despawning item
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onItemDespawn(ItemDespawnEvent event) {
+		untrack(event.getEntity());
+	}
+
+	/**
+	 * Event handler when a player picks up an item. The item entity only goes
+	 * away if the player could take the whole stack.
+	 *
+	 * @param event  data of the picked up item
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPlayerPickupItem(PlayerPickupItemEvent event) {
+		if (event.getRemaining() <= 0) {
+			untrack(event.getItem());
+		}
+	}
+
+	/**
+	 * Event handler when a block is broken. Items lying on a crafting table
+	 * that is broken fall off it.
+	 *
+	 * @param event  data of the broken block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBreak(BlockBreakEvent event) {
+		if (event.getBlock().getType() == Material.WORKBENCH) {
+			untrackAbove(Collections.singletonList(event.getBlock()));
+		}
+	}
+
+	/**
+	 * Event handler when a piston pushes blocks. Items are left behind by
+	 * crafting tables moving away from under them.
+	 *
+	 * @param event  data of the piston and the blocks it moves
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPistonExtend(BlockPistonExtendEvent event) {
+		untrackAbove(event.getBlocks());
+	}
+
+	/**
+	 * Event handler when a sticky piston pulls blocks.
+	 *
+	 * @param event  data of the piston and the blocks it moves
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPistonRetract(BlockPistonRetractEvent event) {
+		untrackAbove(event.getBlocks());
+	}
+
+	/**
+	 * Event handler when a chunk is loaded. Items saved with the chunk come
+	 * back to life without spawning, so we pick them up here.
+	 *
+	 * @param event  data of the loaded chunk
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkLoad(ChunkLoadEvent event) {
+		for (Entity entity : event.getChunk().getEntities()) {
+			if (entity instanceof Item) {
+				offer((Item) entity);
+			}
+		}
+	}
+
+	/**
+	 * Event handler when a chunk is unloaded.
+	 *
+	 * @param event  data of the unloaded chunk
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent event) {
+		if (onWorkbenches.isEmpty()) {
+			return;
+		}
+		for (Entity entity : event.getChunk().getEntities()) {
+			if (entity instanceof Item) {
+				untrack((Item) entity);
+			}
+		}
+	}
+
+	/**
+	 * Event handler when a world is unloaded.
+	 *
+	 * @param event  data of the unloaded world
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		UUID worldId = event.getWorld().getUID();
+		Iterator<Item> it = onWorkbenches.values().iterator();
+
+		while (it.hasNext()) {
+			if (it.next().getWorld().getUID().equals(worldId)) {
+				it.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@code LatencyHistogram} counts recorded values (nanoseconds, block counts,
+ * ...) in buckets that grow with the value, the way an HDR histogram does, so
+ * percentiles can be read back within about 3% whatever the range of values.
+ * <p>
+ * Values below 32 have a bucket each. Above that, every power of two is split
+ * into 32 buckets of equal width. Values above {@link #MAX_VALUE} (about 68
+ * seconds in nanoseconds) are counted as {@code MAX_VALUE}.
+ * <p>
+ * Recording is lock-free and may happen from any thread. Reading while other
+ * threads record gives a close but not exact picture.
+ *
+ * @author Jeff Lee
+ */
+public final class LatencyHistogram {
+
+	/** Highest value that is told apart from higher values. */
+	public static final long MAX_VALUE = (1L << 36) - 1;
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value  the value, negative values count as 0
+	 */
+	public void record(long value) {
+		long curMax;
+
+		value = Math.min(Math.max(value, 0), MAX_VALUE);
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		curMax = max.get();
+		while (value > curMax && !max.compareAndSet(curMax, value)) {
+			curMax = max.get();
+		}
+	}
+
+	/**
+	 * Adds the values of another histogram to this one.
+	 *
+	 * @param other  the histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		long otherMax = other.max.get();
+		long curMax;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			if (other.counts.get(i) != 0) {
+				counts.addAndGet(i, other.counts.get(i));
+			}
+		}
+		count.addAndGet(other.count.get());
+		curMax = max.get();
+		while (otherMax > curMax && !max.compareAndSet(curMax, otherMax)) {
+			curMax = max.get();
+		}
+	}
+
+	/**
+	 * Forgets every recorded value.
+	 */
+	public void clear() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 *
+	 * @return number of values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the highest recorded value.
+	 *
+	 * @return the highest value, 0 if there is none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the value below which a percentage of the recorded values lie.
+	 *
+	 * @param percentile  the percentage, 0 to 100
+	 * @return the highest value of the bucket the percentile falls into, but 
+	 *         no more than the highest recorded value, or 0 if there are no
+	 *         values
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		long target;
+		long seen = 0;
+
+		if (total == 0) {
+			return 0;
+		}
+		target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Gets the bucket a value is counted in.
+	 */
+	private static int indexOf(long value) {
+		int shift;
+
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return SUB_COUNT + shift * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+	}
+
+	/**
+	 * Gets the highest value counted in a bucket.
+	 */
+	private static long highestValueOf(int index) {
+		int shift;
+		int sub;
+
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		shift = (index - SUB_COUNT) / SUB_COUNT;
+		sub = (index - SUB_COUNT) % SUB_COUNT;
+		return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+	}
+}
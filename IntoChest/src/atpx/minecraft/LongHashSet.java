@@ -0,0 +1,256 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import java.util.Arrays;
+
+/**
+ * {@code LongHashSet} is a set of primitive {@code long} values using open
+ * addressing with linear probing, so adding and looking up keys never boxes
+ * or allocates.
+ * <p>
+ * Meant for block keys (see {@link BlockKey}). Slots can be walked with
+ * {@link #capacity()}, {@link #isUsed(int)} and {@link #keyAt(int)}; the set
+ * must not be modified while doing so.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Jeff Lee
+ */
+public class LongHashSet {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private boolean[] used;
+	private int size;
+	private int mask;
+	private int resizeAt;
+
+	/**
+	 * Creates an empty set.
+	 */
+	public LongHashSet() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty set that can hold the given number of keys without
+	 * growing.
+	 *
+	 * @param expected  number of keys expected
+	 */
+	public LongHashSet(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expected) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Adds a key to the set.
+	 *
+	 * @param key  the key
+	 * @return true if the key was not in the set yet
+	 */
+	public boolean add(long key) {
+		int slot = hash(key) & mask;
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		used[slot] = true;
+		keys[slot] = key;
+		if (++size > resizeAt) {
+			rehash(keys.length << 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Is the key in the set?
+	 *
+	 * @param key  the key
+	 * @return true if the key is in the set
+	 */
+	public boolean contains(long key) {
+		int slot = hash(key) & mask;
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes a key from the set.
+	 *
+	 * @param key  the key
+	 * @return true if the key was in the set
+	 */
+	public boolean remove(long key) {
+		int slot = hash(key) & mask;
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				removeSlot(slot);
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all keys while keeping the current capacity.
+	 */
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(used, false);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Gets the number of keys in the set.
+	 *
+	 * @return number of keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Is the set empty?
+	 *
+	 * @return true if the set holds no keys
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the number of slots of the set.
+	 *
+	 * @return number of slots
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Does a slot hold a key?
+	 *
+	 * @param slot  slot index, from 0 to {@link #capacity()} - 1
+	 * @return true if the slot holds a key
+	 */
+	public boolean isUsed(int slot) {
+		return used[slot];
+	}
+
+	/**
+	 * Gets the key held by a used slot.
+	 *
+	 * @param slot  slot index, from 0 to {@link #capacity()} - 1
+	 * @return the key of the slot
+	 */
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Copies the keys of the set into a new array.
+	 *
+	 * @return array of all keys
+	 */
+	public long[] toArray() {
+		long[] ret = new long[size];
+		int i = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (used[slot]) {
+				ret[i++] = keys[slot];
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Spreads the bits of a key so neighbouring block keys do not cluster.
+	 *
+	 * @param key  the key
+	 * @return hash of the key
+	 */
+	static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+		resizeAt = capacity * 3 / 4;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		boolean[] oldUsed = used;
+		int slot;
+
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				slot = hash(oldKeys[i]) & mask;
+				while (used[slot]) {
+					slot = (slot + 1) & mask;
+				}
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+			}
+		}
+	}
+
+	/**
+	 * Empties a slot and shifts following keys of the same probe run back so
+	 * lookups never stop early at the freed slot.
+	 */
+	private void removeSlot(int slot) {
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		int home;
+
+		while (used[next]) {
+			home = hash(keys[next]) & mask;
+			//Move the key into the gap unless its home slot lies cyclically
+			//between the gap and its current slot.
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		used[gap] = false;
+		size--;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import java.util.Arrays;
+
+/**
+ * {@code LongIntHashMap} maps primitive {@code long} keys to {@code int}
+ * values using open addressing with linear probing, so neither keys nor
+ * values are ever boxed.
+ * <p>
+ * Values may not be negative, {@link #get(long)} answers -1 for a key that
+ * is not mapped.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Jeff Lee
+ */
+public class LongIntHashMap {
+
+	private static final int MIN_CAPACITY = 16;
+	private static final int EMPTY = -1;
+
+	private long[] keys;
+	private int[] values;       //EMPTY marks an empty slot
+	private int size;
+	private int mask;
+	private int resizeAt;
+
+	/**
+	 * Creates an empty map.
+	 */
+	public LongIntHashMap() {
+		allocate(MIN_CAPACITY);
+	}
+
+	/**
+	 * Gets the value mapped to a key.
+	 *
+	 * @param key  the key
+	 * @return the value or -1 if the key is not mapped
+	 */
+	public int get(long key) {
+		int slot = LongHashSet.hash(key) & mask;
+		while (values[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Maps a key to a value.
+	 *
+	 * @param key  the key
+	 * @param value  the value, not negative
+	 * @return the value previously mapped to the key or -1
+	 */
+	public int put(long key, int value) {
+		int slot = LongHashSet.hash(key) & mask;
+		int old;
+
+		if (value < 0) {
+			throw new IllegalArgumentException("value must not be negative");
+		}
+		while (values[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				old = values[slot];
+				values[slot] = value;
+				return old;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > resizeAt) {
+			rehash(keys.length << 1);
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Removes the mapping of a key.
+	 *
+	 * @param key  the key
+	 * @return the value that was mapped to the key or -1
+	 */
+	public int remove(long key) {
+		int slot = LongHashSet.hash(key) & mask;
+		int old;
+
+		while (values[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				old = values[slot];
+				removeSlot(slot);
+				return old;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Removes all mappings while keeping the current capacity.
+	 */
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(values, EMPTY);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Gets the number of mappings.
+	 *
+	 * @return number of mappings
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Is the map empty?
+	 *
+	 * @return true if the map holds no mappings
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, EMPTY);
+		mask = capacity - 1;
+		resizeAt = capacity * 3 / 4;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		int slot;
+
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != EMPTY) {
+				slot = LongHashSet.hash(oldKeys[i]) & mask;
+				while (values[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Empties a slot and shifts following entries of the same probe run back
+	 * so lookups never stop early at the freed slot.
+	 */
+	private void removeSlot(int slot) {
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		int home;
+
+		while (values[next] != EMPTY) {
+			home = LongHashSet.hash(keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[gap] = EMPTY;
+		size--;
+	}
+}
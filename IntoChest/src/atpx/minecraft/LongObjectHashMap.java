@@ -0,0 +1,241 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import java.util.Arrays;
+
+/**
+ * {@code LongObjectHashMap} maps primitive {@code long} keys to objects
+ * using open addressing with linear probing, so lookups never box the key.
+ * <p>
+ * Values may not be null. Slots can be walked with {@link #capacity()},
+ * {@link #keyAt(int)} and {@link #valueAt(int)} (which is null for an empty
+ * slot); the map must not be modified while doing so.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Jeff Lee
+ *
+ * @param <V>  type of the values
+ */
+public class LongObjectHashMap<V> {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+	private int resizeAt;
+
+	/**
+	 * Creates an empty map.
+	 */
+	public LongObjectHashMap() {
+		allocate(MIN_CAPACITY);
+	}
+
+	/**
+	 * Gets the value mapped to a key.
+	 *
+	 * @param key  the key
+	 * @return the value or null if the key is not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int slot = LongHashSet.hash(key) & mask;
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				return (V) values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Is the key mapped to a value?
+	 *
+	 * @param key  the key
+	 * @return true if the key is mapped
+	 */
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps a key to a value.
+	 *
+	 * @param key  the key
+	 * @param value  the value, not null
+	 * @return the value previously mapped to the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		int slot = LongHashSet.hash(key) & mask;
+		V old;
+
+		if (value == null) {
+			throw new IllegalArgumentException("value must not be null");
+		}
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				old = (V) values[slot];
+				values[slot] = value;
+				return old;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > resizeAt) {
+			rehash(keys.length << 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the mapping of a key.
+	 *
+	 * @param key  the key
+	 * @return the value that was mapped to the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int slot = LongHashSet.hash(key) & mask;
+		V old;
+
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				old = (V) values[slot];
+				removeSlot(slot);
+				return old;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Removes all mappings while keeping the current capacity.
+	 */
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(values, null);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Gets the number of mappings.
+	 *
+	 * @return number of mappings
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Is the map empty?
+	 *
+	 * @return true if the map holds no mappings
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the number of slots of the map.
+	 *
+	 * @return number of slots
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Gets the key held by a slot. Only meaningful if {@link #valueAt(int)}
+	 * is not null for the slot.
+	 *
+	 * @param slot  slot index, from 0 to {@link #capacity()} - 1
+	 * @return the key of the slot
+	 */
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Gets the value held by a slot.
+	 *
+	 * @param slot  slot index, from 0 to {@link #capacity()} - 1
+	 * @return the value of the slot or null if the slot is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int slot) {
+		return (V) values[slot];
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		resizeAt = capacity * 3 / 4;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		int slot;
+
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				slot = LongHashSet.hash(oldKeys[i]) & mask;
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Empties a slot and shifts following entries of the same probe run back
+	 * so lookups never stop early at the freed slot.
+	 */
+	private void removeSlot(int slot) {
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		int home;
+
+		while (values[next] != null) {
+			home = LongHashSet.hash(keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[gap] = null;
+		size--;
+	}
+}
@@ -0,0 +1,1925 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * {@code NetworkGraph} is the IntoChest paths of the crafting tables of a
+ * world compiled into one adjacency graph, so walks run over arrays in 
+ * memory instead of looking at the world block by block.
+ * <p>
+ * Every crafting table added with {@link #addWorkbench(long, BlockView)}, and
+ * every redstone wire, sign, chest and dispenser reachable from one, is a
+ * node, whatever the signs allow. Each node has one edge per direction
+ * (north, east, south, west, in the order {@link PathWalker} walks them) to
+ * the component it steps to in that direction, including the steps one block
+ * down into air and one block up over a solid block. A walk over the graph
+ * (see {@link PathWalker#walk(NetworkGraph, long, PathWalker.Visitor)})
+ * therefore visits the same blocks in the same order as a walk over the world.
+ * <p>
+ * The graph is grown a slice at a time by {@link #grow(BlockView, long)}:
+ * a crafting table just added, or a component that just became reachable,
+ * is a node whose edges are not computed yet, and its network is not walked
+ * until it has none left. That way compiling a large bus is spread over as
+ * many server ticks as it takes. A network that grows to more nodes than a
+ * walk may reach is dropped.
+ * <p>
+ * Nodes joined by edges, whichever way, form a {@link Network}. Crafting
+ * tables that feed the same redstone bus share its nodes and its network, so
+ * the bus is compiled and patched once for all of them. Networks are kept
+ * labelled as the graph changes: an edge between two networks merges them by
+ * moving the nodes of the smaller one into the bigger one, and a removed 
+ * node or edge searches from both of its ends at the same time until the
+ * searches meet or the smaller side runs out, which is then split off. A
+ * network left without a crafting table can no longer be walked to and is
+ * dropped.
+ * <p>
+ * Walks do not step through every wire of a long run. A wire joined to
+ * exactly two nodes, both ways, is a link: a walk that enters it from one
+ * side can only leave it on the other. Runs of links are kept as jumps from
+ * the node before the run to the node after it, counting the wires jumped,
+ * so a walk costs about as much as the signs, branches and
+ * chests/dispensers it meets (see {@link #getJump(int, int)}). Jumps are
+ * only kept for the nodes before a run; links stay nodes so block changes
+ * can still be applied to them.
+ * <p>
+ * Block changes are not applied right away: {@link #markDirty(long)}
+ * remembers the block, and {@link #update(BlockView)} later re-reads the
+ * types of the changed blocks and the blocks next to them and recomputes the
+ * edges of the nodes next to them. A removed node keeps its number but has no type and no
+ * edges, until the graph holds enough of them to be worth compiling again,
+ * see {@link #isUsable()}.
+ * <p>
+ * The nodes are also filed by the chunk they are in. When too many blocks
+ * changed to remember them one by one (explosions, pistons, edits of whole
+ * areas), the chunks they are in are remembered instead, and the update
+ * re-reads every node of those chunks and recomputes the edges of every node
+ * that can step into them. The networks that lost nodes or edges are then
+ * labelled again in one pass instead of searching from every end. Only the
+ * changed chunks of a network that spans many are compiled again, unless
+ * most of them changed.
+ * <p>
+ * On top of the nodes, every chunk holds its own small graph of the wide
+ * patches of plain wire in it: wires that are no links, joined both ways to
+ * each other within the chunk, are a region (see {@link #getRegion(int)}).
+ * The members a walk can enter a region at are its portals, and for each
+ * portal the graph keeps the steps out of the region in the order a walk
+ * entering there takes them. These steps join the portals of the chunks
+ * into a graph of their own, which walks follow instead of stepping through
+ * every wire of a region. A walk that comes back into a region it has not
+ * finished yet, through a member it has not reached, walks the rest of that
+ * region node by node instead, so walks still go exactly where walks over
+ * the world go. Only the regions of the chunks whose nodes changed are found
+ * again, once the changes are applied.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public final class NetworkGraph {
+
+	/** Edge of a direction that leads to no component. */
+	public static final int NONE = -1;
+
+	/**
+	 * Nodes of the graph joined by edges, and the crafting tables among them.
+	 */
+	public final class Network {
+		private int[] members = new int[16];
+		private int size;
+		private final LongHashSet workbenches = new LongHashSet(4);
+		private long version;
+		private boolean isChanged;    //Changed since the last update
+		private int reached = NONE;   //Node the ends of removed edges are checked against
+		private int pending;          //Nodes whose edges were never computed
+		private ForwardingTable table;
+
+		/**
+		 * Gets the number of nodes of the network.
+		 *
+		 * @return number of nodes
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Gets the number of crafting tables on the network.
+		 *
+		 * @return number of crafting tables
+		 */
+		public int getWorkbenchCount() {
+			return workbenches.size();
+		}
+
+		/**
+		 * Gets a number that changes every time the network or the text of one
+		 * of its signs changes.
+		 *
+		 * @return the version
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Is the network grown and small enough to be walked? A network that
+		 * still has nodes whose edges were never computed (see
+		 * {@link NetworkGraph#grow(BlockView, long)}) or more nodes than a
+		 * walk may reach is walked in the world instead.
+		 *
+		 * @return true if the network may be walked
+		 */
+		public boolean isComplete() {
+			return pending == 0 && size <= maxNodes;
+		}
+
+		/**
+		 * Gets the forwarding table last built for the network, which may be
+		 * older than the network (see {@link ForwardingTable#getVersion()}).
+		 *
+		 * @return the table or null if none was built
+		 */
+		public ForwardingTable getTable() {
+			return table;
+		}
+
+		/**
+		 * Sets the forwarding table built for the network.
+		 *
+		 * @param table  the table
+		 */
+		public void setTable(ForwardingTable table) {
+			this.table = table;
+		}
+	}
+
+	/**
+	 * Nodes in one chunk, removed ones included.
+	 */
+	private static final class Section {
+		private int[] nodes = new int[16];
+		private int size;
+	}
+
+	/**
+	 * Plain wires of one chunk that a walk crosses through its portals.
+	 */
+	private static final class Region {
+		private final long chunk;
+		private final int[] members;
+		private int[] portals;    //Members a walk can enter at
+		private int[][] exits;    //Per portal, node * DIRS + dir of the steps out in walk order
+		private int[][] reached;  //Per portal, members reached before each step out, then all
+		private int[][] ranks;    //Per portal, the order each member is reached in
+
+		private Region(long chunk, int[] members) {
+			this.chunk = chunk;
+			this.members = members;
+		}
+	}
+
+	//Directions in the order the walk checks them: north, east, south, west
+	private static final int[] DIR_X = {0, 1, 0, -1};
+	private static final int[] DIR_Z = {-1, 0, 1, 0};
+	private static final int DIRS = 4;
+	//Types of the nodes by kind, kind 0 is a removed node
+	private static final Material[] KIND_TYPES = {null, Material.WORKBENCH,
+		Material.REDSTONE_WIRE, Material.SIGN_POST, Material.WALL_SIGN, 
+		Material.CHEST, Material.DISPENSER};
+	private static final byte REMOVED = 0;
+	private static final byte WORKBENCH = 1;
+	private static final byte WIRE = 2;
+	/** Most changed blocks to remember before remembering their chunks instead. */
+	static final int MAX_DIRTY = 4096;
+	private static final int MIN_REGION_NODES = 8;  //Fewer wires are stepped through
+	private static final int MAX_PORTALS = 16;      //More are walked node by node
+	private static final int GROW_CHECK_MASK = 63;  //Only read the clock every 64 nodes grown
+
+	private final int maxNodes;
+	private long[] keys = new long[64];
+	private byte[] kinds = new byte[64];
+	private int[] edges = new int[64 * DIRS];  //DIRS per node, in walk order
+	private Network[] owners = new Network[64];
+	private int[] positions = new int[64];     //Index of each node in the members of its network
+	private int size;                          //Numbers given out, removed nodes included
+	private int removed;
+	private int[] pending = new int[64];       //Nodes whose edges were never computed
+	private int pendingCount;
+	private boolean[] isPending = new boolean[64];
+	private int networkCount;
+	private final LongIntHashMap index = new LongIntHashMap();
+	private final LongHashSet chunks = new LongHashSet();   //See getChunks()
+	private final LongObjectHashMap<Section> sections = new LongObjectHashMap<Section>();
+	private final LongHashSet dirty = new LongHashSet();
+	private final LongHashSet dirtyChunks = new LongHashSet();
+	private boolean isOverflowed;              //Most chunks changed, compiling again is cheaper
+	private final ArrayList<Network> changed = new ArrayList<Network>();
+	private final LongHashSet changedWorkbenches = new LongHashSet();
+	private final LongHashSet tooBigWorkbenches = new LongHashSet();
+	private boolean[] links = new boolean[64];
+	private int[] inDegrees = new int[64];     //Number of edges into each node
+	private int linkCount;
+	//Jumps over runs of links, DIRS of them per node before a run, one per direction
+	private int[] jumpBlocks = new int[64];    //Per node, the block of its jumps or NONE
+	private int[] jumpTargets = new int[16];   //Node after the run or NONE
+	private int[] jumpWeights = new int[16];   //Number of links jumped
+	private int[] jumpMarks = new int[16];     //Link that stands for the run when marking it visited
+	private int jumpBlockCount;                //Blocks of jumps given out, free ones included
+	private int[] freeJumpBlocks = new int[16];
+	private int freeJumpBlockCount;
+	private int[] touched = new int[64];       //Nodes whose links or jumps may have changed
+	private int touchedCount;
+	private boolean[] isTouched = new boolean[64];
+	//Regions of plain wire walked through their portals, see getRegion(int)
+	private int[] regionOf = new int[64];      //Per node, its region or NONE
+	private int[] memberIndex = new int[64];   //Per node, its index among the members of its region
+	private int[] portalOf = new int[64];      //Per node, its portal in its region or NONE
+	private Region[] regions = new Region[16];
+	private int regionCount;                   //Region numbers given out, free ones included
+	private int[] freeRegions = new int[16];
+	private int freeRegionCount;
+	private int regionNodes;                   //Nodes in regions
+	private final LongHashSet staleChunks = new LongHashSet();  //Chunks to find the regions of again
+
+	//Reused while updating
+	private int[] queue = new int[64];
+	private int queueSize;
+	private boolean[] queued = new boolean[64];
+	private int[] ends = new int[16];          //Nodes next to removed nodes and edges
+	private int endCount;
+	private final int[] adjacent = new int[DIRS * 4];
+	private int[] marks = new int[64];
+	private int epoch;
+	private int[] sideA = new int[64];
+	private int[] sideB = new int[64];
+	private int[] parents = new int[64];       //Union-find forest of a network being labelled
+
+	/**
+	 * Creates an empty graph.
+	 *
+	 * @param maxNodes  most nodes a network may hold to be walked, 0 for no 
+	 *                  limit
+	 */
+	public NetworkGraph(int maxNodes) {
+		this.maxNodes = maxNodes > 0 ? maxNodes : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Adds a crafting table as a network of its own. The components reachable
+	 * from it are added as the graph grows (see {@link #grow(BlockView, long)}),
+	 * joining the networks they reach.
+	 *
+	 * @param key  block key of the crafting table
+	 * @param view  the blocks of the world
+	 * @return false if the block is no crafting table
+	 */
+	public boolean addWorkbench(long key, BlockView view) {
+		int node = index.get(key);
+		Network network;
+
+		if (node >= 0) {
+			return kinds[node] == WORKBENCH;
+		}
+		if (typeAt(view, key) != Material.WORKBENCH) {
+			return false;
+		}
+		network = new Network();
+		networkCount++;
+		node = addNode(key, WORKBENCH, network);
+		network.workbenches.add(key);
+		addPending(node);
+		markChanged(network);
+		return true;
+	}
+
+	/**
+	 * Computes the edges of the nodes whose edges were never computed, which
+	 * adds the components they step to, until there are none left or the 
+	 * time is up. A network that grows to more nodes than a walk may reach is
+	 * dropped. Afterwards the crafting tables whose routes are no longer 
+	 * valid are listed by {@link #getChangedWorkbenches()}, and those whose 
+	 * network was dropped as too big also by {@link #getTooBigWorkbenches()}.
+	 *
+	 * @param view  the blocks of the world
+	 * @param deadline  the {@link System#nanoTime()} to stop at, 
+	 *                  {@link Long#MAX_VALUE} to grow until done
+	 * @return true if nodes are left to grow
+	 */
+	public boolean grow(BlockView view, long deadline) {
+		Network network;
+		int node;
+
+		changedWorkbenches.clear();
+		tooBigWorkbenches.clear();
+		for (int count = 1; pendingCount > 0; count++) {
+			node = pending[--pendingCount];
+			if (!isPending[node]) {
+				continue;   //Removed since
+			}
+			isPending[node] = false;
+			owners[node].pending--;
+			computeEdges(view, node);
+			staleChunks.add(chunkOf(node));
+			network = owners[node];
+			if (network.size > maxNodes) {
+				dropTooBig(network);
+			}
+			if ((count & GROW_CHECK_MASK) == 0 && System.nanoTime() >= deadline) {
+				break;
+			}
+		}
+		contract();
+		applyChanges();
+		return pendingCount > 0;
+	}
+
+	/**
+	 * Are there nodes whose edges were never computed?
+	 *
+	 * @return true if the graph has nodes left to grow
+	 */
+	public boolean isGrowing() {
+		return pendingCount > 0;
+	}
+
+	/**
+	 * Copies a network into a graph of its own, which nothing but the copy's
+	 * user reads or changes, so it may be walked on another thread. The copy
+	 * holds the one network, with the same version.
+	 *
+	 * @param network  a network of this graph
+	 * @return the copy
+	 */
+	public NetworkGraph copy(Network network) {
+		NetworkGraph copy = new NetworkGraph(0);
+		Network into = copy.new Network();
+		int node;
+		int next;
+
+		copy.networkCount = 1;
+		for (int i = 0; i < network.size; i++) {
+			node = network.members[i];
+			copy.addNode(keys[node], kinds[node], into);
+			if (kinds[node] == WORKBENCH) {
+				into.workbenches.add(keys[node]);
+			}
+		}
+		for (int i = 0; i < network.size; i++) {
+			node = network.members[i];
+			for (int dir = 0; dir < DIRS; dir++) {
+				next = edges[node * DIRS + dir];
+				next = next != NONE ? copy.index.get(keys[next]) : NONE;
+				copy.edges[i * DIRS + dir] = next;
+				if (next != NONE) {
+					copy.inDegrees[next]++;
+				}
+			}
+		}
+		copy.contract();
+		into.version = network.version;
+		return copy;
+	}
+
+	/**
+	 * Gets the node of a block.
+	 *
+	 * @param key  block key of the block
+	 * @return the node or -1 if the block is not part of the graph
+	 */
+	public int nodeOf(long key) {
+		return index.get(key);
+	}
+
+	/**
+	 * Gets the network of a block.
+	 *
+	 * @param key  block key of the block
+	 * @return the network or null if the block is not part of the graph
+	 */
+	public Network getNetwork(long key) {
+		int node = index.get(key);
+		return node >= 0 ? owners[node] : null;
+	}
+
+	/**
+	 * Gets the number of node numbers given out so far, removed nodes
+	 * included. Every node is below this number.
+	 *
+	 * @return number of node numbers
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of nodes that are not removed.
+	 *
+	 * @return number of nodes
+	 */
+	public int getNodeCount() {
+		return size - removed;
+	}
+
+	/**
+	 * Gets the number of networks.
+	 *
+	 * @return number of networks
+	 */
+	public int getNetworkCount() {
+		return networkCount;
+	}
+
+	/**
+	 * Gets the block of a node.
+	 *
+	 * @param node  the node
+	 * @return block key of the block
+	 */
+	public long getKey(int node) {
+		return keys[node];
+	}
+
+	/**
+	 * Gets the type of the block of a node.
+	 *
+	 * @param node  the node
+	 * @return the type or null if the node was removed
+	 */
+	public Material getType(int node) {
+		return KIND_TYPES[kinds[node]];
+	}
+
+	/**
+	 * Gets the node a node steps to in a direction.
+	 *
+	 * @param node  the node
+	 * @param dir  the direction: 0 north, 1 east, 2 south, 3 west
+	 * @return the node stepped to or {@link #NONE}
+	 */
+	public int getEdge(int node, int dir) {
+		return edges[node * DIRS + dir];
+	}
+
+	/**
+	 * Is a node a link, a wire that joins exactly two nodes both ways? Walks
+	 * jump over links, see {@link #getJump(int, int)}.
+	 *
+	 * @param node  the node
+	 * @return true if it is a link
+	 */
+	public boolean isLink(int node) {
+		return links[node];
+	}
+
+	/**
+	 * Gets the number of links.
+	 *
+	 * @return number of links
+	 */
+	public int getLinkCount() {
+		return linkCount;
+	}
+
+	/**
+	 * Gets the jump over the run of links a node's edge in a direction leads
+	 * into. A walk that reaches the first link of the run reaches every link
+	 * of it and then the node after it, unless the run was walked before
+	 * (see {@link #getJumpMark(int)}).
+	 *
+	 * @param node  a node that is not a link
+	 * @param dir  the direction: 0 north, 1 east, 2 south, 3 west
+	 * @return the jump or -1 if the edge does not lead into a run of links
+	 */
+	public int getJump(int node, int dir) {
+		int jump = jumpBlocks[node];
+
+		if (jump == NONE) {
+			return NONE;
+		}
+		jump = jump * DIRS + dir;
+		return jumpTargets[jump] != NONE ? jump : NONE;
+	}
+
+	/**
+	 * Gets the node after the run of links of a jump.
+	 *
+	 * @param jump  the jump
+	 * @return the node
+	 */
+	public int getJumpTarget(int jump) {
+		return jumpTargets[jump];
+	}
+
+	/**
+	 * Gets the number of links a jump jumps over.
+	 *
+	 * @param jump  the jump
+	 * @return number of links
+	 */
+	public int getJumpWeight(int jump) {
+		return jumpWeights[jump];
+	}
+
+	/**
+	 * Gets the link that stands for the run of links of a jump. The jumps
+	 * over the same run from either end have the same one, so a walk marks it
+	 * visited to walk the run only once.
+	 *
+	 * @param jump  the jump
+	 * @return the node of the link
+	 */
+	public int getJumpMark(int jump) {
+		return jumpMarks[jump];
+	}
+
+	/**
+	 * Gets the region of plain wire a node is in. A walk that enters a region
+	 * at one of its portals (see {@link #getPortal(int)}) reaches every 
+	 * member of it, and takes the steps out of it in the order 
+	 * {@link #getExitNode(int, int, int)} lists them, unless it comes back
+	 * into the region through a member it has not reached yet.
+	 *
+	 * @param node  the node
+	 * @return the region or {@link #NONE} if the node is in none
+	 */
+	public int getRegion(int node) {
+		return regionOf[node];
+	}
+
+	/**
+	 * Gets the number of region numbers given out so far. Every region is
+	 * below this number.
+	 *
+	 * @return number of region numbers
+	 */
+	public int getRegionCount() {
+		return regionCount;
+	}
+
+	/**
+	 * Gets the number of nodes in regions, which walks cross through their
+	 * portals.
+	 *
+	 * @return number of nodes
+	 */
+	public int getRegionNodeCount() {
+		return regionNodes;
+	}
+
+	/**
+	 * Gets the portal of its region a node is, where a walk can enter the
+	 * region.
+	 *
+	 * @param node  a node of a region
+	 * @return the portal or {@link #NONE} if no walk enters the region there
+	 */
+	public int getPortal(int node) {
+		return portalOf[node];
+	}
+
+	/**
+	 * Gets the node of a portal.
+	 *
+	 * @param region  the region
+	 * @param portal  a portal of the region
+	 * @return the node
+	 */
+	public int getPortalNode(int region, int portal) {
+		return regions[region].portals[portal];
+	}
+
+	/**
+	 * Gets the number of steps out of a region a walk entering it at a
+	 * portal takes, whether or not they lead to a node the walk reached
+	 * before.
+	 *
+	 * @param region  the region
+	 * @param portal  the portal the walk entered at
+	 * @return number of steps
+	 */
+	public int getExitCount(int region, int portal) {
+		return regions[region].exits[portal].length;
+	}
+
+	/**
+	 * Gets the member of a region a step out of it is taken from.
+	 *
+	 * @param region  the region
+	 * @param portal  the portal the walk entered at
+	 * @param i  the step, in the order the walk takes them
+	 * @return the node
+	 */
+	public int getExitNode(int region, int portal, int i) {
+		return regions[region].exits[portal][i] / DIRS;
+	}
+
+	/**
+	 * Gets the direction a step out of a region is taken in.
+	 *
+	 * @param region  the region
+	 * @param portal  the portal the walk entered at
+	 * @param i  the step, in the order the walk takes them
+	 * @return the direction: 0 north, 1 east, 2 south, 3 west
+	 */
+	public int getExitDir(int region, int portal, int i) {
+		return regions[region].exits[portal][i] % DIRS;
+	}
+
+	/**
+	 * Gets the number of members of a region a walk entering it at a portal
+	 * has reached when it takes a step out of it.
+	 *
+	 * @param region  the region
+	 * @param portal  the portal the walk entered at
+	 * @param i  the step, or {@link #getExitCount(int, int)} once every step
+	 *           is taken
+	 * @return number of members, all of them once every step is taken
+	 */
+	public int getReached(int region, int portal, int i) {
+		return regions[region].reached[portal][i];
+	}
+
+	/**
+	 * Has a walk entering a region at a portal reached a member of it when
+	 * it takes a step out of it?
+	 *
+	 * @param region  the region
+	 * @param portal  the portal the walk entered at
+	 * @param i  the step, or {@link #getExitCount(int, int)} once every step
+	 *           is taken
+	 * @param node  a member of the region
+	 * @return true if the walk reached it
+	 */
+	public boolean isReached(int region, int portal, int i, int node) {
+		Region r = regions[region];
+
+		return r.ranks[portal][memberIndex[node]] < r.reached[portal][i];
+	}
+
+	/**
+	 * Gets every chunk a block change in could change the graph, which are the
+	 * chunks within two blocks of a node. It only grows.
+	 *
+	 * @return chunk keys of the chunks (see {@link BlockKey#chunk(int, int)})
+	 */
+	public LongHashSet getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * Gets the block keys of every crafting table in the graph.
+	 *
+	 * @return the block keys
+	 */
+	public long[] getWorkbenches() {
+		long[] workbenches = new long[size];
+		int count = 0;
+
+		for (int node = 0; node < size; node++) {
+			if (kinds[node] == WORKBENCH) {
+				workbenches[count++] = keys[node];
+			}
+		}
+		return Arrays.copyOf(workbenches, count);
+	}
+
+	/**
+	 * Gets the crafting tables whose network changed in the last update or
+	 * growth, or that are gone since. Routes found from them before are no
+	 * longer valid.
+	 *
+	 * @return block keys of the crafting tables
+	 */
+	public LongHashSet getChangedWorkbenches() {
+		return changedWorkbenches;
+	}
+
+	/**
+	 * Gets the crafting tables whose network was dropped in the last update
+	 * or growth because it had more nodes than a walk may reach.
+	 *
+	 * @return block keys of the crafting tables
+	 */
+	public LongHashSet getTooBigWorkbenches() {
+		return tooBigWorkbenches;
+	}
+
+	/**
+	 * Can the graph still be walked and updated? It cannot once so many 
+	 * blocks changed or so many nodes were removed that compiling it again is
+	 * cheaper.
+	 *
+	 * @return true if the graph is usable
+	 */
+	public boolean isUsable() {
+		return !isOverflowed && removed <= size - removed;
+	}
+
+	/**
+	 * Are there block changes that {@link #update(BlockView)} has not applied
+	 * yet?
+	 *
+	 * @return true if there are changes
+	 */
+	public boolean isDirty() {
+		return !dirty.isEmpty() || !dirtyChunks.isEmpty() || !changed.isEmpty() || 
+				isOverflowed;
+	}
+
+	/**
+	 * Remembers that a block changed, or was told that a block next to it 
+	 * changed. Only blocks within two blocks of a node can change the graph.
+	 *
+	 * @param key  block key of the block
+	 */
+	public void markDirty(long key) {
+		if (dirtyChunks.isEmpty() && dirty.size() < MAX_DIRTY) {
+			dirty.add(key);
+			return;
+		}
+		if (!dirty.isEmpty()) {
+			for (int slot = 0; slot < dirty.capacity(); slot++) {
+				if (dirty.isUsed(slot)) {
+					markChunksDirty(dirty.keyAt(slot));
+				}
+			}
+			dirty.clear();
+		}
+		markChunksDirty(key);
+		if (dirtyChunks.size() > sections.size() / 2) {
+			isOverflowed = true;
+		}
+	}
+
+	/**
+	 * Remembers that the text of a sign changed, which changes where items go
+	 * on its network but not the graph.
+	 *
+	 * @param key  block key of the sign
+	 */
+	public void markSignChanged(long key) {
+		int node = index.get(key);
+
+		if (node >= 0 && owners[node] != null) {
+			markChanged(owners[node]);
+		}
+	}
+
+	/**
+	 * Applies the block changes remembered since the last update. Components
+	 * that became reachable are added, but their edges are left to 
+	 * {@link #grow(BlockView, long)}. Afterwards the graph may no longer be 
+	 * usable, see {@link #isUsable()}, and the crafting tables whose routes
+	 * are no longer valid are listed by {@link #getChangedWorkbenches()}.
+	 *
+	 * @param view  the blocks of the world
+	 * @return true if a network or the text of one of its signs changed
+	 */
+	public boolean update(BlockView view) {
+		long key;
+		long block;
+		boolean isBurst = !dirtyChunks.isEmpty();
+		int mark;
+
+		changedWorkbenches.clear();
+		tooBigWorkbenches.clear();
+		if (isOverflowed) {
+			dirty.clear();
+			dirtyChunks.clear();
+			return true;
+		}
+		queueSize = 0;
+		endCount = 0;
+		for (int slot = 0; slot < dirtyChunks.capacity(); slot++) {
+			if (dirtyChunks.isUsed(slot)) {
+				retypeChunk(view, dirtyChunks.keyAt(slot));
+			}
+		}
+		dirtyChunks.clear();
+		for (int slot = 0; slot < dirty.capacity(); slot++) {
+			if (!dirty.isUsed(slot)) {
+				continue;
+			}
+			//The block itself or any block next to it may be the one that changed
+			key = dirty.keyAt(slot);
+			for (int i = -1; i < 6; i++) {
+				block = i < 0 ? key : neighbour(key, i);
+				retype(view, block);
+				queueStencil(block);
+			}
+		}
+		dirty.clear();
+
+		//Recompute the edges of every node next to a changed block. Nodes that
+		//became reachable are left for grow()
+		for (int i = 0; i < queueSize; i++) {
+			if (kinds[queue[i]] != REMOVED && !isPending[queue[i]]) {
+				computeEdges(view, queue[i]);
+			}
+			queued[queue[i]] = false;
+		}
+		queueSize = 0;
+
+		//Whatever a removed node or edge cut off has a node that was next to
+		//it, so the network is still whole if every such node of it is joined
+		//to the one checked before. After a burst there are so many such nodes
+		//that labelling their networks again is cheaper
+		if (isBurst) {
+			mark = nextMark();
+			for (int i = 0; i < endCount; i++) {
+				if (kinds[ends[i]] != REMOVED && marks[ends[i]] != mark) {
+					relabel(owners[ends[i]], mark);
+				}
+			}
+		}
+		else {
+			for (int i = 0; i < endCount; i++) {
+				checkJoined(ends[i]);
+			}
+		}
+		for (int i = 0; i < endCount; i++) {
+			if (owners[ends[i]] != null) {
+				owners[ends[i]].reached = NONE;
+			}
+		}
+		endCount = 0;
+		contract();
+		return applyChanges();
+	}
+
+	/**
+	 * Gives every changed network a new version and lists its crafting 
+	 * tables, dropping the networks left without a crafting table and those
+	 * with more nodes than a walk may reach.
+	 *
+	 * @return true if a network changed
+	 */
+	private boolean applyChanges() {
+		boolean isChanged = !changed.isEmpty();
+
+		for (Network network : changed) {
+			network.isChanged = false;
+			if (network.size == 0) {
+				continue;
+			}
+			if (network.workbenches.isEmpty()) {
+				drop(network);
+				continue;
+			}
+			if (network.size > maxNodes) {
+				dropTooBig(network);
+				continue;
+			}
+			network.version++;
+			for (int slot = 0; slot < network.workbenches.capacity(); slot++) {
+				if (network.workbenches.isUsed(slot)) {
+					changedWorkbenches.add(network.workbenches.keyAt(slot));
+				}
+			}
+		}
+		changed.clear();
+		return isChanged;
+	}
+
+	/**
+	 * Re-reads the type of a block that may have changed.
+	 */
+	private void retype(BlockView view, long key) {
+		int node = index.get(key);
+		Material type;
+		byte kind;
+		int count;
+
+		if (node < 0 || kinds[node] == REMOVED) {
+			return;
+		}
+		type = typeAt(view, key);
+		if (PathWalker.isBlockTypeAComponent(type)) {
+			kind = kindOf(type);
+		}
+		else {
+			kind = kinds[node] == WORKBENCH && type == Material.WORKBENCH ? WORKBENCH : REMOVED;
+		}
+		if (kind == kinds[node]) {
+			return;
+		}
+		touch(node);
+		markChanged(owners[node]);
+		if (kinds[node] == WORKBENCH) {
+			owners[node].workbenches.remove(key);
+			changedWorkbenches.add(key);
+		}
+		if (kind != REMOVED) {
+			kinds[node] = kind;
+			return;
+		}
+
+		//Whatever the node joined may fall apart without it
+		count = adjacent(node);
+		for (int i = 0; i < count; i++) {
+			addEnd(adjacent[i]);
+			touch(adjacent[i]);
+		}
+		remove(node);
+	}
+
+	/**
+	 * Remembers that a block or a block next to it changed by the chunks they
+	 * are in.
+	 */
+	private void markChunksDirty(long key) {
+		int x = BlockKey.x(key);
+		int z = BlockKey.z(key);
+
+		dirtyChunks.add(BlockKey.chunk(x >> 4, z >> 4));
+		for (int dir = 0; dir < DIRS; dir++) {
+			dirtyChunks.add(BlockKey.chunk((x + DIR_X[dir]) >> 4, (z + DIR_Z[dir]) >> 4));
+		}
+	}
+
+	/**
+	 * Re-reads the type of every node in a chunk any block of which may have
+	 * changed, and queues every node whose edges may step into it: the nodes
+	 * in it and the nodes right at its borders in the chunks next to it.
+	 */
+	private void retypeChunk(BlockView view, long chunk) {
+		int chunkX = BlockKey.chunkX(chunk);
+		int chunkZ = BlockKey.chunkZ(chunk);
+		Section section = sections.get(chunk);
+		Section next;
+		long key;
+		int node;
+
+		if (section != null) {
+			for (int i = 0; i < section.size; i++) {
+				node = section.nodes[i];
+				retype(view, keys[node]);
+				queue(node);
+			}
+		}
+		for (int dir = 0; dir < DIRS; dir++) {
+			next = sections.get(BlockKey.chunk(chunkX + DIR_X[dir], chunkZ + DIR_Z[dir]));
+			if (next == null) {
+				continue;
+			}
+			for (int i = 0; i < next.size; i++) {
+				node = next.nodes[i];
+				key = keys[node];
+				//The node steps into the chunk if going back towards it does
+				if ((BlockKey.x(key) - DIR_X[dir]) >> 4 == chunkX &&
+						(BlockKey.z(key) - DIR_Z[dir]) >> 4 == chunkZ) {
+					queue(node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues every node whose edges depend on a block: the nodes it can be
+	 * stepped to from, level, from above or from below, and the node below it
+	 * that checks it for air.
+	 */
+	private void queueStencil(long key) {
+		int x = BlockKey.x(key);
+		int y = BlockKey.y(key);
+		int z = BlockKey.z(key);
+
+		for (int dir = 0; dir < DIRS; dir++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				queue(index.get(BlockKey.of(x - DIR_X[dir], y + dy, z - DIR_Z[dir])));
+			}
+		}
+		queue(index.get(BlockKey.of(x, y - 1, z)));
+	}
+
+	private void queue(int node) {
+		if (node < 0 || queued[node] || kinds[node] == REMOVED) {
+			return;
+		}
+		if (queueSize == queue.length) {
+			queue = Arrays.copyOf(queue, queueSize << 1);
+		}
+		queue[queueSize++] = node;
+		queued[node] = true;
+	}
+
+	/**
+	 * Computes the edges of a node the way {@link PathWalker} steps from it,
+	 * adding the nodes they lead to to the network of the node. Edges into
+	 * another network merge it, and removed edges are remembered to look for
+	 * a split.
+	 */
+	private void computeEdges(BlockView view, int node) {
+		long key = keys[node];
+		int x = BlockKey.x(key);
+		int y = BlockKey.y(key);
+		int z = BlockKey.z(key);
+		boolean isAboveAir = view.getType(x, y + 1, z) == Material.AIR;
+		Material type;
+		long nextKey;
+		int old;
+		int next;
+		int nx;
+		int ny;
+		int nz;
+
+		for (int dir = 0; dir < DIRS; dir++) {
+			nx = x + DIR_X[dir];
+			ny = y;
+			nz = z + DIR_Z[dir];
+			next = NONE;
+			type = view.getType(nx, ny, nz);
+			if (!PathWalker.isBlockTypeAComponent(type)) {
+				if (type == Material.AIR) {                  //Down one step
+					ny--;
+				}
+				else if (isAboveAir) {                        //Up one step
+					ny++;
+				}
+				else {
+					ny = Integer.MIN_VALUE;
+				}
+				type = ny != Integer.MIN_VALUE ? view.getType(nx, ny, nz) : null;
+			}
+			if (type != null && PathWalker.isBlockTypeAComponent(type)) {
+				nextKey = BlockKey.of(nx, ny, nz);
+				next = index.get(nextKey);
+				if (next < 0) {
+					next = addNode(nextKey, kindOf(type), owners[node]);
+					addPending(next);
+				}
+			}
+
+			old = edges[node * DIRS + dir];
+			if (old == next) {
+				continue;
+			}
+			edges[node * DIRS + dir] = next;
+			touch(node);
+			if (old != NONE) {
+				inDegrees[old]--;
+				touch(old);
+			}
+			if (next != NONE) {
+				inDegrees[next]++;
+				touch(next);
+			}
+			if (next != NONE && owners[next] != owners[node]) {
+				merge(owners[node], owners[next]);
+			}
+			markChanged(owners[node]);
+			if (old != NONE) {
+				addEnd(node);
+				addEnd(old);
+			}
+		}
+	}
+
+	/**
+	 * Gets every node joined to a node by an edge, whichever way, into
+	 * {@link #adjacent}. Edges into a node can only come from the blocks it
+	 * can be stepped to from.
+	 *
+	 * @return number of nodes
+	 */
+	private int adjacent(int node) {
+		long key = keys[node];
+		int x = BlockKey.x(key);
+		int y = BlockKey.y(key);
+		int z = BlockKey.z(key);
+		int count = 0;
+		int other;
+
+		for (int dir = 0; dir < DIRS; dir++) {
+			other = edges[node * DIRS + dir];
+			if (other != NONE) {
+				adjacent[count++] = other;
+			}
+			for (int dy = -1; dy <= 1; dy++) {
+				other = index.get(BlockKey.of(x - DIR_X[dir], y + dy, z - DIR_Z[dir]));
+				if (other >= 0 && edges[other * DIRS + dir] == node) {
+					adjacent[count++] = other;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Brings the links and jumps up to date around the touched nodes. Only a
+	 * touched node can have become or stopped being a link, as that takes an
+	 * edge from or to it to change, and only jumps from the ends of the runs
+	 * of links through touched nodes or their edges can have changed: a node
+	 * that lost an edge was touched too.
+	 */
+	private void contract() {
+		int mark;
+		int endpoints = 0;
+		int node;
+		int next;
+
+		for (int i = 0; i < touchedCount; i++) {
+			node = touched[i];
+			if (kinds[node] != REMOVED && links[node] != isLinkNow(node)) {
+				links[node] = !links[node];
+				linkCount += links[node] ? 1 : -1;
+				if (links[node]) {
+					clearJumps(node);
+				}
+			}
+		}
+
+		//Find the ends of the runs of links next to every touched node
+		mark = nextMark();
+		for (int i = 0; i < touchedCount; i++) {
+			node = touched[i];
+			if (kinds[node] == REMOVED) {
+				continue;
+			}
+			endpoints = collectEnds(node, mark, endpoints);
+			for (int dir = 0; dir < DIRS; dir++) {
+				next = edges[node * DIRS + dir];
+				if (next != NONE) {
+					endpoints = collectEnds(next, mark, endpoints);
+				}
+			}
+		}
+		for (int i = 0; i < endpoints; i++) {
+			computeJumps(sideA[i]);
+		}
+
+		//A region can only change where a node changed, as that takes an edge
+		//from or to one of its members to change or a member to become a link
+		for (int i = 0; i < touchedCount; i++) {
+			staleChunks.add(chunkOf(touched[i]));
+		}
+		clearTouched();
+		for (int slot = 0; slot < staleChunks.capacity(); slot++) {
+			if (staleChunks.isUsed(slot)) {
+				findRegions(staleChunks.keyAt(slot));
+			}
+		}
+		staleChunks.clear();
+	}
+
+	/**
+	 * Finds the regions of a chunk again: the plain wires in it that are no
+	 * links, joined by edges both ways, with enough members to be worth 
+	 * crossing through their portals.
+	 */
+	private void findRegions(long chunk) {
+		Section section = sections.get(chunk);
+		int mark;
+		int count;
+		int node;
+		int next;
+
+		if (section == null) {
+			return;
+		}
+		for (int i = 0; i < section.size; i++) {
+			if (regionOf[section.nodes[i]] != NONE) {
+				freeRegion(regionOf[section.nodes[i]]);
+			}
+		}
+		mark = nextMark();
+		for (int i = 0; i < section.size; i++) {
+			node = section.nodes[i];
+			if (!isPlainWire(node) || marks[node] == mark) {
+				continue;
+			}
+			marks[node] = mark;
+			sideB[0] = node;
+			count = 1;
+			for (int j = 0; j < count; j++) {
+				for (int dir = 0; dir < DIRS; dir++) {
+					next = edges[sideB[j] * DIRS + dir];
+					if (next != NONE && marks[next] != mark && isPlainWire(next) && 
+							chunkOf(next) == chunk && hasEdge(next, sideB[j])) {
+						marks[next] = mark;
+						sideB = add(sideB, count++, next);
+					}
+				}
+			}
+			if (count >= MIN_REGION_NODES) {
+				addRegion(chunk, Arrays.copyOf(sideB, count));
+			}
+		}
+	}
+
+	/**
+	 * Makes a region of wires, finding its portals and the steps a walk 
+	 * entering at each of them takes out of it. Wires with more portals than
+	 * are worth keeping are left out of any region.
+	 */
+	private void addRegion(long chunk, int[] members) {
+		Region r = new Region(chunk, members);
+		int region;
+		int portalCount = 0;
+		int count;
+		int other;
+
+		if (freeRegionCount > 0) {
+			region = freeRegions[--freeRegionCount];
+		}
+		else {
+			region = regionCount++;
+			if (region == regions.length) {
+				regions = Arrays.copyOf(regions, region << 1);
+			}
+		}
+		regions[region] = r;
+		for (int i = 0; i < members.length; i++) {
+			regionOf[members[i]] = region;
+			memberIndex[members[i]] = i;
+			portalOf[members[i]] = NONE;
+		}
+
+		//A walk can only enter at a member with an edge from outside
+		r.portals = new int[4];
+		for (int member : members) {
+			count = adjacent(member);
+			for (int i = 0; i < count; i++) {
+				other = adjacent[i];
+				if (regionOf[other] != region && hasEdge(other, member) && 
+						portalOf[member] == NONE) {
+					portalOf[member] = portalCount;
+					r.portals = add(r.portals, portalCount++, member);
+				}
+			}
+		}
+		if (portalCount > MAX_PORTALS) {
+			freeRegion(region);
+			return;
+		}
+		r.portals = Arrays.copyOf(r.portals, portalCount);
+		r.exits = new int[portalCount][];
+		r.reached = new int[portalCount][];
+		r.ranks = new int[portalCount][];
+		for (int portal = 0; portal < portalCount; portal++) {
+			walkRegion(region, portal);
+		}
+		regionNodes += members.length;
+	}
+
+	/**
+	 * Walks the members of a region from a portal the way {@link PathWalker}
+	 * does, listing the steps out of the region in the order they are taken.
+	 */
+	private void walkRegion(int region, int portal) {
+		Region r = regions[region];
+		int[] ranks = new int[r.members.length];
+		int[] exits = new int[4];
+		int[] reached = new int[4];
+		int exitCount = 0;
+		int stackSize = 1;
+		int count = 1;
+		int node;
+		int dir;
+		int next;
+
+		Arrays.fill(ranks, NONE);
+		ranks[memberIndex[r.portals[portal]]] = 0;
+		sideA[0] = r.portals[portal];
+		sideB[0] = 0;
+		while (stackSize > 0) {
+			node = sideA[stackSize - 1];
+			dir = sideB[stackSize - 1]++;
+			if (dir == DIRS) {
+				stackSize--;
+				continue;
+			}
+			next = edges[node * DIRS + dir];
+			if (next == NONE) {
+				continue;
+			}
+			if (regionOf[next] != region) {
+				exits = add(exits, exitCount, node * DIRS + dir);
+				reached = add(reached, exitCount++, count);
+				continue;
+			}
+			if (ranks[memberIndex[next]] == NONE) {
+				ranks[memberIndex[next]] = count++;
+				sideA = add(sideA, stackSize, next);
+				sideB = add(sideB, stackSize++, 0);
+			}
+		}
+		r.exits[portal] = Arrays.copyOf(exits, exitCount);
+		r.reached[portal] = add(Arrays.copyOf(reached, exitCount + 1), exitCount, count);
+		r.ranks[portal] = ranks;
+	}
+
+	private void freeRegion(int region) {
+		Region r = regions[region];
+
+		for (int member : r.members) {
+			regionOf[member] = NONE;
+			portalOf[member] = NONE;
+		}
+		if (r.exits != null) {
+			regionNodes -= r.members.length;
+		}
+		regions[region] = null;
+		freeRegions = add(freeRegions, freeRegionCount++, region);
+	}
+
+	/**
+	 * Is a node a wire walks step through one by one, that is no link?
+	 */
+	private boolean isPlainWire(int node) {
+		return kinds[node] == WIRE && !links[node];
+	}
+
+	private long chunkOf(int node) {
+		return BlockKey.chunk(BlockKey.x(keys[node]) >> 4, BlockKey.z(keys[node]) >> 4);
+	}
+
+	/**
+	 * Adds a node that is not a link, or the nodes at both ends of the run of
+	 * a link, to the nodes whose jumps are computed.
+	 *
+	 * @return the new number of nodes
+	 */
+	private int collectEnds(int node, int mark, int count) {
+		int prev;
+		int cur;
+		int next;
+
+		if (marks[node] == mark) {
+			return count;
+		}
+		marks[node] = mark;
+		if (!links[node]) {
+			sideA = add(sideA, count, node);
+			return count + 1;
+		}
+		for (int dir = 0; dir < DIRS; dir++) {
+			if (edges[node * DIRS + dir] == NONE) {
+				continue;
+			}
+			prev = node;
+			cur = edges[node * DIRS + dir];
+			while (links[cur] && marks[cur] != mark) {
+				marks[cur] = mark;
+				next = across(cur, prev);
+				prev = cur;
+				cur = next;
+			}
+			if (!links[cur] && marks[cur] != mark) {
+				marks[cur] = mark;
+				sideA = add(sideA, count++, cur);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Computes the jumps of a node that is not a link over the runs of links
+	 * its edges lead into.
+	 */
+	private void computeJumps(int node) {
+		int block = NONE;
+		int slot;
+		int prev;
+		int cur;
+		int next;
+		int last;
+		int weight;
+
+		clearJumps(node);
+		for (int dir = 0; dir < DIRS; dir++) {
+			cur = edges[node * DIRS + dir];
+			if (cur == NONE || !links[cur]) {
+				continue;
+			}
+			prev = node;
+			last = cur;
+			weight = 0;
+			while (links[cur] && weight <= size) {
+				weight++;
+				last = cur;
+				next = across(cur, prev);
+				prev = cur;
+				cur = next;
+			}
+			if (block == NONE) {
+				block = allocateJumps();
+				jumpBlocks[node] = block;
+			}
+			slot = block * DIRS + dir;
+			jumpTargets[slot] = cur;
+			jumpWeights[slot] = weight;
+			jumpMarks[slot] = Math.min(edges[node * DIRS + dir], last);
+		}
+	}
+
+	/**
+	 * Gets a block of DIRS jumps that all lead nowhere.
+	 *
+	 * @return the block
+	 */
+	private int allocateJumps() {
+		int block;
+
+		if (freeJumpBlockCount > 0) {
+			block = freeJumpBlocks[--freeJumpBlockCount];
+		}
+		else {
+			block = jumpBlockCount++;
+			if (block * DIRS == jumpTargets.length) {
+				jumpTargets = Arrays.copyOf(jumpTargets, block * DIRS << 1);
+				jumpWeights = Arrays.copyOf(jumpWeights, block * DIRS << 1);
+				jumpMarks = Arrays.copyOf(jumpMarks, block * DIRS << 1);
+			}
+		}
+		Arrays.fill(jumpTargets, block * DIRS, block * DIRS + DIRS, NONE);
+		return block;
+	}
+
+	/**
+	 * Is a node a link now: a wire with edges to exactly two nodes, and edges
+	 * from exactly those two? A node has at most one edge to another, as
+	 * every direction steps to other blocks.
+	 */
+	private boolean isLinkNow(int node) {
+		int a = NONE;
+		int b = NONE;
+		int other;
+
+		if (kinds[node] != WIRE) {
+			return false;
+		}
+		for (int dir = 0; dir < DIRS; dir++) {
+			other = edges[node * DIRS + dir];
+			if (other == NONE) {
+				continue;
+			}
+			if (other == node || b != NONE) {
+				return false;
+			}
+			if (a == NONE) {
+				a = other;
+			}
+			else {
+				b = other;
+			}
+		}
+		return b != NONE && inDegrees[node] == 2 && hasEdge(a, node) && 
+				hasEdge(b, node);
+	}
+
+	private boolean hasEdge(int from, int to) {
+		for (int dir = 0; dir < DIRS; dir++) {
+			if (edges[from * DIRS + dir] == to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the node a link leads to when entered from one of its two nodes.
+	 */
+	private int across(int link, int from) {
+		int other;
+
+		for (int dir = 0; dir < DIRS; dir++) {
+			other = edges[link * DIRS + dir];
+			if (other != NONE && other != from) {
+				return other;
+			}
+		}
+		return from;
+	}
+
+	private void clearJumps(int node) {
+		if (jumpBlocks[node] != NONE) {
+			freeJumpBlocks = add(freeJumpBlocks, freeJumpBlockCount++, jumpBlocks[node]);
+			jumpBlocks[node] = NONE;
+		}
+	}
+
+	private void touch(int node) {
+		if (!isTouched[node]) {
+			isTouched[node] = true;
+			touched = add(touched, touchedCount++, node);
+		}
+	}
+
+	private void clearTouched() {
+		for (int i = 0; i < touchedCount; i++) {
+			isTouched[touched[i]] = false;
+		}
+		touchedCount = 0;
+	}
+
+	/**
+	 * Gets a value of {@link #marks} no node is marked with yet.
+	 */
+	private int nextMark() {
+		if (marks.length < size) {
+			marks = Arrays.copyOf(marks, Math.max(size, marks.length << 1));
+		}
+		if (epoch == Integer.MAX_VALUE) {
+			Arrays.fill(marks, 0);
+			epoch = 0;
+		}
+		return ++epoch;
+	}
+
+	/**
+	 * Checks whether a node next to a removed node or edge is still joined to
+	 * the last such node checked of its network, splitting them apart if not.
+	 * Nodes are checked in the order they were found, so the two are mostly
+	 * near each other and the search from both meets soon.
+	 */
+	private void checkJoined(int node) {
+		Network network = owners[node];
+		int first;
+
+		if (kinds[node] == REMOVED) {
+			return;
+		}
+		first = network.reached;
+		if (first == NONE || kinds[first] == REMOVED || owners[first] != network) {
+			network.reached = node;
+			return;
+		}
+		split(first, node);
+		if (owners[first] != owners[node]) {
+			owners[first].reached = first;
+		}
+		owners[node].reached = node;
+	}
+
+	/**
+	 * Checks whether two nodes of a network are still joined, searching from
+	 * both at the same time. If the search from one runs out first, what it
+	 * found is split off into a network of its own.
+	 */
+	private void split(int a, int b) {
+		int aCount = 1;
+		int bCount = 1;
+		int aNext = 0;
+		int bNext = 0;
+		int markA;
+		int markB;
+		int count;
+		int other;
+
+		if (kinds[a] == REMOVED || kinds[b] == REMOVED || owners[a] != owners[b] || a == b) {
+			return;
+		}
+		markA = nextMark();
+		markB = nextMark();
+		marks[a] = markA;
+		marks[b] = markB;
+		sideA[0] = a;
+		sideB[0] = b;
+
+		while (aNext < aCount && bNext < bCount) {
+			count = adjacent(sideA[aNext++]);
+			for (int i = 0; i < count; i++) {
+				other = adjacent[i];
+				if (marks[other] == markB) {
+					return;
+				}
+				if (marks[other] != markA) {
+					marks[other] = markA;
+					sideA = add(sideA, aCount++, other);
+				}
+			}
+			count = adjacent(sideB[bNext++]);
+			for (int i = 0; i < count; i++) {
+				other = adjacent[i];
+				if (marks[other] == markA) {
+					return;
+				}
+				if (marks[other] != markB) {
+					marks[other] = markB;
+					sideB = add(sideB, bCount++, other);
+				}
+			}
+		}
+		if (aNext == aCount) {
+			splitOff(sideA, aCount);
+		}
+		else {
+			splitOff(sideB, bCount);
+		}
+	}
+
+	/**
+	 * Labels a network again: its nodes are joined along their edges in a
+	 * union-find forest, and every part but the one of its first node is
+	 * split off. Its nodes are marked.
+	 */
+	private void relabel(Network network, int mark) {
+		int count = network.size;
+		long[] parts = new long[count];
+		int node;
+		int next;
+		int root;
+		int start;
+
+		if (parents.length < size) {
+			parents = Arrays.copyOf(parents, Math.max(size, parents.length << 1));
+		}
+		for (int i = 0; i < count; i++) {
+			node = network.members[i];
+			parents[node] = node;
+			marks[node] = mark;
+		}
+		for (int i = 0; i < count; i++) {
+			node = network.members[i];
+			for (int dir = 0; dir < DIRS; dir++) {
+				next = edges[node * DIRS + dir];
+				if (next != NONE) {
+					parents[find(node)] = find(next);
+				}
+			}
+		}
+
+		//Sort the nodes by their root so each part is a run
+		root = find(network.members[0]);
+		for (int i = 0; i < count; i++) {
+			node = network.members[i];
+			parts[i] = (long) find(node) << 32 | node;
+		}
+		Arrays.sort(parts);
+		for (start = 0; start < count; start = next) {
+			for (next = start; next < count && parts[next] >>> 32 == parts[start] >>> 32; next++) {
+				sideA = add(sideA, next - start, (int) parts[next]);
+			}
+			if (parts[start] >>> 32 != root) {
+				splitOff(sideA, next - start);
+			}
+		}
+	}
+
+	private int find(int node) {
+		while (parents[node] != node) {
+			parents[node] = parents[parents[node]];
+			node = parents[node];
+		}
+		return node;
+	}
+
+	/**
+	 * Moves nodes into a new network of their own.
+	 */
+	private void splitOff(int[] nodes, int count) {
+		Network from = owners[nodes[0]];
+		Network network = new Network();
+
+		networkCount++;
+		for (int i = 0; i < count; i++) {
+			leave(nodes[i]);
+			join(network, nodes[i]);
+			if (kinds[nodes[i]] == WORKBENCH) {
+				from.workbenches.remove(keys[nodes[i]]);
+				network.workbenches.add(keys[nodes[i]]);
+			}
+		}
+		markChanged(from);
+		markChanged(network);
+	}
+
+	/**
+	 * Merges two networks by moving the nodes of the smaller one into the
+	 * bigger one. Changes still to be reported for either are reported for
+	 * the merged one.
+	 *
+	 * @return the merged network
+	 */
+	private Network merge(Network a, Network b) {
+		Network into = a.size >= b.size ? a : b;
+		Network from = into == a ? b : a;
+		int node;
+
+		while (from.size > 0) {
+			node = from.members[from.size - 1];
+			leave(node);
+			join(into, node);
+		}
+		for (int slot = 0; slot < from.workbenches.capacity(); slot++) {
+			if (from.workbenches.isUsed(slot)) {
+				into.workbenches.add(from.workbenches.keyAt(slot));
+			}
+		}
+		from.workbenches.clear();
+		if (from.isChanged) {
+			markChanged(into);
+		}
+		return into;
+	}
+
+	/**
+	 * Removes every node of a network no crafting table is on any more.
+	 */
+	private void drop(Network network) {
+		while (network.size > 0) {
+			remove(network.members[network.size - 1]);
+		}
+	}
+
+	/**
+	 * Removes every node of a network with more nodes than a walk may reach,
+	 * listing its crafting tables.
+	 */
+	private void dropTooBig(Network network) {
+		for (int slot = 0; slot < network.workbenches.capacity(); slot++) {
+			if (network.workbenches.isUsed(slot)) {
+				changedWorkbenches.add(network.workbenches.keyAt(slot));
+				tooBigWorkbenches.add(network.workbenches.keyAt(slot));
+			}
+		}
+		drop(network);
+	}
+
+	private void markChanged(Network network) {
+		if (!network.isChanged) {
+			network.isChanged = true;
+			changed.add(network);
+		}
+	}
+
+	private void join(Network network, int node) {
+		if (network.size == network.members.length) {
+			network.members = Arrays.copyOf(network.members, network.size << 1);
+		}
+		network.members[network.size] = node;
+		positions[node] = network.size++;
+		owners[node] = network;
+		if (isPending[node]) {
+			network.pending++;
+		}
+	}
+
+	/**
+	 * Takes a node out of its network, moving the last member into its place.
+	 * A network left empty is gone.
+	 */
+	private void leave(int node) {
+		Network network = owners[node];
+		int last = network.members[--network.size];
+
+		network.members[positions[node]] = last;
+		positions[last] = positions[node];
+		owners[node] = null;
+		if (isPending[node]) {
+			network.pending--;
+		}
+		if (network.size == 0) {
+			networkCount--;
+		}
+	}
+
+	private void remove(int node) {
+		if (owners[node] != null) {
+			leave(node);
+		}
+		if (regionOf[node] != NONE) {
+			staleChunks.add(regions[regionOf[node]].chunk);
+			freeRegion(regionOf[node]);
+		}
+		if (links[node]) {
+			links[node] = false;
+			linkCount--;
+		}
+		isPending[node] = false;
+		clearJumps(node);
+		index.remove(keys[node]);
+		for (int dir = 0; dir < DIRS; dir++) {
+			if (edges[node * DIRS + dir] != NONE) {
+				inDegrees[edges[node * DIRS + dir]]--;
+				edges[node * DIRS + dir] = NONE;
+			}
+		}
+		kinds[node] = REMOVED;
+		removed++;
+	}
+
+	/**
+	 * Leaves the edges of a node of a network to be computed by grow().
+	 */
+	private void addPending(int node) {
+		isPending[node] = true;
+		owners[node].pending++;
+		pending = add(pending, pendingCount++, node);
+	}
+
+	private void addEnd(int node) {
+		ends = add(ends, endCount++, node);
+	}
+
+	private int addNode(long key, byte kind, Network network) {
+		int node = size++;
+		int x = BlockKey.x(key);
+		int z = BlockKey.z(key);
+		Section section;
+
+		if (node == keys.length) {
+			keys = Arrays.copyOf(keys, node << 1);
+			kinds = Arrays.copyOf(kinds, node << 1);
+			edges = Arrays.copyOf(edges, (node << 1) * DIRS);
+			owners = Arrays.copyOf(owners, node << 1);
+			positions = Arrays.copyOf(positions, node << 1);
+			queued = Arrays.copyOf(queued, node << 1);
+			isPending = Arrays.copyOf(isPending, node << 1);
+			links = Arrays.copyOf(links, node << 1);
+			inDegrees = Arrays.copyOf(inDegrees, node << 1);
+			isTouched = Arrays.copyOf(isTouched, node << 1);
+			jumpBlocks = Arrays.copyOf(jumpBlocks, node << 1);
+			regionOf = Arrays.copyOf(regionOf, node << 1);
+			memberIndex = Arrays.copyOf(memberIndex, node << 1);
+			portalOf = Arrays.copyOf(portalOf, node << 1);
+		}
+		keys[node] = key;
+		kinds[node] = kind;
+		owners[node] = null;
+		isPending[node] = false;
+		links[node] = false;
+		inDegrees[node] = 0;
+		jumpBlocks[node] = NONE;
+		regionOf[node] = NONE;
+		portalOf[node] = NONE;
+		isTouched[node] = false;
+		touch(node);
+		Arrays.fill(edges, node * DIRS, node * DIRS + DIRS, NONE);
+		index.put(key, node);
+		if (network != null) {
+			join(network, node);
+		}
+		section = sections.get(BlockKey.chunk(x >> 4, z >> 4));
+		if (section == null) {
+			section = new Section();
+			sections.put(BlockKey.chunk(x >> 4, z >> 4), section);
+		}
+		section.nodes = add(section.nodes, section.size++, node);
+		//Chunks a change within two blocks of the node can be in
+		chunks.add(BlockKey.chunk((x - 2) >> 4, (z - 2) >> 4));
+		chunks.add(BlockKey.chunk((x + 2) >> 4, (z - 2) >> 4));
+		chunks.add(BlockKey.chunk((x - 2) >> 4, (z + 2) >> 4));
+		chunks.add(BlockKey.chunk((x + 2) >> 4, (z + 2) >> 4));
+		return node;
+	}
+
+	private static int[] add(int[] array, int i, int value) {
+		if (i == array.length) {
+			array = Arrays.copyOf(array, i << 1);
+		}
+		array[i] = value;
+		return array;
+	}
+
+	private static byte kindOf(Material type) {
+		for (byte kind = WORKBENCH + 1; kind < KIND_TYPES.length; kind++) {
+			if (KIND_TYPES[kind] == type) {
+				return kind;
+			}
+		}
+		return REMOVED;
+	}
+
+	private static Material typeAt(BlockView view, long key) {
+		return view.getType(BlockKey.x(key), BlockKey.y(key), BlockKey.z(key));
+	}
+
+	/**
+	 * Gets the block next to a block: up, down, north, east, south, west.
+	 */
+	private static long neighbour(long key, int i) {
+		int x = BlockKey.x(key);
+		int y = BlockKey.y(key);
+		int z = BlockKey.z(key);
+
+		switch (i) {
+			case 0:  return BlockKey.of(x, y + 1, z);
+			case 1:  return BlockKey.of(x, y - 1, z);
+			default: return BlockKey.of(x + DIR_X[i - 2], y, z + DIR_Z[i - 2]);
+		}
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * {@code NetworkGraphCache} holds the compiled {@link NetworkGraph} of every
+ * world items were routed in, and tells it about block changes.
+ * <p>
+ * A crafting table is added to the graph of its world the first time items
+ * are routed from it. Crafting tables on the same redstone bus share one
+ * {@link NetworkGraph.Network}, so the bus is compiled once for all of them.
+ * A block place, block break, sign change or block physics event only
+ * reaches the graph if it is near one of its nodes (see
+ * {@link NetworkGraph#getChunks()}), and the graph applies the changes the 
+ * next time it is needed. Whenever that changes a network, the cached routes
+ * of every crafting table on it are dropped, as routes found by walking a
+ * graph do not record the blocks they looked at.
+ * <p>
+ * The network of a crafting table is compiled a slice at a time, within the
+ * time left of the scan that routes from it (see
+ * {@link NetworkGraph#grow(BlockView, long)}), and walked in the world until
+ * it is done. A crafting table whose network is too big to compile is walked
+ * in the world instead, and only tried again after {@link #RETRY_NANOS},
+ * twice as long every time it is too big again, up to
+ * {@link #MAX_RETRY_NANOS}.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class NetworkGraphCache implements Listener {
+
+	/** Time before a crafting table whose network was too big is tried again. */
+	public static final long RETRY_NANOS = 30000000000L;
+	/** Longest time before a crafting table whose network was too big is tried again. */
+	public static final long MAX_RETRY_NANOS = 16 * RETRY_NANOS;
+
+	/**
+	 * When a crafting table whose network was too big may be tried again.
+	 */
+	private static final class Retry {
+		private long triedNanos;
+		private long delayNanos = RETRY_NANOS;
+	}
+
+	private final RouteCache routeCache;
+	private final int maxNodes;
+	private final HashMap<UUID, NetworkGraph> graphs = new HashMap<UUID, NetworkGraph>();
+	//Per world, when the crafting tables whose network was too big were tried
+	private final HashMap<UUID, LongObjectHashMap<Retry>> tooBig =
+			new HashMap<UUID, LongObjectHashMap<Retry>>();
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param routeCache  the cache of the routes found by walking the graphs
+	 * @param maxNodes  most nodes a network may hold to be walked, 0 for no 
+	 *                  limit
+	 */
+	public NetworkGraphCache(RouteCache routeCache, int maxNodes) {
+		this.routeCache = routeCache;
+		this.maxNodes = maxNodes;
+	}
+
+	/**
+	 * Gets the graph to walk from a crafting table, applying the block changes
+	 * it was told about first and growing the graph until a deadline. Must be
+	 * called before looking up a cached route of the crafting table, as 
+	 * applying them may drop its routes.
+	 *
+	 * @param world  the world of the crafting table
+	 * @param workKey  block key of the crafting table
+	 * @param view  the blocks of the world
+	 * @param isCompiling  true to add the crafting table to the graph if it is
+	 *                     not in it yet
+	 * @param deadline  the {@link System#nanoTime()} to stop growing the graph
+	 *                  at, a slice is grown even if it has passed
+	 * @return the graph or null if the crafting table is not in it, its
+	 *         network is not compiled yet or is too big to be walked
+	 */
+	public NetworkGraph get(World world, long workKey, BlockView view, boolean isCompiling, 
+			long deadline) {
+		NetworkGraph graph = graphs.get(world.getUID());
+		NetworkGraph.Network network;
+		LongObjectHashMap<Retry> worldTooBig;
+		Retry retry;
+
+		if (graph != null && graph.isDirty()) {
+			graph.update(view);
+			graph = applyChanges(world, graph);
+		}
+
+		network = graph != null ? graph.getNetwork(workKey) : null;
+		if (network == null) {
+			if (!isCompiling) {
+				return null;
+			}
+			worldTooBig = tooBig.get(world.getUID());
+			retry = worldTooBig != null ? worldTooBig.get(workKey) : null;
+			if (retry != null && System.nanoTime() - retry.triedNanos < retry.delayNanos) {
+				return null;
+			}
+			if (graph == null) {
+				graph = new NetworkGraph(maxNodes);
+				graphs.put(world.getUID(), graph);
+			}
+			if (!graph.addWorkbench(workKey, view)) {
+				return null;
+			}
+		}
+
+		if (graph.isGrowing()) {
+			graph.grow(view, deadline);
+			graph = applyChanges(world, graph);
+		}
+		network = graph != null ? graph.getNetwork(workKey) : null;
+		if (network == null || !network.isComplete()) {
+			return null;
+		}
+		worldTooBig = tooBig.get(world.getUID());
+		if (worldTooBig != null) {
+			worldTooBig.remove(workKey);
+		}
+		return graph;
+	}
+
+	/**
+	 * Gets the number of networks held.
+	 *
+	 * @return number of networks
+	 */
+	public int getNetworkCount() {
+		int count = 0;
+		for (NetworkGraph graph : graphs.values()) {
+			count += graph.getNetworkCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of nodes held.
+	 *
+	 * @return number of nodes
+	 */
+	public long getNodeCount() {
+		long count = 0;
+		for (NetworkGraph graph : graphs.values()) {
+			count += graph.getNodeCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of nodes held that walks jump over, see
+	 * {@link NetworkGraph#isLink(int)}.
+	 *
+	 * @return number of nodes jumped over
+	 */
+	public long getLinkCount() {
+		long count = 0;
+		for (NetworkGraph graph : graphs.values()) {
+			count += graph.getLinkCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of nodes held that walks cross through the portals of
+	 * their region, see {@link NetworkGraph#getRegion(int)}.
+	 *
+	 * @return number of nodes crossed through portals
+	 */
+	public long getRegionNodeCount() {
+		long count = 0;
+		for (NetworkGraph graph : graphs.values()) {
+			count += graph.getRegionNodeCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Drops every graph.
+	 */
+	public void clear() {
+		graphs.clear();
+		tooBig.clear();
+	}
+
+	/**
+	 * Drops the cached routes of the crafting tables whose network changed in
+	 * the last update or growth of a graph, and remembers when those whose 
+	 * network was too big may be tried again. A graph that is no longer 
+	 * usable is dropped with the routes of all of its crafting tables.
+	 *
+	 * @return the graph or null if it was dropped
+	 */
+	private NetworkGraph applyChanges(World world, NetworkGraph graph) {
+		LongHashSet workbenches = graph.getChangedWorkbenches();
+		LongObjectHashMap<Retry> worldTooBig;
+		Retry retry;
+		long key;
+
+		for (int slot = 0; slot < workbenches.capacity(); slot++) {
+			if (workbenches.isUsed(slot)) {
+				routeCache.invalidateWorkbench(world, workbenches.keyAt(slot));
+			}
+		}
+
+		workbenches = graph.getTooBigWorkbenches();
+		for (int slot = 0; slot < workbenches.capacity(); slot++) {
+			if (!workbenches.isUsed(slot)) {
+				continue;
+			}
+			worldTooBig = tooBig.get(world.getUID());
+			if (worldTooBig == null) {
+				worldTooBig = new LongObjectHashMap<Retry>();
+				tooBig.put(world.getUID(), worldTooBig);
+			}
+			key = workbenches.keyAt(slot);
+			retry = worldTooBig.get(key);
+			if (retry == null) {
+				retry = new Retry();
+				worldTooBig.put(key, retry);
+			}
+			else {
+				retry.delayNanos = Math.min(retry.delayNanos * 2, MAX_RETRY_NANOS);
+			}
+			retry.triedNanos = System.nanoTime();
+		}
+
+		if (!graph.isUsable()) {
+			for (long workKey : graph.getWorkbenches()) {
+				routeCache.invalidateWorkbench(world, workKey);
+			}
+			graphs.remove(world.getUID());
+			return null;
+		}
+		return graph;
+	}
+
+	/**
+	 * Tells the graph of the world of a block that the block changed, if the
+	 * block is near it.
+	 */
+	private void markDirty(Block block, boolean isSignChange) {
+		NetworkGraph graph;
+		long key;
+
+		if (graphs.isEmpty()) {
+			return;
+		}
+		graph = graphs.get(block.getWorld().getUID());
+		if (graph == null) {
+			return;
+		}
+		key = BlockKey.of(block);
+		if (!graph.getChunks().contains(BlockKey.chunkOf(key))) {
+			return;
+		}
+		if (isSignChange) {
+			graph.markSignChanged(key);
+		}
+		else {
+			graph.markDirty(key);
+		}
+	}
+
+	/**
+	 * Event handler when a block is placed.
+	 *
+	 * @param event  data of the placed block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		markDirty(event.getBlock(), false);
+	}
+
+	/**
+	 * Event handler when a block is broken.
+	 *
+	 * @param event  data of the broken block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBreak(BlockBreakEvent event) {
+		markDirty(event.getBlock(), false);
+	}
+
+	/**
+	 * Event handler when the text of a sign is changed.
+	 *
+	 * @param event  data of the changed sign
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onSignChange(SignChangeEvent event) {
+		markDirty(event.getBlock(), true);
+	}
+
+	/**
+	 * Event handler when a block is told that a block next to it changed,
+	 * which catches changes made without a place or break event (water,
+	 * pistons, explosions, ...).
+	 *
+	 * @param event  data of the block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPhysics(BlockPhysicsEvent event) {
+		markDirty(event.getBlock(), false);
+	}
+
+	/**
+	 * Event handler when a world is unloaded.
+	 *
+	 * @param event  data of the unloaded world
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		graphs.remove(event.getWorld().getUID());
+		tooBig.remove(event.getWorld().getUID());
+	}
+}
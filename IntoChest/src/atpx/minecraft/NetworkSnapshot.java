@@ -0,0 +1,192 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+
+/**
+ * {@code NetworkSnapshot} is a copy of the chunks around crafting tables, with
+ * the compiled filters of the signs and the {@link EndComponent}s of the 
+ * chests/dispensers in them that walks have looked up so far, so paths can be
+ * walked away from the server main thread (see {@link AsyncRouter}).
+ * <p>
+ * The chunks come from a {@link ChunkSnapshotCache}, so taking a snapshot 
+ * only copies chunks that changed since they were last copied. Signs and
+ * chests/dispensers a walk reaches that are not in the snapshot yet are 
+ * looked up for the job of the walk, see {@link AsyncRouter.Job}.
+ * <p>
+ * A snapshot is filled from the server main thread and only read afterwards,
+ * from any thread. It must not be filled any further once it has been handed
+ * to another thread.
+ *
+ * @author Jeff Lee
+ */
+public class NetworkSnapshot implements BlockView {
+
+	private final World world;
+	private final LongObjectHashMap<ChunkSnapshot> chunks = 
+			new LongObjectHashMap<ChunkSnapshot>();
+	private final LongObjectHashMap<SignFilter> filters = 
+			new LongObjectHashMap<SignFilter>();
+	private final LongObjectHashMap<EndComponent> ends = 
+			new LongObjectHashMap<EndComponent>();
+	private final ArrayList<EndComponent> endList = new ArrayList<EndComponent>();
+	private final LongHashSet centers = new LongHashSet();  //Blocks captured around
+
+	/**
+	 * Creates an empty snapshot of a world.
+	 *
+	 * @param world  the world
+	 */
+	public NetworkSnapshot(World world) {
+		this.world = world;
+	}
+
+	/**
+	 * Gets the world the snapshot is a copy of.
+	 *
+	 * @return the world
+	 */
+	public World getWorld() {
+		return world;
+	}
+
+	/**
+	 * Adds the chunks within a distance of a block to the snapshot, with the
+	 * signs and chests/dispensers looked up in them so far. Chunks that are
+	 * already in the snapshot or not loaded are skipped, and so is a block 
+	 * the chunks were added around before. Must be called from the server 
+	 * main thread.
+	 *
+	 * @param key  block key of the block
+	 * @param radius  distance in chunks
+	 * @param chunkCache  holds the copies of the chunks
+	 */
+	public void capture(long key, int radius, ChunkSnapshotCache chunkCache) {
+		int chunkX = BlockKey.x(key) >> 4;
+		int chunkZ = BlockKey.z(key) >> 4;
+		ChunkSnapshotCache.CachedChunk chunk;
+
+		if (!centers.add(key)) {
+			return;
+		}
+		for (int x = chunkX - radius; x <= chunkX + radius; x++) {
+			for (int z = chunkZ - radius; z <= chunkZ + radius; z++) {
+				if (chunks.containsKey(BlockKey.chunk(x, z))) {
+					continue;
+				}
+				chunk = chunkCache.get(world, x, z);
+				if (chunk != null) {
+					add(chunk);
+				}
+			}
+		}
+	}
+
+	private void add(ChunkSnapshotCache.CachedChunk chunk) {
+		LongObjectHashMap<SignFilter> chunkFilters = chunk.getFilters();
+		LongObjectHashMap<EndComponent> chunkEnds = chunk.getEnds();
+		ChunkSnapshot snapshot = chunk.getSnapshot();
+
+		chunks.put(BlockKey.chunk(snapshot.getX(), snapshot.getZ()), snapshot);
+		for (int slot = 0; slot < chunkFilters.capacity(); slot++) {
+			if (chunkFilters.valueAt(slot) != null) {
+				filters.put(chunkFilters.keyAt(slot), chunkFilters.valueAt(slot));
+			}
+		}
+		for (int slot = 0; slot < chunkEnds.capacity(); slot++) {
+			if (chunkEnds.valueAt(slot) != null) {
+				ends.put(chunkEnds.keyAt(slot), chunkEnds.valueAt(slot));
+				endList.add(chunkEnds.valueAt(slot));
+			}
+		}
+	}
+
+	/**
+	 * Is a block inside the chunks of the snapshot?
+	 *
+	 * @param x  x coordinate of the block
+	 * @param z  z coordinate of the block
+	 * @return true if its chunk was copied
+	 */
+	public boolean contains(int x, int z) {
+		return chunks.containsKey(BlockKey.chunk(x >> 4, z >> 4));
+	}
+
+	/**
+	 * Gets the type of a block as it was when its chunk was copied.
+	 *
+	 * @return the type of the block, or air if its chunk was not copied
+	 */
+	@Override
+	@SuppressWarnings("deprecation")
+	public Material getType(int x, int y, int z) {
+		ChunkSnapshot chunk = chunks.get(BlockKey.chunk(x >> 4, z >> 4));
+
+		if (chunk == null || y < 0 || y > 255) {
+			return Material.AIR;
+		}
+		return Material.getMaterial(chunk.getBlockTypeId(x & 15, y, z & 15));
+	}
+
+	/**
+	 * Gets the compiled filter of a sign in the snapshot.
+	 *
+	 * @param key  block key of the sign
+	 * @return the filter or null if the sign has not been looked up
+	 */
+	public SignFilter getFilter(long key) {
+		return filters.get(key);
+	}
+
+	/**
+	 * Gets the chest or dispenser at a block of the snapshot.
+	 *
+	 * @param key  block key of the chest/dispenser
+	 * @return the end component or null if it has not been looked up
+	 */
+	public EndComponent getEnd(long key) {
+		return ends.get(key);
+	}
+
+	/**
+	 * Gets the number of chests/dispensers in the snapshot. Both halves of a
+	 * double chest are counted.
+	 *
+	 * @return number of chests/dispensers
+	 */
+	public int getEndCount() {
+		return endList.size();
+	}
+
+	/**
+	 * Gets a chest or dispenser of the snapshot.
+	 *
+	 * @param i  index of the chest/dispenser
+	 * @return the end component
+	 */
+	public EndComponent getEndAt(int i) {
+		return endList.get(i);
+	}
+}
@@ -0,0 +1,610 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+
+import java.util.Arrays;
+
+/**
+ * {@code PathWalker} walks the IntoChest path of redstone wire, signs,
+ * chests and dispensers that starts at a block, looking for an end component
+ * to store an item in.
+ * <p>
+ * The walk is a depth-first search that checks north, east, south and west
+ * of every block in that order, stepping one block down into air and one
+ * block up over a solid block like redstone wire does. It uses an explicit
+ * stack instead of recursion so paths of any length cannot overflow the
+ * thread stack, and remembers visited blocks as block keys (see
+ * {@link BlockKey}) in a primitive set.
+ * <p>
+ * Blocks are read through a {@link BlockView}, so the same walk runs on the
+ * live world from the server thread or on a copy of its chunks from any
+ * other thread.
+ * <p>
+ * Every walk can be limited to a number of blocks and an amount of time. A
+ * walk that runs out of either stops where it is and reports
+ * {@link Result#BUDGET_EXCEEDED} rather than holding up the server tick.
+ * <p>
+ * A walker is reused between walks to avoid allocations. Not thread-safe.
+ *
+ * @author Jeff Lee
+ */
+public class PathWalker {
+
+	/**
+	 * Outcome of a walk.
+	 */
+	public enum Result {
+		FOUND,
+		NOT_FOUND,
+		BUDGET_EXCEEDED
+	}
+
+	/**
+	 * What to do with a block the walk has reached.
+	 */
+	public enum Visit {
+		/** Block is where the walk ends. */
+		FOUND,
+		/** Block is part of the path, keep walking through it. */
+		PASS,
+		/** Block may not be walked through, but may be reached again later. */
+		BLOCK
+	}
+
+	/**
+	 * Decides what each block on the path means for the item being routed.
+	 */
+	public interface Visitor {
+		/**
+		 * Looks at a component block the walk has reached for the first time.
+		 *
+		 * @param key  block key of the component block
+		 * @param type  the type of the block
+		 * @return what the walk should do with the block
+		 */
+		Visit visit(long key, Material type);
+	}
+
+	//Directions in the order the original recursive walk checked them
+	private static final int[] DIR_X = {0, 1, 0, -1};   //North, east, south, west
+	private static final int[] DIR_Z = {-1, 0, 1, 0};
+	private static final int TIME_CHECK_MASK = 63;      //Only read the clock every 64 blocks
+
+	private final LongHashSet visited = new LongHashSet(256);
+
+	//Explicit stack of blocks whose neighbours are still being checked
+	private long[] stackKeys = new long[64];
+	private byte[] stackDirs = new byte[64];           //Next direction to check
+	private boolean[] stackAboveAir = new boolean[64]; //Is the block above air?
+	private int stackSize;
+
+	//Walks over a compiled graph mark visited nodes with the current epoch instead
+	private int[] marks = new int[64];
+	private int epoch = 1;
+	private int[] stackNodes = new int[64];            //A region being crossed is ~region
+	//Regions of a compiled graph entered, or walked node by node, with the current epoch
+	private int[] regionMarks = new int[16];
+	private int[] expandedMarks = new int[16];
+	private int[] regionPortals = new int[16];         //Portal each region was entered at
+	private int[] regionSteps = new int[16];           //Step out of each region being taken
+	private int[] regionCounts = new int[16];          //Members counted towards the budget
+	private int[] regionNodes = new int[64];           //Reused when walking a region node by node
+	private byte[] regionDirs = new byte[64];
+
+	private int maxNodes;
+	private long maxNanos;
+
+	private int nodesVisited;
+	private long foundKey;
+	private LongHashSet touched;                       //Records every block looked at, may be null
+
+	/**
+	 * Creates a walker.
+	 *
+	 * @param maxNodes  most blocks a walk may reach, 0 for no limit
+	 * @param maxMillis  most time in milliseconds a walk may take, 0 for no limit
+	 */
+	public PathWalker(int maxNodes, long maxMillis) {
+		setBudget(maxNodes, maxMillis);
+	}
+
+	/**
+	 * Sets the limits of every walk.
+	 *
+	 * @param maxNodes  most blocks a walk may reach, 0 for no limit
+	 * @param maxMillis  most time in milliseconds a walk may take, 0 for no limit
+	 */
+	public void setBudget(int maxNodes, long maxMillis) {
+		this.maxNodes = maxNodes > 0 ? maxNodes : Integer.MAX_VALUE;
+		this.maxNanos = maxMillis > 0 ? maxMillis * 1000000L : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Forgets all visited blocks. Must be called before routing a new item.
+	 * Walks in between share their visited blocks, so a second walk for the
+	 * same item never goes over blocks the first walk went through.
+	 */
+	public void reset() {
+		visited.clear();
+		if (++epoch == 0) {
+			Arrays.fill(marks, 0);
+			Arrays.fill(regionMarks, 0);
+			Arrays.fill(expandedMarks, 0);
+			epoch = 1;
+		}
+	}
+
+	/**
+	 * Sets a set that every block a walk looks at gets added to, whether it
+	 * turned out to be part of the path or not. A change to any block outside
+	 * of this set cannot change the outcome of the walk.
+	 *
+	 * @param touched  the set to record into, or null to stop recording
+	 */
+	public void setTouched(LongHashSet touched) {
+		this.touched = touched;
+	}
+
+	/**
+	 * Gets the number of blocks the last walk reached.
+	 *
+	 * @return number of blocks
+	 */
+	public int getNodesVisited() {
+		return nodesVisited;
+	}
+
+	/**
+	 * Gets the block key of the end of the last walk that returned
+	 * {@link Result#FOUND}.
+	 *
+	 * @return block key of the found block
+	 */
+	public long getFoundKey() {
+		return foundKey;
+	}
+
+	/**
+	 * Walks the path starting at a block.
+	 *
+	 * @param view  the blocks of the world of the path
+	 * @param startKey  block key of the block to start at
+	 * @param visitor  decides what each component block means
+	 * @return the outcome of the walk
+	 */
+	public Result walk(BlockView view, long startKey, Visitor visitor) {
+		long start = System.nanoTime();
+		Visit visit;
+		Material type;
+		long key;
+		long nextKey;
+		int dir;
+		int x;
+		int y;
+		int z;
+
+		nodesVisited = 0;
+		stackSize = 0;
+
+		//The start block is always entered, whatever its type
+		if (visited.contains(startKey)) {
+			return Result.NOT_FOUND;
+		}
+		type = typeAt(view, BlockKey.x(startKey), BlockKey.y(startKey),
+				BlockKey.z(startKey));
+		nodesVisited++;
+		visit = visitor.visit(startKey, type);
+		if (visit == Visit.FOUND) {
+			foundKey = startKey;
+			return Result.FOUND;
+		}
+		if (visit == Visit.BLOCK) {
+			return Result.NOT_FOUND;
+		}
+		push(view, startKey);
+
+		while (stackSize > 0) {
+			dir = stackDirs[stackSize - 1];
+			if (dir == DIR_X.length) {
+				stackSize--;
+				continue;
+			}
+			stackDirs[stackSize - 1]++;
+
+			//Find the component in this direction, if there is one
+			key = stackKeys[stackSize - 1];
+			x = BlockKey.x(key) + DIR_X[dir];
+			y = BlockKey.y(key);
+			z = BlockKey.z(key) + DIR_Z[dir];
+			type = typeAt(view, x, y, z);
+			if (!isBlockTypeAComponent(type)) {
+				if (type == Material.AIR) {                  //Down one step
+					y--;
+				}
+				else if (stackAboveAir[stackSize - 1]) {      //Up one step
+					y++;
+				}
+				else {
+					continue;
+				}
+				type = typeAt(view, x, y, z);
+				if (!isBlockTypeAComponent(type)) {
+					continue;
+				}
+			}
+
+			nextKey = BlockKey.of(x, y, z);
+			if (visited.contains(nextKey)) {
+				continue;
+			}
+
+			//Stop cleanly once the walk has used up its budget
+			nodesVisited++;
+			if (nodesVisited > maxNodes ||
+					((nodesVisited & TIME_CHECK_MASK) == 0 &&
+					 System.nanoTime() - start > maxNanos)) {
+				stackSize = 0;
+				return Result.BUDGET_EXCEEDED;
+			}
+
+			visit = visitor.visit(nextKey, type);
+			if (visit == Visit.FOUND) {
+				stackSize = 0;
+				foundKey = nextKey;
+				return Result.FOUND;
+			}
+			if (visit == Visit.PASS) {
+				push(view, nextKey);
+			}
+		}
+		return Result.NOT_FOUND;
+	}
+
+	/**
+	 * Walks a compiled graph starting at a block. Visits the same blocks in
+	 * the same order as walking the world the graph was compiled from, but
+	 * never looks at the world and records nothing into the touched set.
+	 * <p>
+	 * Runs of plain wire between two other nodes are jumped over instead (see
+	 * {@link NetworkGraph#getJump(int, int)}), and regions of plain wire are
+	 * crossed through their portals (see {@link NetworkGraph#getRegion(int)}):
+	 * the visitor is not told about those wires, as it would only have passed
+	 * through, but they still count towards the node budget. A region the 
+	 * walk comes back into through a member it has not reached yet is walked
+	 * node by node from there on.
+	 * <p>
+	 * Walks over the graph and over the world between two resets do not share
+	 * their visited blocks, so a reset must come before switching.
+	 *
+	 * @param graph  the graph of the path
+	 * @param startKey  block key of the block to start at, which must be a
+	 *                  node of the graph for the walk to go anywhere
+	 * @param visitor  decides what each component block means
+	 * @return the outcome of the walk
+	 */
+	public Result walk(NetworkGraph graph, long startKey, Visitor visitor) {
+		long start = System.nanoTime();
+		int node = graph.nodeOf(startKey);
+		Visit visit;
+		int from;
+		int dir;
+		int next;
+		int jump;
+		int mark;
+		int region;
+		int portal;
+		int weight;
+		boolean isTimed;
+
+		nodesVisited = 0;
+		stackSize = 0;
+		if (marks.length < graph.size()) {
+			marks = Arrays.copyOf(marks, Math.max(graph.size(), marks.length << 1));
+		}
+		if (regionMarks.length < graph.getRegionCount()) {
+			growRegions(graph.getRegionCount());
+		}
+
+		//The start block is always entered, whatever its type
+		if (node < 0 || marks[node] == epoch) {
+			return Result.NOT_FOUND;
+		}
+		nodesVisited++;
+		visit = visitor.visit(startKey, graph.getType(node));
+		if (visit == Visit.FOUND) {
+			foundKey = startKey;
+			return Result.FOUND;
+		}
+		if (visit == Visit.BLOCK) {
+			return Result.NOT_FOUND;
+		}
+		push(node);
+
+		while (stackSize > 0) {
+			from = stackNodes[stackSize - 1];
+			if (from >= 0) {
+				dir = stackDirs[stackSize - 1];
+				if (dir == DIR_X.length) {
+					stackSize--;
+					continue;
+				}
+				stackDirs[stackSize - 1]++;
+			}
+			else {
+				//Count the members of the region reached up to its next step out
+				region = ~from;
+				portal = regionPortals[region];
+				regionSteps[region]++;
+				weight = graph.getReached(region, portal, regionSteps[region]) - 
+						regionCounts[region];
+				regionCounts[region] += weight;
+				isTimed = (nodesVisited | TIME_CHECK_MASK) < nodesVisited + weight;
+				nodesVisited += weight;
+				if (nodesVisited > maxNodes ||
+						(isTimed && System.nanoTime() - start > maxNanos)) {
+					stackSize = 0;
+					return Result.BUDGET_EXCEEDED;
+				}
+				if (regionSteps[region] == graph.getExitCount(region, portal)) {
+					stackSize--;
+					continue;
+				}
+				from = graph.getExitNode(region, portal, regionSteps[region]);
+				dir = graph.getExitDir(region, portal, regionSteps[region]);
+			}
+
+			next = graph.getEdge(from, dir);
+			if (next == NetworkGraph.NONE || marks[next] == epoch) {
+				continue;
+			}
+
+			//Jump over a run of plain wire, it would only be passed through
+			if (graph.isLink(next) && !graph.isLink(from)) {
+				jump = graph.getJump(from, dir);
+				if (jump >= 0) {
+					mark = graph.getJumpMark(jump);
+					if (marks[mark] == epoch) {
+						continue;
+					}
+					marks[mark] = epoch;
+					//Read the clock if the jump went past a multiple of 64 blocks
+					isTimed = (nodesVisited | TIME_CHECK_MASK) < nodesVisited +
+							graph.getJumpWeight(jump);
+					nodesVisited += graph.getJumpWeight(jump);
+					if (nodesVisited > maxNodes ||
+							(isTimed && System.nanoTime() - start > maxNanos)) {
+						stackSize = 0;
+						return Result.BUDGET_EXCEEDED;
+					}
+					next = graph.getJumpTarget(jump);
+					if (marks[next] == epoch) {
+						continue;
+					}
+				}
+			}
+
+			//A member of a region being crossed may have been reached already.
+			//If not, the region is walked node by node from here on
+			region = graph.getRegion(next);
+			if (region != NetworkGraph.NONE && expandedMarks[region] != epoch && 
+					regionMarks[region] == epoch) {
+				if (graph.isReached(region, regionPortals[region], regionSteps[region], next)) {
+					continue;
+				}
+				expand(graph, region);
+			}
+
+			//Stop cleanly once the walk has used up its budget
+			nodesVisited++;
+			if (nodesVisited > maxNodes ||
+					((nodesVisited & TIME_CHECK_MASK) == 0 &&
+					 System.nanoTime() - start > maxNanos)) {
+				stackSize = 0;
+				return Result.BUDGET_EXCEEDED;
+			}
+
+			visit = visitor.visit(graph.getKey(next), graph.getType(next));
+			if (visit == Visit.FOUND) {
+				stackSize = 0;
+				foundKey = graph.getKey(next);
+				return Result.FOUND;
+			}
+			if (visit != Visit.PASS) {
+				continue;
+			}
+			if (region == NetworkGraph.NONE || expandedMarks[region] == epoch) {
+				push(next);
+			}
+			else if (graph.getPortal(next) == NetworkGraph.NONE) {
+				expandedMarks[region] = epoch;
+				push(next);
+			}
+			else {
+				enter(graph, region, next);
+			}
+		}
+		return Result.NOT_FOUND;
+	}
+
+	/**
+	 * Is a block's type a component that is valid for traversing an IntoChest
+	 * path? Chests, dispensers, redstone wire and signs are.
+	 *
+	 * @param type  the type of the block
+	 * @return true if the type is a component
+	 */
+	public static boolean isBlockTypeAComponent(Material type) {
+		return type == Material.CHEST ||
+				type == Material.DISPENSER ||
+				type == Material.REDSTONE_WIRE ||
+				type == Material.SIGN_POST ||
+				type == Material.WALL_SIGN;
+	}
+
+	/**
+	 * Gets the type of a block, recording it if the walk is being recorded.
+	 */
+	private Material typeAt(BlockView view, int x, int y, int z) {
+		if (touched != null) {
+			touched.add(BlockKey.of(x, y, z));
+		}
+		return view.getType(x, y, z);
+	}
+
+	/**
+	 * Marks a block as visited and puts it on the stack so its neighbours get
+	 * checked.
+	 */
+	private void push(BlockView view, long key) {
+		int x = BlockKey.x(key);
+		int y = BlockKey.y(key);
+		int z = BlockKey.z(key);
+
+		visited.add(key);
+		if (stackSize == stackKeys.length) {
+			stackKeys = Arrays.copyOf(stackKeys, stackSize << 1);
+			stackDirs = Arrays.copyOf(stackDirs, stackSize << 1);
+			stackAboveAir = Arrays.copyOf(stackAboveAir, stackSize << 1);
+		}
+		stackKeys[stackSize] = key;
+		stackDirs[stackSize] = 0;
+		stackAboveAir[stackSize] = typeAt(view, x, y + 1, z) == Material.AIR;
+		stackSize++;
+	}
+
+	/**
+	 * Enters a region of a compiled graph at one of its portals, putting the
+	 * region on the stack so its steps out of it get taken.
+	 */
+	private void enter(NetworkGraph graph, int region, int node) {
+		marks[node] = epoch;
+		regionMarks[region] = epoch;
+		regionPortals[region] = graph.getPortal(node);
+		regionSteps[region] = -1;
+		regionCounts[region] = 1;
+		if (stackSize == stackNodes.length) {
+			stackNodes = Arrays.copyOf(stackNodes, stackSize << 1);
+		}
+		if (stackSize == stackDirs.length) {
+			stackDirs = Arrays.copyOf(stackDirs, stackSize << 1);
+		}
+		stackNodes[stackSize++] = ~region;
+	}
+
+	/**
+	 * Turns a region being crossed into the nodes a walk through it would 
+	 * have on the stack, walking it again from its portal up to the step out
+	 * of it being taken. Every member reached by then is marked visited, and
+	 * the region is walked node by node from then on.
+	 */
+	private void expand(NetworkGraph graph, int region) {
+		int portal = regionPortals[region];
+		int steps = regionSteps[region];
+		int frame = stackSize - 1;
+		int count = 1;
+		int node;
+		int dir;
+		int next;
+
+		expandedMarks[region] = epoch;
+		while (frame >= 0 && stackNodes[frame] != ~region) {
+			frame--;
+		}
+		node = graph.getPortalNode(region, portal);
+		marks[node] = epoch;
+		regionNodes[0] = node;
+		regionDirs[0] = 0;
+		while (count > 0) {
+			node = regionNodes[count - 1];
+			dir = regionDirs[count - 1];
+			if (dir == DIR_X.length) {
+				count--;
+				continue;
+			}
+			regionDirs[count - 1]++;
+			next = graph.getEdge(node, dir);
+			if (next == NetworkGraph.NONE) {
+				continue;
+			}
+			if (graph.getRegion(next) != region) {
+				if (steps-- == 0) {
+					break;
+				}
+				continue;
+			}
+			if (marks[next] != epoch) {
+				marks[next] = epoch;
+				if (count == regionNodes.length) {
+					regionNodes = Arrays.copyOf(regionNodes, count << 1);
+					regionDirs = Arrays.copyOf(regionDirs, count << 1);
+				}
+				regionNodes[count] = next;
+				regionDirs[count++] = (byte) 0;
+			}
+		}
+
+		//The walk was cut short in the region, nothing is left to take over
+		if (frame < 0) {
+			return;
+		}
+		if (stackSize + count > stackNodes.length) {
+			stackNodes = Arrays.copyOf(stackNodes, (stackSize + count) << 1);
+		}
+		if (stackSize + count > stackDirs.length) {
+			stackDirs = Arrays.copyOf(stackDirs, (stackSize + count) << 1);
+		}
+		System.arraycopy(stackNodes, frame + 1, stackNodes, frame + count, 
+				stackSize - frame - 1);
+		System.arraycopy(stackDirs, frame + 1, stackDirs, frame + count, 
+				stackSize - frame - 1);
+		System.arraycopy(regionNodes, 0, stackNodes, frame, count);
+		System.arraycopy(regionDirs, 0, stackDirs, frame, count);
+		stackSize += count - 1;
+	}
+
+	private void growRegions(int count) {
+		int length = Math.max(count, regionMarks.length << 1);
+
+		regionMarks = Arrays.copyOf(regionMarks, length);
+		expandedMarks = Arrays.copyOf(expandedMarks, length);
+		regionPortals = Arrays.copyOf(regionPortals, length);
+		regionSteps = Arrays.copyOf(regionSteps, length);
+		regionCounts = Arrays.copyOf(regionCounts, length);
+	}
+
+	/**
+	 * Marks a node as visited and puts it on the stack so its edges get
+	 * checked.
+	 */
+	private void push(int node) {
+		marks[node] = epoch;
+		if (stackSize == stackNodes.length) {
+			stackNodes = Arrays.copyOf(stackNodes, stackSize << 1);
+		}
+		if (stackSize == stackDirs.length) {
+			stackDirs = Arrays.copyOf(stackDirs, stackSize << 1);
+		}
+		stackNodes[stackSize] = node;
+		stackDirs[stackSize] = 0;
+		stackSize++;
+	}
+}
@@ -0,0 +1,470 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@code RouteCache} remembers where the walk from a crafting table led for
+ * an item type, so the same item on the same crafting table does not have to
+ * walk the whole redstone path and read every sign again.
+ * <p>
+ * A cached {@link Route} lists the chests/dispensers the walk reached, in the
+ * order it reached them. Whether they are full only decides where the walk
+ * stops, not which blocks it goes through, so re-checking the listed end
+ * components in order gives the same answer as walking again, as long as no
+ * block the walk looked at has changed. Every route is therefore indexed by
+ * each block the walk looked at (see {@link PathWalker#setTouched(LongHashSet)})
+ * and dropped as soon as a block place, block break, sign change or block
+ * physics event touches one of them.
+ * <p>
+ * A walk that gave up because the path was too long to walk within budget
+ * is remembered the same way (see {@link #putOverBudget}), so it is not
+ * walked again every cycle until a block it looked at changes or 
+ * {@link #OVER_BUDGET_NANOS} have passed.
+ * <p>
+ * The cache holds a bounded number of routes and drops the least recently
+ * used one when full.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class RouteCache implements Listener {
+
+	/**
+	 * Where the walk from a crafting table led for an item type.
+	 */
+	public static final class Route {
+		private final long[] ends;
+		private final boolean isFound;
+		private final boolean isWildcardWalked;
+		private long[] touched;
+		private boolean isOverBudget;
+		private long overBudgetNanos;   //System.nanoTime() the walk gave up at
+
+		/**
+		 * Creates a route.
+		 *
+		 * @param ends  block keys of the end components reached, in order
+		 * @param isFound  true if the walk stopped at the last end component,
+		 *                 false if it went through every block it could reach
+		 * @param isWildcardWalked  true if the ends were reached by walking on
+		 *                          from a wildcard sign
+		 */
+		public Route(long[] ends, boolean isFound, boolean isWildcardWalked) {
+			this.ends = ends;
+			this.isFound = isFound;
+			this.isWildcardWalked = isWildcardWalked;
+		}
+
+		/**
+		 * Gets the number of end components reached.
+		 *
+		 * @return number of end components
+		 */
+		public int size() {
+			return ends.length;
+		}
+
+		/**
+		 * Gets the block key of an end component reached.
+		 *
+		 * @param i  index of the end component, in the order they were reached
+		 * @return the block key
+		 */
+		public long getEnd(int i) {
+			return ends[i];
+		}
+
+		/**
+		 * Did the walk stop at the last end component because it had room for
+		 * the rest of the items? If so, there may be more end components 
+		 * behind it that were never reached.
+		 *
+		 * @return true if the walk stopped at the last end component
+		 */
+		public boolean isFound() {
+			return isFound;
+		}
+
+		/**
+		 * Were the end components reached by walking on from a wildcard sign
+		 * because the first walk did not reach any?
+		 *
+		 * @return true if a wildcard sign was walked through
+		 */
+		public boolean isWildcardWalked() {
+			return isWildcardWalked;
+		}
+
+		/**
+		 * Did the walk give up because the path was too long to walk within
+		 * budget? If so, the route reaches no end component and the items 
+		 * are to be left where they are.
+		 *
+		 * @return true if the walk gave up
+		 */
+		public boolean isOverBudget() {
+			return isOverBudget;
+		}
+	}
+
+	/**
+	 * Identifies a crafting table and item type.
+	 */
+	private static final class Key {
+		private UUID worldId;
+		private long workKey;
+		private int itemKey;
+
+		Key() {
+		}
+
+		Key(UUID worldId, long workKey, int itemKey) {
+			this.worldId = worldId;
+			this.workKey = workKey;
+			this.itemKey = itemKey;
+		}
+
+		@Override
+		public int hashCode() {
+			return (LongHashSet.hash(workKey) * 31 + itemKey) * 31 +
+					worldId.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			Key other;
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			other = (Key) obj;
+			return workKey == other.workKey && itemKey == other.itemKey &&
+					worldId.equals(other.worldId);
+		}
+	}
+
+	//Time after which a walk that gave up is tried again, even if no block it looked at changed
+	public static final long OVER_BUDGET_NANOS = 30000000000L;
+
+	private final int maxSize;
+	private final LinkedHashMap<Key, Route> routes;
+	//Per world, every block a cached walk looked at mapped to the routes of those walks
+	private final HashMap<UUID, LongObjectHashMap<ArrayList<Key>>> index =
+			new HashMap<UUID, LongObjectHashMap<ArrayList<Key>>>();
+	private final Key probe = new Key();   //Reused for lookups so they do not allocate
+	private long changes;                  //Number of block changes seen
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxSize  most routes to hold, 0 to disable caching
+	 */
+	public RouteCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.routes = new LinkedHashMap<Key, Route>(16, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Route> eldest) {
+				if (size() > RouteCache.this.maxSize) {
+					unindex(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets the number of cached routes.
+	 *
+	 * @return number of routes
+	 */
+	public int size() {
+		return routes.size();
+	}
+
+	/**
+	 * Gets the number of block changes the cache has seen, whether they 
+	 * dropped a route or not. A route walked on a copy of the world may only 
+	 * be cached if no block changed since the copy was taken.
+	 *
+	 * @return number of block changes
+	 */
+	public long getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Gets the cached route of an item type on a crafting table.
+	 *
+	 * @param world  the world of the crafting table
+	 * @param workKey  block key of the crafting table
+	 * @param itemKey  item key of the item (see {@link ItemKey})
+	 * @return the route or null if there is none
+	 */
+	public Route get(World world, long workKey, int itemKey) {
+		Route route;
+
+		if (routes.isEmpty()) {
+			return null;
+		}
+		probe.worldId = world.getUID();
+		probe.workKey = workKey;
+		probe.itemKey = itemKey;
+		route = routes.get(probe);
+		if (route != null && route.isOverBudget() && 
+				System.nanoTime() - route.overBudgetNanos >= OVER_BUDGET_NANOS) {
+			routes.remove(probe);
+			unindex(probe, route);
+			return null;
+		}
+		return route;
+	}
+
+	/**
+	 * Caches the route of an item type on a crafting table.
+	 *
+	 * @param world  the world of the crafting table
+	 * @param workKey  block key of the crafting table
+	 * @param itemKey  item key of the item (see {@link ItemKey})
+	 * @param route  the route
+	 * @param touched  every block the walks for the route looked at
+	 */
+	public void put(World world, long workKey, int itemKey, Route route,
+			LongHashSet touched) {
+		Key key;
+		Route old;
+		LongObjectHashMap<ArrayList<Key>> worldIndex;
+		ArrayList<Key> keys;
+
+		if (maxSize <= 0) {
+			return;
+		}
+		key = new Key(world.getUID(), workKey, itemKey);
+		old = routes.remove(key);
+		if (old != null) {
+			unindex(key, old);
+		}
+
+		route.touched = touched.toArray();
+		worldIndex = index.get(key.worldId);
+		if (worldIndex == null) {
+			worldIndex = new LongObjectHashMap<ArrayList<Key>>();
+			index.put(key.worldId, worldIndex);
+		}
+		for (long blockKey : route.touched) {
+			keys = worldIndex.get(blockKey);
+			if (keys == null) {
+				keys = new ArrayList<Key>(2);
+				worldIndex.put(blockKey, keys);
+			}
+			keys.add(key);
+		}
+		routes.put(key, route);
+	}
+
+	/**
+	 * Remembers that the walk of an item type on a crafting table gave up
+	 * because the path was too long to walk within budget. Until a block the
+	 * walk looked at changes or {@link #OVER_BUDGET_NANOS} have passed, 
+	 * {@link #get} returns a route that {@link Route#isOverBudget() is over
+	 * budget}.
+	 *
+	 * @param world  the world of the crafting table
+	 * @param workKey  block key of the crafting table
+	 * @param itemKey  item key of the item (see {@link ItemKey})
+	 * @param touched  every block the walk looked at
+	 */
+	public void putOverBudget(World world, long workKey, int itemKey, 
+			LongHashSet touched) {
+		Route route = new Route(new long[0], false, false);
+
+		route.isOverBudget = true;
+		route.overBudgetNanos = System.nanoTime();
+		put(world, workKey, itemKey, route, touched);
+	}
+
+	/**
+	 * Drops every route whose walk looked at a block.
+	 *
+	 * @param world  the world of the block
+	 * @param blockKey  block key of the block
+	 */
+	public void invalidate(World world, long blockKey) {
+		LongObjectHashMap<ArrayList<Key>> worldIndex;
+		ArrayList<Key> keys;
+		Route route;
+
+		if (routes.isEmpty()) {
+			return;
+		}
+		worldIndex = index.get(world.getUID());
+		if (worldIndex == null) {
+			return;
+		}
+		keys = worldIndex.get(blockKey);
+		if (keys == null) {
+			return;
+		}
+		//Copy as unindexing changes the list we are walking
+		for (Key key : keys.toArray(new Key[keys.size()])) {
+			route = routes.remove(key);
+			if (route != null) {
+				unindex(key, route);
+			}
+		}
+	}
+
+	/**
+	 * Drops every route of a crafting table, whatever blocks its walk looked
+	 * at.
+	 *
+	 * @param world  the world of the crafting table
+	 * @param workKey  block key of the crafting table
+	 */
+	public void invalidateWorkbench(World world, long workKey) {
+		ArrayList<Key> keys = new ArrayList<Key>();
+		UUID worldId;
+
+		if (routes.isEmpty()) {
+			return;
+		}
+		worldId = world.getUID();
+		for (Key key : routes.keySet()) {
+			if (key.workKey == workKey && key.worldId.equals(worldId)) {
+				keys.add(key);
+			}
+		}
+		for (Key key : keys) {
+			unindex(key, routes.remove(key));
+		}
+	}
+
+	/**
+	 * Drops every route.
+	 */
+	public void clear() {
+		routes.clear();
+		index.clear();
+	}
+
+	/**
+	 * Removes a route from the block index.
+	 */
+	private void unindex(Key key, Route route) {
+		LongObjectHashMap<ArrayList<Key>> worldIndex = index.get(key.worldId);
+		ArrayList<Key> keys;
+
+		if (worldIndex == null) {
+			return;
+		}
+		for (long blockKey : route.touched) {
+			keys = worldIndex.get(blockKey);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					worldIndex.remove(blockKey);
+				}
+			}
+		}
+	}
+
+	private void invalidate(Block block) {
+		changes++;
+		invalidate(block.getWorld(), BlockKey.of(block));
+	}
+
+	/**
+	 * Event handler when a block is placed.
+	 *
+	 * @param event  data of the placed block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a block is broken.
+	 *
+	 * @param event  data of the broken block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBreak(BlockBreakEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Event handler when the text of a sign is changed.
+	 *
+	 * @param event  data of the changed sign
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onSignChange(SignChangeEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a block is told that a block next to it changed.
+	 * Any block a walk looked at is next to another block it looked at, so
+	 * this catches changes made without a place or break event (water,
+	 * pistons, explosions, ...).
+	 *
+	 * @param event  data of the block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPhysics(BlockPhysicsEvent event) {
+		if (!routes.isEmpty()) {
+			invalidate(event.getBlock());
+		}
+		else {
+			changes++;
+		}
+	}
+
+	/**
+	 * Event handler when a world is unloaded.
+	 *
+	 * @param event  data of the unloaded world
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		UUID worldId = event.getWorld().getUID();
+
+		routes.keySet().removeIf(key -> key.worldId.equals(worldId));
+		index.remove(worldId);
+	}
+}
@@ -0,0 +1,417 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Material;
+
+import java.util.Arrays;
+
+/**
+ * {@code RouteSearch} decides where items sitting on a crafting table go:
+ * which chests/dispensers along its path take how many of them (see
+ * {@link InsertPlan}) and which full chest/dispenser the rest is moved on top
+ * of.
+ * <p>
+ * A chest/dispenser with room for the rest of the items ends the walk, one
+ * with room for some of them is added to the plan and walked past. A sign
+ * that does not allow the item stops the walk from going through it. A
+ * wildcard sign ("*") only lets the item through once the rest of the path
+ * has no chest/dispenser at all, by walking on from the wildcard sign in a
+ * second walk.
+ * <p>
+ * How blocks are looked up is left to subclasses, so the same search runs on
+ * the live world from the server thread and on a {@link NetworkSnapshot}
+ * from a worker thread. A search is reused between items to avoid
+ * allocations. Not thread-safe.
+ *
+ * @author Jeff Lee
+ */
+public abstract class RouteSearch implements PathWalker.Visitor, DataValues {
+
+	private final InsertPlan plan = new InsertPlan();
+	private int itemKey;
+	private int amount;
+	private long[] ends = new long[8];   //End components reached, in order
+	private int endCount;
+	private long wildcardKey;            //Wildcard sign to walk on from
+	private boolean hasWildcard;
+	private long fullKey;                //Last end component that was full
+	private boolean hasFull;
+	private boolean isFound;
+	private boolean isWildcardWalked;
+	private RoutingStats stats;          //Where phase times are recorded, null for nowhere
+	private int nodesVisited;            //Blocks walked for these items
+	private int signsEvaluated;          //Signs checked for these items
+	private int chestsProbed;            //Chests/dispensers checked for room for these items
+
+	/**
+	 * Starts a search for new items.
+	 *
+	 * @param itemKey  item key of the items (see {@link ItemKey})
+	 * @param amount  number of items
+	 */
+	public void reset(int itemKey, int amount) {
+		this.itemKey = itemKey;
+		this.amount = amount;
+		plan.reset(amount);
+		endCount = 0;
+		hasWildcard = false;
+		hasFull = false;
+		isFound = false;
+		isWildcardWalked = false;
+		nodesVisited = 0;
+		signsEvaluated = 0;
+		chestsProbed = 0;
+	}
+
+	/**
+	 * Sets where the time taken by walks and sign filters and the number of
+	 * blocks walks reach are recorded.
+	 *
+	 * @param stats  the stats to record into, or null to stop recording
+	 */
+	public void setStats(RoutingStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Walks the path from a crafting table. If the walk reaches no
+	 * chest/dispenser at all but went past a wildcard sign, the path is
+	 * walked on from the wildcard sign.
+	 * <p>
+	 * Blocks that were walked before for the same items are skipped, see
+	 * {@link PathWalker#reset()}.
+	 *
+	 * @param walker  the walker to walk with
+	 * @param view  the blocks of the world of the path
+	 * @param startKey  block key of the crafting table
+	 * @return the outcome of the walk
+	 */
+	public PathWalker.Result walk(PathWalker walker, BlockView view, long startKey) {
+		return walk(walker, view, null, startKey);
+	}
+
+	/**
+	 * Walks the compiled graph of the path from a crafting table, the same way
+	 * {@link #walk(PathWalker, BlockView, long)} walks the world.
+	 *
+	 * @param walker  the walker to walk with
+	 * @param graph  the graph of the path
+	 * @param startKey  block key of the crafting table
+	 * @return the outcome of the walk
+	 */
+	public PathWalker.Result walk(PathWalker walker, NetworkGraph graph, long startKey) {
+		return walk(walker, null, graph, startKey);
+	}
+
+	/**
+	 * Walks the graph if there is one, or else the world.
+	 */
+	private PathWalker.Result walk(PathWalker walker, BlockView view, NetworkGraph graph,
+			long startKey) {
+		PathWalker.Result result;
+		long start = stats != null ? System.nanoTime() : 0;
+		int nodes;
+
+		walker.reset(); //Flush list of traversed blocks
+		plan.reset(amount);
+		endCount = 0;
+		hasFull = false;
+
+		//Look for a valid chest/dispenser, traversing through redstone path
+		result = graph != null ? walker.walk(graph, startKey, this) :
+				walker.walk(view, startKey, this);
+		nodes = walker.getNodesVisited();
+
+		//A wildcard end block was found but there is no end component at all,
+		//so traverse for a valid end component from the wildcard end block.
+		if (result == PathWalker.Result.NOT_FOUND && !hasFull && hasWildcard) {
+			result = graph != null ? walker.walk(graph, wildcardKey, this) :
+					walker.walk(view, wildcardKey, this);
+			nodes += walker.getNodesVisited();
+			isWildcardWalked = true;
+			hasFull = false;   //Items are never moved on top of chests found this way
+		}
+		isFound = result == PathWalker.Result.FOUND;
+		nodesVisited += nodes;
+		if (stats != null) {
+			stats.record(RoutingStats.Phase.TRAVERSAL, System.nanoTime() - start);
+			stats.recordNodes(nodes);
+		}
+		return result;
+	}
+
+	/**
+	 * Plans where the items go using the route a previous walk took from the
+	 * same crafting table, checking the chests/dispensers of the route for
+	 * room in the order the walk reached them. Sets up the plan and the full
+	 * chest/dispenser the same way walking again would.
+	 *
+	 * @param route  the cached route
+	 * @return false if every chest/dispenser of the route is full but the
+	 *         original walk never got to see what lies behind them, so the
+	 *         path has to be walked again
+	 */
+	public boolean follow(RouteCache.Route route) {
+		long endKey = 0;
+		EndComponent end;
+
+		for (int i = 0; i < route.size(); i++) {
+			endKey = route.getEnd(i);
+			end = getEnd(endKey);
+			chestsProbed++;
+			if (plan.add(end, end != null ? getRoom(end) : 0)) {
+				report(MessageType.PATHING, 
+						"Using known route to chest/dispenser: ", endKey);
+				return true;
+			}
+		}
+		if (route.isFound()) {
+			return false;
+		}
+		if (!route.isWildcardWalked() && route.size() > 0) {
+			fullKey = endKey;
+			hasFull = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the route of the last walk, to be cached.
+	 *
+	 * @return the route
+	 */
+	public RouteCache.Route getRoute() {
+		return new RouteCache.Route(Arrays.copyOf(ends, endCount), isFound, 
+				isWildcardWalked);
+	}
+
+	/**
+	 * Gets the plan of which chests/dispensers take how many items.
+	 *
+	 * @return the plan
+	 */
+	public InsertPlan getPlan() {
+		return plan;
+	}
+
+	/**
+	 * Was a full chest/dispenser found that items without room can be moved
+	 * on top of?
+	 *
+	 * @return true if there is one
+	 */
+	public boolean hasFull() {
+		return hasFull;
+	}
+
+	/**
+	 * Gets the block key of the full chest/dispenser items without room are
+	 * moved on top of, see {@link #hasFull()}.
+	 *
+	 * @return the block key
+	 */
+	public long getFullKey() {
+		return fullKey;
+	}
+
+	/**
+	 * Gets the number of blocks walked since {@link #reset(int, int)}.
+	 *
+	 * @return number of blocks
+	 */
+	public int getNodesVisited() {
+		return nodesVisited;
+	}
+
+	/**
+	 * Gets the number of times a sign was checked since 
+	 * {@link #reset(int, int)}.
+	 *
+	 * @return number of sign checks
+	 */
+	public int getSignsEvaluated() {
+		return signsEvaluated;
+	}
+
+	/**
+	 * Gets the number of times a chest/dispenser was checked for room since
+	 * {@link #reset(int, int)}, by walking or by following a cached route.
+	 *
+	 * @return number of checks
+	 */
+	public int getChestsProbed() {
+		return chestsProbed;
+	}
+
+	@Override
+	public PathWalker.Visit visit(long key, Material type) {
+		EndComponent end;
+		long start;
+		boolean isAllowed;
+
+		if (type == Material.CHEST || type == Material.DISPENSER) {
+			if (endCount == ends.length) {
+				ends = Arrays.copyOf(ends, endCount << 1);
+			}
+			ends[endCount++] = key;
+			end = getEnd(key);
+			chestsProbed++;
+			if (plan.add(end, end != null ? getRoom(end) : 0)) {
+				return PathWalker.Visit.FOUND;
+			}
+			report(MessageType.PATHING, 
+					"Filling up chest/dispenser or skipping it because it's full: ", key);
+			fullKey = key;
+			hasFull = true;
+		}
+
+		if (type == Material.SIGN_POST || type == Material.WALL_SIGN) {
+			start = stats != null ? System.nanoTime() : 0;
+			isAllowed = isAllowed(key);
+			signsEvaluated++;
+			if (stats != null) {
+				stats.record(RoutingStats.Phase.FILTER, System.nanoTime() - start);
+			}
+			if (isAllowed) {
+				report(MessageType.PATHING, "Allowed via sign found at: ", key);
+			} 
+			else {
+				if (hasWildcard && key == wildcardKey) {
+					report(MessageType.PATHING,
+							"YET skipping because wildcard was found at: ", key);
+				}
+				else {
+					report(MessageType.PATHING,
+							"Skipping because not allowed via sign found at: ", key);
+				}
+				return PathWalker.Visit.BLOCK;
+			}
+		}
+
+		// Only process this block once per item or we will get infinite loops!
+		return PathWalker.Visit.PASS;
+	}
+
+	/**
+	 * Check if the items are allowed to pass through a sign filter.
+	 * <p>
+	 * A wildcard term before the first term that matches the item lets the
+	 * item through the second time a wildcard is met, which is when the path
+	 * is walked on from the first wildcard sign.
+	 *
+	 * @param key  block key of the sign
+	 * @return true if the items are allowed to pass through the sign filter
+	 */
+	private boolean isAllowed(long key) {
+		SignFilter filter = getFilter(key);
+		int match;
+		int wildcards;
+
+		if (filter == null) {
+			return false;
+		}
+		if (filter == SignFilter.UNREAD) {
+			return true;
+		}
+		match = filter.firstMatch(itemKey);
+		//Wildcards before the first matching term are the ones that count
+		wildcards = match >= 0 ? match : filter.getWildcardCount();
+
+		// Wildcard sign, means "if nothing else matches"
+		for (int i = 0; i < wildcards; i++) {
+			report(MessageType.FILTER, "We have a wildcard! ", key);
+			if (!hasWildcard) {
+				// On the first run stop processing the wildcard and do the rest first.
+				wildcardKey = key;
+				hasWildcard = true;
+			} 
+			else {
+				// Then, on the second run, after everything else, do the wildcard.
+				hasWildcard = false;
+				return true;
+			}
+		}
+
+		if (match >= 0) {
+			if (canReport(MessageType.FILTER)) {
+				report(MessageType.FILTER, "Fit via sign filter: " + 
+						ItemKey.toString(itemKey));
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the chest or dispenser at a block.
+	 *
+	 * @param key  block key of the chest/dispenser
+	 * @return the end component or null if it cannot be looked up
+	 */
+	protected abstract EndComponent getEnd(long key);
+
+	/**
+	 * Gets how many of the items an end component has room for.
+	 *
+	 * @param end  the end component
+	 * @return number of items it can take
+	 */
+	protected abstract int getRoom(EndComponent end);
+
+	/**
+	 * Gets the compiled filter of a sign.
+	 *
+	 * @param key  block key of the sign
+	 * @return the filter, null if it cannot be looked up or 
+	 *         {@link SignFilter#UNREAD} if it has not been read yet
+	 */
+	protected abstract SignFilter getFilter(long key);
+
+	/**
+	 * Should messages of a type be reported?
+	 *
+	 * @param msgType  the message type
+	 * @return true if they are reported, false by default
+	 */
+	protected boolean canReport(MessageType msgType) {
+		return false;
+	}
+
+	/**
+	 * Reports a debug message. Does nothing by default.
+	 *
+	 * @param msgType  the message type
+	 * @param text  the message string
+	 */
+	protected void report(MessageType msgType, String text) {
+	}
+
+	/**
+	 * Reports a debug message that ends with the location of a block. Does
+	 * nothing by default.
+	 *
+	 * @param msgType  the message type
+	 * @param text  the message string
+	 * @param key  block key of the block
+	 */
+	protected void report(MessageType msgType, String text, long key) {
+	}
+}
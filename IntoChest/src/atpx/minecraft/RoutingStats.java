@@ -0,0 +1,225 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@code RoutingStats} records how long each phase of routing items takes and
+ * how many blocks each walk reaches, for {@code /ic stats}.
+ * <p>
+ * Every phase keeps one {@link LatencyHistogram} since the last reset and
+ * one per minute for the last {@link #MAX_WINDOW_MINUTES} minutes, so the
+ * numbers can be shown for a recent time window as well. The phases overlap:
+ * filter evaluation and capacity checks happen during traversal.
+ * <p>
+ * Recording is lock-free, so worker threads of the {@link AsyncRouter} record
+ * into the same stats as the server thread.
+ *
+ * @author Jeff Lee
+ */
+public final class RoutingStats {
+
+	/** Most minutes a time window can cover. */
+	public static final int MAX_WINDOW_MINUTES = 15;
+
+	/**
+	 * Phases of routing items.
+	 */
+	public enum Phase {
+		/** Finding items lying on crafting tables. */
+		DETECTION("detection"),
+		/** Walking the redstone path from a crafting table, once per batch. */
+		TRAVERSAL("traversal"),
+		/** Checking an item against a sign, once per sign reached. */
+		FILTER("filter evaluation"),
+		/** Looking up the room a chest/dispenser has for an item. */
+		CAPACITY("capacity check"),
+		/** Adding items to a chest/dispenser. */
+		INSERT("insert");
+
+		private final String label;
+
+		Phase(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Gets the name of the phase as shown to players.
+		 *
+		 * @return the name
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/**
+	 * Histogram since the last reset plus one per minute.
+	 */
+	private static final class Recorder {
+		private final LatencyHistogram total = new LatencyHistogram();
+		private final LatencyHistogram[] minutes = 
+				new LatencyHistogram[MAX_WINDOW_MINUTES + 1];
+		private final AtomicLongArray stamps =  //Minute each histogram holds
+				new AtomicLongArray(MAX_WINDOW_MINUTES + 1);
+
+		Recorder() {
+			for (int i = 0; i < minutes.length; i++) {
+				minutes[i] = new LatencyHistogram();
+				stamps.set(i, -1);
+			}
+		}
+
+		void record(long value) {
+			long minute = currentMinute();
+			int slot = (int) (minute % minutes.length);
+			long stamp = stamps.get(slot);
+
+			//The first value of a new minute clears what the slot held before
+			if (stamp != minute && stamps.compareAndSet(slot, stamp, minute)) {
+				minutes[slot].clear();
+			}
+			minutes[slot].record(value);
+			total.record(value);
+		}
+
+		LatencyHistogram get(int window) {
+			LatencyHistogram merged;
+			long minute;
+
+			if (window <= 0) {
+				return total;
+			}
+			merged = new LatencyHistogram();
+			minute = currentMinute();
+			for (int i = 0; i < minutes.length; i++) {
+				if (stamps.get(i) > minute - window) {
+					merged.add(minutes[i]);
+				}
+			}
+			return merged;
+		}
+
+		void clear() {
+			total.clear();
+			for (int i = 0; i < minutes.length; i++) {
+				stamps.set(i, -1);
+				minutes[i].clear();
+			}
+		}
+	}
+
+	private final Recorder[] phases = new Recorder[Phase.values().length];
+	private final Recorder nodes = new Recorder();
+	private final AtomicLong resetMillis = new AtomicLong(System.currentTimeMillis());
+
+	/**
+	 * Creates empty stats.
+	 */
+	public RoutingStats() {
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = new Recorder();
+		}
+	}
+
+	/**
+	 * Records how long a phase took.
+	 *
+	 * @param phase  the phase
+	 * @param nanos  time taken in nanoseconds
+	 */
+	public void record(Phase phase, long nanos) {
+		phases[phase.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Records how many blocks a walk reached.
+	 *
+	 * @param count  number of blocks
+	 */
+	public void recordNodes(int count) {
+		nodes.record(count);
+	}
+
+	/**
+	 * Gets how long a phase took.
+	 *
+	 * @param phase  the phase
+	 * @param window  minutes to cover (up to {@link #MAX_WINDOW_MINUTES}), or
+	 *                0 for everything since the last reset
+	 * @return the times in nanoseconds
+	 */
+	public LatencyHistogram get(Phase phase, int window) {
+		return phases[phase.ordinal()].get(window);
+	}
+
+	/**
+	 * Gets how many blocks the walks reached.
+	 *
+	 * @param window  minutes to cover (up to {@link #MAX_WINDOW_MINUTES}), or
+	 *                0 for everything since the last reset
+	 * @return the numbers of blocks
+	 */
+	public LatencyHistogram getNodes(int window) {
+		return nodes.get(window);
+	}
+
+	/**
+	 * Gets when the stats were last reset.
+	 *
+	 * @return the time in milliseconds since the epoch
+	 */
+	public long getResetMillis() {
+		return resetMillis.get();
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		for (Recorder phase : phases) {
+			phase.clear();
+		}
+		nodes.clear();
+		resetMillis.set(System.currentTimeMillis());
+	}
+
+	/**
+	 * Formats a time in nanoseconds in the unit that suits it best.
+	 *
+	 * @param nanos  the time in nanoseconds
+	 * @return the formatted time
+	 */
+	public static String formatNanos(long nanos) {
+		if (nanos < 1000) {
+			return nanos + "ns";
+		}
+		if (nanos < 1000000) {
+			return ((nanos / 100) / 10.0) + "us";
+		}
+		return ((nanos / 10000) / 100.0) + "ms";
+	}
+
+	private static long currentMinute() {
+		return System.currentTimeMillis() / 60000;
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Item;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+import org.bukkit.event.player.PlayerDropItemEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.function.IntSupplier;
+
+/**
+ * {@code ScanScheduler} runs the scan for items on crafting tables with a
+ * period that adapts to how busy the crafting tables are, instead of at a
+ * fixed interval.
+ * <p>
+ * While a scan routes items, the period is halved down to the fewest ticks
+ * allowed, so a busy farm is served up to every tick. While scans route 
+ * nothing, because there are no items or none of them can go anywhere, the
+ * period is doubled up to the most ticks allowed, so an idle server hardly
+ * pays for scanning. A scan that leaves work behind has the next scan run
+ * after the fewest ticks (see {@link #hurry(String)}). An item that spawns or
+ * is dropped in or next to a chunk with a known crafting table, or a crafting
+ * table being placed, brings a backed off period straight back to the normal
+ * period.
+ * <p>
+ * The scan is run with {@code runTaskLater} and schedules itself again after
+ * every run. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class ScanScheduler implements Runnable, Listener {
+
+	private final Plugin plugin;
+	private final IntSupplier scan;
+	private final WorkbenchRegistry workbenchRegistry;
+	private final long minTicks;
+	private final long normalTicks;
+	private final long maxTicks;
+
+	private long period;
+	private String reason = "starting up";
+	private BukkitTask task;
+	private long dueNanos;                  //When the scheduled scan runs
+	private int idleScans;                  //Scans in a row that routed nothing
+	private String hurryReason;             //Why the next scan must run next tick
+
+	/**
+	 * Creates a scheduler.
+	 *
+	 * @param plugin  the plugin that owns the scan task
+	 * @param scan  runs a scan, returning the number of items it routed
+	 * @param workbenchRegistry  knows which chunks hold crafting tables
+	 * @param minTicks  fewest ticks between scans
+	 * @param normalTicks  ticks between scans after something happened
+	 * @param maxTicks  most ticks between scans
+	 */
+	public ScanScheduler(Plugin plugin, IntSupplier scan, 
+			WorkbenchRegistry workbenchRegistry, long minTicks, long normalTicks, 
+			long maxTicks) {
+		this.plugin = plugin;
+		this.scan = scan;
+		this.workbenchRegistry = workbenchRegistry;
+		this.minTicks = Math.max(1, minTicks);
+		this.maxTicks = Math.max(this.minTicks, maxTicks);
+		this.normalTicks = Math.min(Math.max(this.minTicks, normalTicks), this.maxTicks);
+		this.period = this.normalTicks;
+	}
+
+	/**
+	 * Schedules the first scan.
+	 *
+	 * @param delay  ticks until the first scan
+	 */
+	public void start(long delay) {
+		schedule(delay);
+	}
+
+	/**
+	 * Stops scanning.
+	 */
+	public void stop() {
+		if (task != null) {
+			task.cancel();
+			task = null;
+		}
+	}
+
+	/**
+	 * Gets the current number of ticks between scans.
+	 *
+	 * @return ticks between scans
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Gets why the period is what it is.
+	 *
+	 * @return the reason for the current period
+	 */
+	public String getReason() {
+		return reason;
+	}
+
+	/**
+	 * Runs a scan and schedules the next one.
+	 */
+	@Override
+	public void run() {
+		int routed = 0;
+
+		task = null;
+		try {
+			routed = scan.getAsInt();
+		}
+		finally {
+			if (hurryReason != null) {
+				idleScans = 0;
+				period = minTicks;
+				reason = hurryReason;
+				hurryReason = null;
+			}
+			else if (routed > 0) {
+				idleScans = 0;
+				period = Math.max(minTicks, period >> 1);
+				reason = routed + " item(s) routed from crafting tables";
+			}
+			else {
+				idleScans++;
+				period = Math.min(maxTicks, period << 1);
+				reason = "no items routed for " + idleScans + " scan(s)";
+			}
+			//Also scheduled when the scan failed, so scanning never stops for good
+			schedule(period);
+		}
+	}
+
+	/**
+	 * Makes the next scan run after the fewest ticks allowed, because the 
+	 * scan that is running left work behind. Must be called from within the
+	 * scan.
+	 *
+	 * @param why  what was left behind
+	 */
+	public void hurry(String why) {
+		hurryReason = why;
+	}
+
+	/**
+	 * Brings a backed off period back to the normal period and moves the next
+	 * scan forward if it would run later than that.
+	 *
+	 * @param why  what happened
+	 */
+	public void wake(String why) {
+		if (period > normalTicks) {
+			period = normalTicks;
+			idleScans = 0;
+			reason = why;
+		}
+		reschedule(normalTicks);
+	}
+
+	/**
+	 * Moves the next scan forward if it would run later than a number of
+	 * ticks from now.
+	 */
+	private void reschedule(long ticks) {
+		if (task != null && dueNanos - System.nanoTime() > ticks * 50000000L) {
+			task.cancel();
+			schedule(ticks);
+		}
+	}
+
+	private void schedule(long ticks) {
+		task = plugin.getServer().getScheduler().runTaskLater(plugin, this, ticks);
+		dueNanos = System.nanoTime() + ticks * 50000000L;
+	}
+
+	/**
+	 * Wakes up if an item appeared in or next to a chunk with a crafting table,
+	 * as water, hoppers and dispensers carry items over chunk borders.
+	 */
+	private void itemAppeared(Item item) {
+		Location location;
+		int chunkX;
+		int chunkZ;
+
+		if (item == null || period <= normalTicks) {
+			return;
+		}
+		location = item.getLocation();
+		chunkX = location.getBlockX() >> 4;
+		chunkZ = location.getBlockZ() >> 4;
+		for (int x = chunkX - 1; x <= chunkX + 1; x++) {
+			for (int z = chunkZ - 1; z <= chunkZ + 1; z++) {
+				if (workbenchRegistry.hasWorkbenches(item.getWorld(), BlockKey.chunk(x, z))) {
+					wake("item appeared near a crafting table");
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Event handler when an item entity spawns into a world.
+	 *
+	 * @param event  data of the spawned item
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onItemSpawn(ItemSpawnEvent event) {
+		itemAppeared(event.getEntity());
+	}
+
+	/**
+	 * Event handler when a player drops an item.
+	 *
+	 * @param event  data of the dropped item
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPlayerDropItem(PlayerDropItemEvent event) {
+		itemAppeared(event.getItemDrop());
+	}
+
+	/**
+	 * Event handler when a block is placed.
+	 *
+	 * @param event  data of the placed block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		if (event.getBlock().getType() == Material.WORKBENCH && period > normalTicks) {
+			wake("crafting table placed");
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * {@code SignFilter} is the text of a filter sign compiled into a form that
+ * can be checked against an item without parsing the sign again.
+ * <p>
+ * The terms of the sign are resolved the same way IntoChest has always read
+ * them: an item identifier ("15|2"), a decimal ID ("15"), an exact name, a
+ * group name or a short name. Named terms become bits in a bitset indexed by
+ * the item's ordinal (see {@link ItemKey#ordinal(int)}), identifiers and
+ * decimal IDs are kept as small sorted arrays.
+ * <p>
+ * A wildcard term ("*") only counts if no term before it matched the item, so
+ * the terms are split into segments at every wildcard and
+ * {@link #firstMatch(int)} reports which segment matched first.
+ * <p>
+ * Immutable.
+ *
+ * @author Jeff Lee
+ */
+public final class SignFilter implements DataValues {
+
+	private static final String DELIMITER = "|";
+	private static final String WILDCARD = "*";
+
+	/**
+	 * Terms of a sign between two wildcards.
+	 */
+	private static final class Segment {
+		private final BitSet ordinals = new BitSet();
+		private int[] typeIds = new int[0];          //Decimal ID terms, sorted
+		private int[] itemKeys = new int[0];         //Item identifier terms, sorted
+
+		boolean matches(int ordinal, int itemKey) {
+			return (ordinal >= 0 && ordinals.get(ordinal)) ||
+					(typeIds.length > 0 &&
+					 Arrays.binarySearch(typeIds, ItemKey.typeId(itemKey)) >= 0) ||
+					(itemKeys.length > 0 && Arrays.binarySearch(itemKeys, itemKey) >= 0);
+		}
+	}
+
+	/**
+	 * Stands in for a sign that has not been read yet. A route search lets 
+	 * every item through it, so a walk still reaches every block behind the
+	 * sign and the signs and chests/dispensers there can be looked up before
+	 * walking again.
+	 */
+	public static final SignFilter UNREAD = new SignFilter(new Segment[] {new Segment()});
+
+	private final Segment[] segments;
+
+	private SignFilter(Segment[] segments) {
+		this.segments = segments;
+	}
+
+	/**
+	 * Compiles the text of a sign.
+	 *
+	 * @param lines  the lines of the sign
+	 * @return the compiled filter
+	 */
+	public static SignFilter compile(String[] lines) {
+		ArrayList<Segment> segments = new ArrayList<Segment>();
+		Segment segment = new Segment();
+		StringBuilder text = new StringBuilder();
+		char firstChar;
+
+		for (String line : lines) {
+			text.append(line);
+		}
+		for (String filterStr : text.toString().toLowerCase().split(",")) {
+			filterStr = filterStr.trim();
+
+			//Don't process if the term is an empty string
+			if (filterStr.length() == 0) {
+				continue;
+			}
+
+			firstChar = filterStr.charAt(0);
+			if (firstChar >= '0' && firstChar <= '9') {
+				if (filterStr.contains(DELIMITER)) {
+					addItemId(segment, filterStr);
+				}
+				else {
+					addTypeId(segment, filterStr);
+				}
+			}
+			else if (filterStr.equals(WILDCARD)) {
+				segments.add(segment);
+				segment = new Segment();
+			}
+			else {
+				addName(segment, filterStr);
+			}
+		}
+		segments.add(segment);
+		return new SignFilter(segments.toArray(new Segment[segments.size()]));
+	}
+
+	/**
+	 * Finds the first segment of the sign that lets an item through. Segments
+	 * are the terms between wildcards, so the number of wildcards the sign
+	 * holds before the match is the index of the segment.
+	 *
+	 * @param itemKey  item key of the item (see {@link ItemKey})
+	 * @return index of the first matching segment or -1 if no term matches
+	 */
+	public int firstMatch(int itemKey) {
+		int ordinal = ItemKey.ordinal(itemKey);
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i].matches(ordinal, itemKey)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the number of wildcard terms of the sign.
+	 *
+	 * @return number of wildcards
+	 */
+	public int getWildcardCount() {
+		return segments.length - 1;
+	}
+
+	/**
+	 * Parses a number the way it would be printed, so a term only matches if
+	 * it is equal to the printed number.
+	 *
+	 * @return the number or null if the text is not printed that way
+	 */
+	private static Integer parseExact(String str) {
+		int val;
+		try {
+			val = Integer.parseInt(str);
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+		return String.valueOf(val).equals(str) ? val : null;
+	}
+
+	/**
+	 * Adds an item identifier term: "10|1".
+	 */
+	private static void addItemId(Segment segment, String filterStr) {
+		int key = ItemKey.parse(filterStr);
+
+		if (key == ItemKey.NONE) {
+			return;
+		}
+		if (Arrays.binarySearch(segment.itemKeys, key) < 0) {
+			segment.itemKeys = Arrays.copyOf(segment.itemKeys, segment.itemKeys.length + 1);
+			segment.itemKeys[segment.itemKeys.length - 1] = key;
+			Arrays.sort(segment.itemKeys);
+		}
+	}
+
+	/**
+	 * Adds a decimal ID term that matches every item with that ID: "10".
+	 */
+	private static void addTypeId(Segment segment, String filterStr) {
+		Integer typeId = parseExact(filterStr);
+
+		if (typeId == null) {
+			return;
+		}
+		if (Arrays.binarySearch(segment.typeIds, typeId) < 0) {
+			segment.typeIds = Arrays.copyOf(segment.typeIds, segment.typeIds.length + 1);
+			segment.typeIds[segment.typeIds.length - 1] = typeId;
+			Arrays.sort(segment.typeIds);
+		}
+	}
+
+	/**
+	 * Adds a lexical term. An item matches if the term is its exact name, or
+	 * else if the term is a group holding the item, or else (only if there is
+	 * no group by that name) if the term is its short name.
+	 */
+	private static void addName(Segment segment, String filterStr) {
+		ItemGroup group = ItemGroup.forName(filterStr);
+
+		for (int key : ItemKey.getKeysByName(filterStr)) {
+			segment.ordinals.set(ItemKey.ordinal(key));
+		}
+		if (group != null) {
+			group.addTo(segment.ordinals);
+		}
+		else {
+			for (int key : ItemKey.getKeysByShortName(filterStr)) {
+				segment.ordinals.set(ItemKey.ordinal(key));
+			}
+		}
+	}
+}
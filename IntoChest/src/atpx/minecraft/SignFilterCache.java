@@ -0,0 +1,174 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.Sign;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * {@code SignFilterCache} holds the compiled {@link SignFilter} of every
+ * filter sign a walk has read, by sign location, so the text of a sign is
+ * only read and parsed again after it changed.
+ * <p>
+ * A filter is dropped when its sign is placed, edited or broken, and with
+ * the chunk that holds it when the chunk unloads.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class SignFilterCache implements Listener {
+
+	//Per world, per chunk key, block key of every sign mapped to its filter
+	private final HashMap<UUID, LongObjectHashMap<LongObjectHashMap<SignFilter>>> filters =
+			new HashMap<UUID, LongObjectHashMap<LongObjectHashMap<SignFilter>>>();
+
+	/**
+	 * Gets the compiled filter of a sign, compiling it if the sign has not
+	 * been read since it last changed.
+	 *
+	 * @param block  the sign block
+	 * @return the filter of the sign
+	 */
+	public SignFilter get(Block block) {
+		LongObjectHashMap<LongObjectHashMap<SignFilter>> worldFilters;
+		LongObjectHashMap<SignFilter> chunkFilters;
+		SignFilter filter;
+		long key = BlockKey.of(block);
+		long chunkKey = BlockKey.chunkOf(key);
+		UUID worldId = block.getWorld().getUID();
+
+		worldFilters = filters.get(worldId);
+		if (worldFilters == null) {
+			worldFilters = new LongObjectHashMap<LongObjectHashMap<SignFilter>>();
+			filters.put(worldId, worldFilters);
+		}
+		chunkFilters = worldFilters.get(chunkKey);
+		if (chunkFilters == null) {
+			chunkFilters = new LongObjectHashMap<SignFilter>();
+			worldFilters.put(chunkKey, chunkFilters);
+		}
+		filter = chunkFilters.get(key);
+		if (filter == null) {
+			filter = SignFilter.compile(((Sign) block.getState()).getLines());
+			chunkFilters.put(key, filter);
+		}
+		return filter;
+	}
+
+	/**
+	 * Drops the filter of a sign.
+	 *
+	 * @param world  the world of the sign
+	 * @param key  block key of the sign
+	 */
+	public void invalidate(World world, long key) {
+		LongObjectHashMap<LongObjectHashMap<SignFilter>> worldFilters =
+				filters.get(world.getUID());
+		LongObjectHashMap<SignFilter> chunkFilters;
+
+		if (worldFilters == null) {
+			return;
+		}
+		chunkFilters = worldFilters.get(BlockKey.chunkOf(key));
+		if (chunkFilters != null) {
+			chunkFilters.remove(key);
+		}
+	}
+
+	/**
+	 * Drops every filter.
+	 */
+	public void clear() {
+		filters.clear();
+	}
+
+	private void invalidate(Block block) {
+		invalidate(block.getWorld(), BlockKey.of(block));
+	}
+
+	/**
+	 * Event handler when a block is placed.
+	 *
+	 * @param event  data of the placed block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a block is broken.
+	 *
+	 * @param event  data of the broken block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBreak(BlockBreakEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Event handler when the text of a sign is changed.
+	 *
+	 * @param event  data of the changed sign
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onSignChange(SignChangeEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Event handler when a chunk is unloaded.
+	 *
+	 * @param event  data of the unloaded chunk
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent event) {
+		LongObjectHashMap<LongObjectHashMap<SignFilter>> worldFilters =
+				filters.get(event.getWorld().getUID());
+
+		if (worldFilters != null) {
+			worldFilters.remove(BlockKey.chunk(event.getChunk().getX(),
+					event.getChunk().getZ()));
+		}
+	}
+
+	/**
+	 * Event handler when a world is unloaded.
+	 *
+	 * @param event  data of the unloaded world
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		filters.remove(event.getWorld().getUID());
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@code WorkbenchProfiler} adds up what routing the items of every crafting
+ * table costs, so the builds that cost the most can be listed with
+ * {@code /ic top}.
+ * <p>
+ * For every batch of items routed from a crafting table, the blocks walked,
+ * the signs checked, the chests/dispensers checked for room and the time
+ * spent are added to the {@link Cost} of the crafting table. Time spent on
+ * worker threads counts the same as time spent on the server thread. Costs
+ * add up until {@link #clear()} is called or the world is unloaded.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class WorkbenchProfiler implements Listener {
+
+	/**
+	 * What routing the items of a crafting table cost so far.
+	 */
+	public static final class Cost {
+		private final UUID worldId;
+		private final long workKey;
+		private long batches;
+		private long nodes;
+		private long signs;
+		private long chests;
+		private long nanos;
+
+		Cost(UUID worldId, long workKey) {
+			this.worldId = worldId;
+			this.workKey = workKey;
+		}
+
+		/**
+		 * Gets the world of the crafting table.
+		 *
+		 * @return the unique ID of the world
+		 */
+		public UUID getWorldId() {
+			return worldId;
+		}
+
+		/**
+		 * Gets the crafting table.
+		 *
+		 * @return block key of the crafting table
+		 */
+		public long getWorkKey() {
+			return workKey;
+		}
+
+		/**
+		 * Gets the number of batches of items routed.
+		 *
+		 * @return number of batches
+		 */
+		public long getBatches() {
+			return batches;
+		}
+
+		/**
+		 * Gets the number of blocks walked.
+		 *
+		 * @return number of blocks
+		 */
+		public long getNodes() {
+			return nodes;
+		}
+
+		/**
+		 * Gets the number of times a sign was checked.
+		 *
+		 * @return number of sign checks
+		 */
+		public long getSigns() {
+			return signs;
+		}
+
+		/**
+		 * Gets the number of times a chest/dispenser was checked for room.
+		 *
+		 * @return number of checks
+		 */
+		public long getChests() {
+			return chests;
+		}
+
+		/**
+		 * Gets the time spent.
+		 *
+		 * @return time in nanoseconds
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+	}
+
+	private final HashMap<UUID, LongObjectHashMap<Cost>> costs = 
+			new HashMap<UUID, LongObjectHashMap<Cost>>();
+
+	/**
+	 * Adds the cost of routing a batch of items to its crafting table.
+	 *
+	 * @param workbench  the crafting table
+	 * @param search  the search that routed the items, holding the blocks, 
+	 *                signs and chests/dispensers it went through
+	 * @param nanos  time spent routing the items in nanoseconds
+	 */
+	public void record(Block workbench, RouteSearch search, long nanos) {
+		UUID worldId = workbench.getWorld().getUID();
+		long workKey = BlockKey.of(workbench);
+		LongObjectHashMap<Cost> worldCosts = costs.get(worldId);
+		Cost cost;
+
+		if (worldCosts == null) {
+			worldCosts = new LongObjectHashMap<Cost>();
+			costs.put(worldId, worldCosts);
+		}
+		cost = worldCosts.get(workKey);
+		if (cost == null) {
+			cost = new Cost(worldId, workKey);
+			worldCosts.put(workKey, cost);
+		}
+		cost.batches++;
+		cost.nodes += search.getNodesVisited();
+		cost.signs += search.getSignsEvaluated();
+		cost.chests += search.getChestsProbed();
+		cost.nanos += nanos;
+	}
+
+	/**
+	 * Gets the crafting tables that cost the most time so far.
+	 *
+	 * @param count  most crafting tables to list
+	 * @return the costs, most expensive first
+	 */
+	public ArrayList<Cost> getTop(int count) {
+		ArrayList<Cost> top = new ArrayList<Cost>();
+		LongObjectHashMap<Cost> worldCosts;
+		Cost cost;
+
+		for (Map.Entry<UUID, LongObjectHashMap<Cost>> entry : costs.entrySet()) {
+			worldCosts = entry.getValue();
+			for (int slot = 0; slot < worldCosts.capacity(); slot++) {
+				cost = worldCosts.valueAt(slot);
+				if (cost != null) {
+					top.add(cost);
+				}
+			}
+		}
+		top.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+		if (top.size() > count) {
+			top.subList(count, top.size()).clear();
+		}
+		return top;
+	}
+
+	/**
+	 * Gets the number of crafting tables that routed items so far.
+	 *
+	 * @return number of crafting tables
+	 */
+	public int size() {
+		int size = 0;
+
+		for (LongObjectHashMap<Cost> worldCosts : costs.values()) {
+			size += worldCosts.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Forgets every cost.
+	 */
+	public void clear() {
+		costs.clear();
+	}
+
+	/**
+	 * Event handler when a world is unloaded.
+	 *
+	 * @param event  data of the unloaded world
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		World world = event.getWorld();
+
+		costs.remove(world.getUID());
+	}
+}
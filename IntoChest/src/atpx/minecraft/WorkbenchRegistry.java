@@ -0,0 +1,484 @@
+/*
+ *  IntoChest - A Minecraft Spigot Plugin
+ *  Copyright (C) 2015-2016  Jeff Lee
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program, under the name of "license.txt"; if not, write to the 
+ *  Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, 
+ *  MA 02110-1301 USA.
+ */
+package atpx.minecraft;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Item;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * {@code WorkbenchRegistry} knows which loaded chunks hold crafting tables,
+ * grouped by chunk, so the scan only has to look at the one block space 
+ * above each of them to find the items lying on them (see 
+ * {@link #findItems(World, Consumer)}), and the {@link ScanScheduler} can 
+ * tell whether an item that appears may have landed on one.
+ * <p>
+ * Crafting tables are stored as block keys (see {@link BlockKey}). Every 
+ * chunk is searched for them each time it is loaded, on a thread of its own
+ * from a snapshot of the chunk, so crafting tables placed while the chunk was
+ * unloaded or the plugin was off (world edits, other plugins, generated 
+ * structures, ...) are found as well. While the chunk stays loaded, block 
+ * place/break and piston events keep it up to date. Crafting tables that 
+ * disappear without an event are unregistered the next time items are 
+ * looked for on them.
+ * <p>
+ * Only chunks that hold a crafting table are kept, and only while they are
+ * loaded, so the registry grows with the crafting tables around players and
+ * not with the explored world.
+ * <p>
+ * Not thread-safe. Must only be used from the server main thread.
+ *
+ * @author Jeff Lee
+ */
+public class WorkbenchRegistry implements Listener {
+
+	@SuppressWarnings("deprecation")
+	private static final int WORKBENCH_ID = Material.WORKBENCH.getId();
+	private static final int SECTIONS = 16;           //Number of 16 block high sections in a chunk
+
+	/**
+	 * Crafting tables a search found in a chunk.
+	 */
+	private static final class Search {
+		private final World world;
+		private final int chunkX;
+		private final int chunkZ;
+		private final LongHashSet keys;
+
+		Search(World world, int chunkX, int chunkZ, LongHashSet keys) {
+			this.world = world;
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			this.keys = keys;
+		}
+	}
+
+	//Per world, the loaded chunks that hold a crafting table mapped to their crafting tables
+	private final HashMap<UUID, LongObjectHashMap<LongHashSet>> worlds = 
+			new HashMap<UUID, LongObjectHashMap<LongHashSet>>();
+	private final ExecutorService searcher;
+	private final ConcurrentLinkedQueue<Search> done = new ConcurrentLinkedQueue<Search>();
+	private int count;                                //Crafting tables in loaded chunks
+
+	/**
+	 * Creates an empty registry and starts its search thread.
+	 */
+	public WorkbenchRegistry() {
+		this.searcher = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "IntoChest Crafting Table Search");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Gets the number of crafting tables in loaded chunks.
+	 *
+	 * @return number of crafting tables that can currently hold items
+	 */
+	public int size() {
+		collect();
+		return count;
+	}
+
+	/**
+	 * Is there a known crafting table at a location?
+	 *
+	 * @param world  the world of the location
+	 * @param key  block key of the location
+	 * @return true if a crafting table is registered there
+	 */
+	public boolean contains(World world, long key) {
+		LongObjectHashMap<LongHashSet> chunks;
+		LongHashSet set;
+
+		collect();
+		chunks = worlds.get(world.getUID());
+		set = chunks != null ? chunks.get(BlockKey.chunkOf(key)) : null;
+		return set != null && set.contains(key);
+	}
+
+	/**
+	 * Does a loaded chunk hold a known crafting table?
+	 *
+	 * @param world  the world of the chunk
+	 * @param chunkKey  chunk key of the chunk (see {@link BlockKey#chunkOf(long)})
+	 * @return true if a crafting table is registered in the chunk
+	 */
+	public boolean hasWorkbenches(World world, long chunkKey) {
+		LongObjectHashMap<LongHashSet> chunks;
+
+		collect();
+		chunks = worlds.get(world.getUID());
+		return chunks != null && chunks.containsKey(chunkKey);
+	}
+
+	/**
+	 * Looks for the items lying on the known crafting tables of a world, in
+	 * the one block space right above each. The cost grows with the number 
+	 * of crafting tables, not with the number of entities. Crafting tables
+	 * that are not there anymore are unregistered.
+	 *
+	 * @param world  the world
+	 * @param found  called with every item found
+	 */
+	public void findItems(World world, Consumer<Item> found) {
+		LongObjectHashMap<LongHashSet> chunks;
+		LongHashSet set;
+		LongHashSet gone = null;
+
+		collect();
+		chunks = worlds.get(world.getUID());
+		if (chunks == null) {
+			return;
+		}
+		for (int i = 0; i < chunks.capacity(); i++) {
+			set = chunks.valueAt(i);
+			if (set == null) {
+				continue;
+			}
+			for (int j = 0; j < set.capacity(); j++) {
+				if (set.isUsed(j) && !findItemsAbove(world, set.keyAt(j), found)) {
+					if (gone == null) {
+						gone = new LongHashSet(4);
+					}
+					gone.add(set.keyAt(j));
+				}
+			}
+		}
+		//Removed afterwards as removing moves entries between slots
+		if (gone != null) {
+			for (long key : gone.toArray()) {
+				remove(world, key);
+			}
+		}
+	}
+
+	/**
+	 * Looks for the items lying on a crafting table.
+	 *
+	 * @return false if there is no crafting table at the location anymore
+	 */
+	private static boolean findItemsAbove(World world, long key, Consumer<Item> found) {
+		int x = BlockKey.x(key);
+		int y = BlockKey.y(key);
+		int z = BlockKey.z(key);
+		Location itemLoc;
+
+		if (world.getBlockAt(x, y, z).getType() != Material.WORKBENCH) {
+			return false;
+		}
+		for (Entity entity : world.getNearbyEntities(
+				new Location(world, x + .5, y + 1.5, z + .5), .5, .5, .5)) {
+			if (entity instanceof Item && entity.isValid()) {
+				itemLoc = entity.getLocation();
+				if (itemLoc.getBlockX() == x && itemLoc.getBlockY() == y + 1 &&
+						itemLoc.getBlockZ() == z) {
+					found.accept((Item) entity);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Searches the chunks of a world that are already loaded.
+	 * <p>
+	 * Meant to be called once per world when the plugin is enabled.
+	 *
+	 * @param world  the world
+	 */
+	public void loadWorld(World world) {
+		for (Chunk chunk : world.getLoadedChunks()) {
+			chunkLoaded(chunk);
+		}
+	}
+
+	/**
+	 * Stops the search thread. Searches that did not finish are dropped.
+	 */
+	public void shutdown() {
+		searcher.shutdownNow();
+		done.clear();
+		worlds.clear();
+		count = 0;
+	}
+
+	/**
+	 * Registers a crafting table.
+	 *
+	 * @param world  the world of the crafting table
+	 * @param key  block key of the crafting table
+	 */
+	protected void add(World world, long key) {
+		LongObjectHashMap<LongHashSet> chunks = worlds.get(world.getUID());
+		LongHashSet set;
+
+		if (chunks == null) {
+			chunks = new LongObjectHashMap<LongHashSet>();
+			worlds.put(world.getUID(), chunks);
+		}
+		set = chunks.get(BlockKey.chunkOf(key));
+		if (set == null) {
+			set = new LongHashSet(4);
+			chunks.put(BlockKey.chunkOf(key), set);
+		}
+		if (set.add(key)) {
+			count++;
+		}
+	}
+
+	/**
+	 * Unregisters a crafting table.
+	 *
+	 * @param world  the world of the crafting table
+	 * @param key  block key of the crafting table
+	 */
+	protected void remove(World world, long key) {
+		LongObjectHashMap<LongHashSet> chunks = worlds.get(world.getUID());
+		LongHashSet set = chunks != null ? chunks.get(BlockKey.chunkOf(key)) : null;
+
+		if (set != null && set.remove(key)) {
+			count--;
+			if (set.isEmpty()) {
+				chunks.remove(BlockKey.chunkOf(key));
+			}
+		}
+	}
+
+	/**
+	 * Starts searching a chunk that was loaded for crafting tables. The 
+	 * snapshot is taken right away, without the height map, biomes and 
+	 * temperatures the search does not need, and the search runs on the
+	 * search thread.
+	 *
+	 * @param chunk  the loaded chunk
+	 */
+	protected void chunkLoaded(Chunk chunk) {
+		ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+		World world = chunk.getWorld();
+		int chunkX = chunk.getX();
+		int chunkZ = chunk.getZ();
+
+		try {
+			searcher.execute(() -> done.add(
+					new Search(world, chunkX, chunkZ, search(snapshot, chunkX, chunkZ))));
+		} catch (RejectedExecutionException e) {
+			//Shut down, nothing is looked at anymore
+		}
+	}
+
+	/**
+	 * Registers the crafting tables the searches found since the last call,
+	 * in chunks that are still loaded. Crafting tables placed after the 
+	 * snapshot was taken were registered by their event and are kept.
+	 */
+	private void collect() {
+		Search search;
+
+		while ((search = done.poll()) != null) {
+			if (search.keys.isEmpty() || 
+					!search.world.isChunkLoaded(search.chunkX, search.chunkZ)) {
+				continue;
+			}
+			for (int slot = 0; slot < search.keys.capacity(); slot++) {
+				if (search.keys.isUsed(slot)) {
+					add(search.world, search.keys.keyAt(slot));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Searches a snapshot of a chunk for crafting tables. Runs on the search
+	 * thread.
+	 *
+	 * @param snapshot  the snapshot to search
+	 * @param chunkX  chunk X coordinate of the chunk
+	 * @param chunkZ  chunk Z coordinate of the chunk
+	 * @return block keys of all crafting tables in the chunk
+	 */
+	@SuppressWarnings("deprecation")
+	private static LongHashSet search(ChunkSnapshot snapshot, int chunkX, int chunkZ) {
+		LongHashSet set = new LongHashSet(4);
+		int baseX = chunkX << 4;
+		int baseZ = chunkZ << 4;
+
+		for (int section = 0; section < SECTIONS; section++) {
+			if (snapshot.isSectionEmpty(section)) {
+				continue;
+			}
+			for (int y = section << 4; y < (section + 1) << 4; y++) {
+				for (int x = 0; x < 16; x++) {
+					for (int z = 0; z < 16; z++) {
+						if (snapshot.getBlockTypeId(x, y, z) == WORKBENCH_ID) {
+							set.add(BlockKey.of(baseX + x, y, baseZ + z));
+						}
+					}
+				}
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Moves the crafting tables among blocks a piston pushes or pulls.
+	 */
+	private void moved(List<Block> blocks, BlockFace direction) {
+		World world;
+
+		if (blocks.isEmpty()) {
+			return;
+		}
+		world = blocks.get(0).getWorld();
+		//Every block leaves first, as one may move to where another was
+		for (Block block : blocks) {
+			remove(world, BlockKey.of(block));
+		}
+		for (Block block : blocks) {
+			if (block.getType() == Material.WORKBENCH) {
+				add(world, BlockKey.of(block.getRelative(direction)));
+			}
+		}
+	}
+
+	/**
+	 * Event handler when a block is placed.
+	 *
+	 * @param event  data of the placed block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		Block block = event.getBlock();
+
+		if (block.getType() == Material.WORKBENCH) {
+			add(block.getWorld(), BlockKey.of(block));
+		}
+	}
+
+	/**
+	 * Event handler when a block is broken.
+	 *
+	 * @param event  data of the broken block
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onBlockBreak(BlockBreakEvent event) {
+		Block block = event.getBlock();
+
+		if (block.getType() == Material.WORKBENCH) {
+			remove(block.getWorld(), BlockKey.of(block));
+		}
+	}
+
+	/**
+	 * Event handler when a piston pushes blocks.
+	 *
+	 * @param event  data of the piston and the blocks it moves
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPistonExtend(BlockPistonExtendEvent event) {
+		moved(event.getBlocks(), event.getDirection());
+	}
+
+	/**
+	 * Event handler when a sticky piston pulls blocks.
+	 *
+	 * @param event  data of the piston and the blocks it moves
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPistonRetract(BlockPistonRetractEvent event) {
+		moved(event.getBlocks(), event.getDirection());
+	}
+
+	/**
+	 * Event handler when a chunk is loaded.
+	 *
+	 * @param event  data of the loaded chunk
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkLoad(ChunkLoadEvent event) {
+		chunkLoaded(event.getChunk());
+	}
+
+	/**
+	 * Event handler when a chunk is unloaded. Its crafting tables are 
+	 * forgotten, the chunk is searched again when it is loaded again.
+	 *
+	 * @param event  data of the unloaded chunk
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent event) {
+		Chunk chunk = event.getChunk();
+		LongObjectHashMap<LongHashSet> chunks = worlds.get(chunk.getWorld().getUID());
+		LongHashSet set;
+
+		if (chunks != null) {
+			set = chunks.remove(BlockKey.chunk(chunk.getX(), chunk.getZ()));
+			if (set != null) {
+				count -= set.size();
+			}
+		}
+	}
+
+	/**
+	 * Event handler when a world is unloaded.
+	 *
+	 * @param event  data of the unloaded world
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		LongObjectHashMap<LongHashSet> chunks = worlds.remove(event.getWorld().getUID());
+		LongHashSet set;
+
+		if (chunks != null) {
+			for (int i = 0; i < chunks.capacity(); i++) {
+				set = chunks.valueAt(i);
+				if (set != null) {
+					count -= set.size();
+				}
+			}
+		}
+	}
+}